@@ -62,6 +62,11 @@ public abstract class AbstractBufferMgr {
 	 */
 	protected abstract void flushAll(int txnum);
 
+	/**
+	 * Flushes every dirty buffer, whichever transaction modified it.
+	 */
+	protected abstract void flushAll();
+
 	/**
 	 * Pins the specified block in memory. If the block is not in memory, it is
 	 * brought to memory.
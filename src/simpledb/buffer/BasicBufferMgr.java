@@ -65,6 +65,15 @@ class BasicBufferMgr extends AbstractBufferMgr {
 		return null;
 	}
 
+	/**
+	 * Flushes every dirty buffer.
+	 */
+	@Override
+	protected synchronized void flushAll() {
+		for (Buffer buff : bufferpool)
+			buff.flush();
+	}
+
 	/**
 	 * Flushes the dirty buffers modified by the specified transaction.
 	 *
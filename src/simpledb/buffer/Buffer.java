@@ -8,8 +8,13 @@ import simpledb.server.SimpleDB;
  * An individual buffer. A buffer wraps a page and stores information about its
  * status, such as the disk block associated with the page, the number of times
  * the block has been pinned, whether the contents of the page have been
- * modified, and if so, the id of the modifying transaction and the LSN of the
- * corresponding log record.
+ * modified, and if so, the ids of the modifying transactions and the LSN of the
+ * most recent corresponding log record.
+ * <P>
+ * Several transactions can modify the page at the same time, each in
+ * the records that it has locked. The buffer's lock serves as the page
+ * latch: each modification, and each read that must be consistent with
+ * them, happens while holding it.
  *
  * @author Edward Sciore
  */
@@ -17,9 +22,12 @@ public class Buffer {
 	private Page contents = new Page();
 	private Block blk = null;
 	private int pins = 0;
-	private int modifiedBy = -1; // negative means not modified
-	private int logSequenceNumber = -1; // negative means no corresponding log
+	private int[] modifiedBy = new int[2]; // the modifying transactions
+	private int modifiers = 0; // zero means not modified
+	private long logSequenceNumber = -1; // negative means no corresponding log
 										// record
+	private Page unlogged = null; // the page without its unlogged modifications
+	private int deferrals = 0; // the transactions whose modifications are unlogged
 
 	/**
 	 * Creates a new buffer, wrapping a new {@link simpledb.file.Page page}.
@@ -78,16 +86,75 @@ public class Buffer {
 	/**
 	 * Writes the page to its disk block if the page is dirty. The method
 	 * ensures that the corresponding log record has been written to disk prior
-	 * to writing the page to disk.
+	 * to writing the page to disk. The buffer is locked during the write, so
+	 * that a concurrent modification is not lost when the buffer becomes clean.
+	 * If the page has modifications that are not yet logged, the page
+	 * without them is written instead, and the buffer stays dirty.
 	 */
-	void flush() {
-		if (modifiedBy >= 0) {
+	synchronized void flush() {
+		if (modifiers > 0) {
 			SimpleDB.logMgr().flush(logSequenceNumber);
+			if (unlogged != null) {
+				unlogged.write(blk);
+				return;
+			}
 			contents.write(blk);
-			modifiedBy = -1;
+			modifiers = 0;
 		}
 	}
 
+	/**
+	 * Starts deferring the log records for a transaction's modifications of
+	 * the page. While any transaction defers its log records, the buffer keeps
+	 * a copy of the page without the unlogged modifications, and a flush
+	 * writes that copy instead of the page, leaving the buffer dirty. Thus a
+	 * modification is never written to disk before its log record. The caller
+	 * must keep the buffer pinned until its deferral ends.
+	 */
+	public synchronized void beginUnloggedChanges() {
+		if (deferrals++ == 0) {
+			unlogged = new Page();
+			contents.copyTo(unlogged);
+		}
+	}
+
+	/**
+	 * Returns the contents of the page without its unlogged modifications.
+	 *
+	 * @return the bytes of the page without its unlogged modifications
+	 */
+	public synchronized byte[] unloggedImage() {
+		return unlogged.getBytes(0, Page.BLOCK_SIZE);
+	}
+
+	/**
+	 * Records that the modifications in the specified range of the page have
+	 * been logged, so that a flush can write them.
+	 *
+	 * @param offset
+	 *            the byte offset of the range
+	 * @param length
+	 *            the length of the range
+	 */
+	public synchronized void logged(int offset, int length) {
+		unlogged.setBytes(offset, contents.getBytes(offset, length));
+	}
+
+	/**
+	 * Stops deferring the log records for a transaction's modifications of
+	 * the page. The caller has logged them, passing each logged range to
+	 * {@link #logged(int, int)}, and passes the LSN of its last log record.
+	 *
+	 * @param lsn
+	 *            the LSN of the log record, or a negative value if none was
+	 *            written
+	 */
+	public synchronized void endUnloggedChanges(long lsn) {
+		if (--deferrals == 0)
+			unlogged = null;
+		setLSN(lsn);
+	}
+
 	/**
 	 * Returns the integer value at the specified offset of the buffer's page.
 	 * If an integer was not stored at that location, the behavior of the method
@@ -114,6 +181,19 @@ public class Buffer {
 		return contents.getString(offset);
 	}
 
+	/**
+	 * Returns a copy of the bytes in the specified range of the buffer's page.
+	 *
+	 * @param offset
+	 *            the byte offset of the page
+	 * @param length
+	 *            the number of bytes
+	 * @return the bytes in that range
+	 */
+	public byte[] getBytes(int offset, int length) {
+		return contents.getBytes(offset, length);
+	}
+
 	/**
 	 * Returns true if the buffer is dirty due to a modification by the
 	 * specified transaction.
@@ -123,7 +203,10 @@ public class Buffer {
 	 * @return true if the transaction modified the buffer
 	 */
 	boolean isModifiedBy(int txnum) {
-		return txnum == modifiedBy;
+		for (int i = 0; i < modifiers; i++)
+			if (modifiedBy[i] == txnum)
+				return true;
+		return false;
 	}
 
 	/**
@@ -159,10 +242,9 @@ public class Buffer {
 	 * @param lsn
 	 *            the LSN of the corresponding log record
 	 */
-	public void setInt(int offset, int val, int txnum, int lsn) {
-		modifiedBy = txnum;
-		if (lsn >= 0)
-			logSequenceNumber = lsn;
+	public synchronized void setInt(int offset, int val, int txnum, long lsn) {
+		setModifiedBy(txnum);
+		setLSN(lsn);
 		contents.setInt(offset, val);
 	}
 
@@ -182,13 +264,84 @@ public class Buffer {
 	 * @param lsn
 	 *            the LSN of the corresponding log record
 	 */
-	public void setString(int offset, String val, int txnum, int lsn) {
-		modifiedBy = txnum;
-		if (lsn >= 0)
-			logSequenceNumber = lsn;
+	public synchronized void setString(int offset, String val, int txnum, long lsn) {
+		setModifiedBy(txnum);
+		setLSN(lsn);
 		contents.setString(offset, val);
 	}
 
+	/**
+	 * Writes bytes to the specified offset of the buffer's page. This method
+	 * assumes that the transaction has already written an appropriate log
+	 * record. A negative lsn value indicates that a log record was not
+	 * necessary. Unlike {@link #setInt(int, int, int, long)}, the modification
+	 * is never deferred, so it is also made to the copy of the page without
+	 * unlogged modifications.
+	 *
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param val
+	 *            the bytes to be written
+	 * @param txnum
+	 *            the id of the transaction performing the modification
+	 * @param lsn
+	 *            the LSN of the corresponding log record
+	 */
+	public synchronized void setBytes(int offset, byte[] val, int txnum, long lsn) {
+		setModifiedBy(txnum);
+		setLSN(lsn);
+		contents.setBytes(offset, val);
+		if (unlogged != null)
+			unlogged.setBytes(offset, val);
+	}
+
+	/**
+	 * Sets or clears the specified bits of the integer at the specified offset
+	 * of the buffer's page, leaving its other bits unchanged. This method
+	 * assumes that the transaction has already written an appropriate log
+	 * record. As with {@link #setBytes(int, byte[], int, long)}, the
+	 * modification is never deferred.
+	 *
+	 * @param offset
+	 *            the byte offset within the page
+	 * @param mask
+	 *            the bits to be modified
+	 * @param on
+	 *            true if the bits are to be set, false if cleared
+	 * @param txnum
+	 *            the id of the transaction performing the modification
+	 * @param lsn
+	 *            the LSN of the corresponding log record
+	 */
+	public synchronized void setBits(int offset, int mask, boolean on, int txnum, long lsn) {
+		setModifiedBy(txnum);
+		setLSN(lsn);
+		setBits(contents, offset, mask, on);
+		if (unlogged != null)
+			setBits(unlogged, offset, mask, on);
+	}
+
+	/**
+	 * Overwrites the entire contents of the buffer's page, using the specified
+	 * formatter. This method assumes that the transaction has already written
+	 * an appropriate log record. A negative lsn value indicates that a log
+	 * record was not necessary.
+	 *
+	 * @param fmtr
+	 *            the formatter used to write the page
+	 * @param txnum
+	 *            the id of the transaction performing the modification
+	 * @param lsn
+	 *            the LSN of the corresponding log record
+	 */
+	public synchronized void format(PageFormatter fmtr, int txnum, long lsn) {
+		setModifiedBy(txnum);
+		setLSN(lsn);
+		fmtr.format(contents);
+		if (unlogged != null)
+			contents.copyTo(unlogged);
+	}
+
 	/**
 	 * CS 4432 Project 1
 	 *
@@ -210,4 +363,26 @@ public class Buffer {
 	void unpin() {
 		pins--;
 	}
+
+	private void setModifiedBy(int txnum) {
+		if (isModifiedBy(txnum))
+			return;
+		if (modifiers == modifiedBy.length)
+			modifiedBy = java.util.Arrays.copyOf(modifiedBy, 2 * modifiers);
+		modifiedBy[modifiers++] = txnum;
+	}
+
+	/**
+	 * Records the LSN of a log record for the page. Concurrent transactions
+	 * may report their records out of order, so the buffer keeps the largest.
+	 */
+	private void setLSN(long lsn) {
+		if (lsn > logSequenceNumber)
+			logSequenceNumber = lsn;
+	}
+
+	private static void setBits(Page pg, int offset, int mask, boolean on) {
+		int word = pg.getInt(offset);
+		pg.setInt(offset, on ? (word | mask) : (word & ~mask));
+	}
 }
\ No newline at end of file
@@ -92,6 +92,14 @@ public class BufferMgr {
 		bufferMgr.flushAll(txnum);
 	}
 
+	/**
+	 * Flushes every dirty buffer. A checkpoint calls this method, so that
+	 * the modifications logged before it need not be redone by recovery.
+	 */
+	public void flushAll() {
+		bufferMgr.flushAll();
+	}
+
 	/**
 	 * Pins a buffer to the specified block, potentially waiting until a buffer
 	 * becomes available. If no buffer becomes available within a fixed time
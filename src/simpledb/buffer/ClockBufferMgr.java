@@ -135,6 +135,17 @@ public class ClockBufferMgr extends AbstractBufferMgr {
 		return buff;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see simpledb.buffer.AbstractBufferMgr#flushAll()
+	 */
+	@Override
+	protected synchronized void flushAll() {
+		for (Buffer buff : buffer.values())
+			buff.flush();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -132,6 +132,17 @@ public class FIFOBufferMgr extends AbstractBufferMgr {
 		return null;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see simpledb.buffer.AbstractBufferMgr#flushAll()
+	 */
+	@Override
+	protected synchronized void flushAll() {
+		for (Buffer buff : buffer.values())
+			buff.flush();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
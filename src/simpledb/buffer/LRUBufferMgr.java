@@ -130,6 +130,17 @@ public class LRUBufferMgr extends AbstractBufferMgr {
 		return null;
 	}
 
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see simpledb.buffer.AbstractBufferMgr#flushAll()
+	 */
+	@Override
+	protected synchronized void flushAll() {
+		for (Buffer buff : buffer.values())
+			buff.flush();
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
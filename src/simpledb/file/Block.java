@@ -39,6 +39,8 @@ public class Block {
    }
    
    public boolean equals(Object obj) {
+      if (!(obj instanceof Block))
+         return false;
       Block blk = (Block) obj;
       return filename.equals(blk.filename) && blknum == blk.blknum;
    }
@@ -48,6 +50,6 @@ public class Block {
    }
    
    public int hashCode() {
-      return toString().hashCode();
+      return filename.hashCode() * 31 + blknum;
    }
 }
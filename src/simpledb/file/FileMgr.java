@@ -15,13 +15,40 @@ import java.util.*;
  * and appending the contents of a byte buffer to the end of a file.
  * These methods are called exclusively by the class {@link simpledb.file.Page Page},
  * and are thus package-private.
- * The class also contains two public methods:
+ * The class also contains several public methods:
  * Method {@link #isNew() isNew} is called during system initialization by {@link simpledb.server.SimpleDB#init}.
  * Method {@link #size(String) size} is called by the log manager and transaction manager to
  * determine the end of the file.
+ * Method {@link #exists(String) exists} is called by zone maps, to
+ * determine whether a table has one.
+ * Methods {@link #fileNames(String) fileNames} and {@link #delete(String) delete}
+ * are called by the log manager to find and remove log segments.
+ * Method {@link #readBlocks(Block, ByteBuffer) readBlocks} is called by
+ * the log reader, to read many consecutive blocks at once.
+ * Method {@link #checkFormat(int, int, String) checkFormat} is called
+ * during system initialization, to reject a database whose files
+ * have a layout that this version of the system cannot read.
  * @author Edward Sciore
  */
 public class FileMgr {
+   /**
+    * The file that records the version of the format
+    * of each kind of file in the database.
+    */
+   public static final String FORMAT_FILE = "simpledb.fmt";
+   
+   /**
+    * The index of the version of the record page format
+    * in the format file.
+    */
+   public static final int RECORD_FORMAT = 0;
+   
+   /**
+    * The index of the version of the log format
+    * in the format file.
+    */
+   public static final int LOG_FORMAT = 1;
+   
    private File dbDirectory;
    private boolean isNew;
    private Map<String,FileChannel> openFiles = new HashMap<String,FileChannel>();
@@ -66,6 +93,32 @@ public class FileMgr {
       }
    }
 
+   /**
+    * Reads consecutive disk blocks, starting with the specified one,
+    * into the remaining space of a bytebuffer.
+    * Unlike {@link #read(Block, ByteBuffer) read}, the method
+    * honors the buffer's position and limit, so that
+    * the caller decides how many blocks are read.
+    * Reading stops early at the end of the file.
+    * @param blk a reference to the first disk block
+    * @param bb the bytebuffer
+    */
+   public synchronized void readBlocks(Block blk, ByteBuffer bb) {
+      try {
+         FileChannel fc = getFile(blk.fileName());
+         long pos = (long) blk.number() * BLOCK_SIZE;
+         while (bb.hasRemaining()) {
+            int n = fc.read(bb, pos);
+            if (n <= 0)
+               break;
+            pos += n;
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read blocks starting at " + blk);
+      }
+   }
+
    /**
     * Writes the contents of a bytebuffer into a disk block.
     * @param blk a reference to a disk block
@@ -111,6 +164,84 @@ public class FileMgr {
       }
    }
 
+   /**
+    * Returns a boolean indicating whether the specified file
+    * exists in the database directory.
+    * Unlike {@link #size(String) size}, this method does not
+    * create the file.
+    * @param filename the name of the file
+    * @return true if the file exists
+    */
+   public synchronized boolean exists(String filename) {
+      return openFiles.containsKey(filename)
+            || new File(dbDirectory, filename).exists();
+   }
+
+   /**
+    * Returns the names of the files in the database directory
+    * whose names begin with the specified prefix.
+    * @param prefix the prefix of the file names
+    * @return the names of the matching files
+    */
+   public synchronized List<String> fileNames(String prefix) {
+      List<String> result = new ArrayList<String>();
+      for (String filename : dbDirectory.list())
+         if (filename.startsWith(prefix))
+         result.add(filename);
+      return result;
+   }
+
+   /**
+    * Closes and deletes the specified file.
+    * The log manager calls this method to remove
+    * log segments that are no longer needed.
+    * @param filename the name of the file
+    */
+   public synchronized void delete(String filename) {
+      try {
+         FileChannel fc = openFiles.remove(filename);
+         if (fc != null)
+            fc.close();
+         new File(dbDirectory, filename).delete();
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot delete " + filename);
+      }
+   }
+
+   /**
+    * Checks that the specified kind of file in the database
+    * has the specified version of its format.
+    * If the database is new, the version is recorded at the
+    * specified index of the format file.
+    * Otherwise the recorded version must be the same.
+    * A database created before the version was recorded
+    * has no format file, and cannot be read either.
+    * @param index the index of the version in the format file
+    * @param version the version of the format, which is positive
+    * @param what the kind of file, for the error message
+    */
+   public synchronized void checkFormat(int index, int version, String what) {
+      Block blk = new Block(FORMAT_FILE, 0);
+      ByteBuffer bb = ByteBuffer.allocate(BLOCK_SIZE);
+      int pos = index * Integer.SIZE / Byte.SIZE;
+      if (size(FORMAT_FILE) > 0)
+         read(blk, bb);
+      int recorded = bb.getInt(pos);
+      if (recorded == version)
+         return;
+      if (recorded == 0 && isNew) {
+         bb.putInt(pos, version);
+         write(blk, bb);
+         return;
+      }
+      if (recorded == 0)
+         throw new RuntimeException("database " + dbDirectory.getName() + " was created by an earlier version of SimpleDB, whose "
+                                    + what + " format (before version " + version + ") cannot be read; recreate the database");
+      throw new RuntimeException("database " + dbDirectory.getName() + " has " + what + " format version " + recorded
+                                 + ", but this version of SimpleDB reads only version " + version);
+   }
+
    /**
     * Returns a boolean indicating whether the file manager
     * had to create a new database directory.
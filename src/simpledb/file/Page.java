@@ -62,11 +62,17 @@ public class Page {
     * @return the maximum number of bytes required to store a string of size n
     */
    public static final int STR_SIZE(int n) {
-      float bytesPerChar = Charset.defaultCharset().newEncoder().maxBytesPerChar();
-      return INT_SIZE + (n * (int)bytesPerChar);
+      return INT_SIZE + (n * BYTES_PER_CHAR);
    }
    
-   private ByteBuffer contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   /**
+    * The maximum number of bytes per character of the default charset.
+    * It is computed once, since creating an encoder is expensive.
+    */
+   private static final int BYTES_PER_CHAR =
+      (int) Charset.defaultCharset().newEncoder().maxBytesPerChar();
+   
+   private ByteBuffer contents;
    private FileMgr filemgr = SimpleDB.fileMgr();
    
    /**
@@ -81,7 +87,21 @@ public class Page {
     * {@link simpledb.server.SimpleDB#initFileLogAndBufferMgr(String)}
     * is called first.
     */
-   public Page() {}
+   public Page() {
+      contents = ByteBuffer.allocateDirect(BLOCK_SIZE);
+   }
+   
+   /**
+    * Creates a page whose contents are held by the
+    * specified bytebuffer, which must have room for a block.
+    * A client that reads several consecutive blocks into
+    * one bytebuffer can thus view each block as a page, using
+    * a slice of the bytebuffer, without copying it.
+    * @param contents the bytebuffer that holds the page
+    */
+   public Page(ByteBuffer contents) {
+      this.contents = contents;
+   }
    
    /**
     * Populates the page with the contents of the specified disk block. 
@@ -108,6 +128,19 @@ public class Page {
       return filemgr.append(filename, contents);
    }
    
+   /**
+    * Copies the contents of this page into the specified page.
+    * @param dest the page that receives the contents
+    */
+   public synchronized void copyTo(Page dest) {
+      ByteBuffer src = contents.duplicate();
+      src.clear();
+      synchronized (dest) {
+         dest.contents.clear();
+         dest.contents.put(src);
+      }
+   }
+   
    /**
     * Returns the integer value at a specified offset of the page.
     * If an integer was not stored at that location, 
@@ -130,6 +163,31 @@ public class Page {
       contents.putInt(val);
    }
    
+   /**
+    * Returns a copy of the bytes in the specified range of the page.
+    * @param offset the byte offset within the page
+    * @param length the number of bytes
+    * @return the bytes in that range
+    */
+   public synchronized byte[] getBytes(int offset, int length) {
+      byte[] val = new byte[length];
+      contents.position(offset);
+      contents.get(val);
+      return val;
+   }
+   
+   /**
+    * Writes the specified bytes to the page, starting at the
+    * specified offset.
+    * Unlike a string, the bytes are not preceded by their length.
+    * @param offset the byte offset within the page
+    * @param val the bytes to be written to the page
+    */
+   public synchronized void setBytes(int offset, byte[] val) {
+      contents.position(offset);
+      contents.put(val);
+   }
+   
    /**
     * Returns the string value at the specified offset of the page.
     * If a string was not stored at that location,
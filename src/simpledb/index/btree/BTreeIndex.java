@@ -31,8 +31,7 @@ public class BTreeIndex implements Index {
       // deal with the leaves
       String leaftbl = idxname + "leaf";
       leafTi = new TableInfo(leaftbl, leafsch);
-      if (tx.size(leafTi.fileName()) == 0)
-         tx.append(leafTi.fileName(), new BTPageFormatter(leafTi, -1));
+      tx.extend(leafTi.fileName(), 1, new BTPageFormatter(leafTi, -1));
 
       // deal with the directory
       Schema dirsch = new Schema();
@@ -41,9 +40,8 @@ public class BTreeIndex implements Index {
       String dirtbl = idxname + "dir";
       dirTi = new TableInfo(dirtbl, dirsch);
       rootblk = new Block(dirTi.fileName(), 0);
-      if (tx.size(dirTi.fileName()) == 0)
-         // create new root block
-         tx.append(dirTi.fileName(), new BTPageFormatter(dirTi, 0));
+      // create new root block, if necessary
+      tx.extend(dirTi.fileName(), 1, new BTPageFormatter(dirTi, 0));
       BTreePage page = new BTreePage(rootblk, dirTi, tx);
       if (page.getNumRecs() == 0) {
 			// insert initial directory entry
@@ -1,9 +1,8 @@
 package simpledb.index.planner;
 
-import java.util.Iterator;
-import java.util.Map;
+import java.util.*;
 
-import simpledb.record.RID;
+import simpledb.record.*;
 import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.index.Index;
@@ -19,6 +18,11 @@ import simpledb.query.*;
  * @author Edward Sciore
  */
 public class IndexUpdatePlanner implements UpdatePlanner {
+   /**
+    * The largest number of index records that a load
+    * sorts in memory at once.
+    */
+   public static final int LOAD_SORT_SIZE = 10000;
    
    public int executeInsert(InsertData data, Transaction tx) {
       String tblname = data.tableName();
@@ -50,8 +54,9 @@ public class IndexUpdatePlanner implements UpdatePlanner {
    
    public int executeDelete(DeleteData data, Transaction tx) {
       String tblname = data.tableName();
-      Plan p = new TablePlan(tblname, tx);
-      p = new SelectPlan(p, data.pred());
+      TablePlan tp = new TablePlan(tblname, tx);
+      tp.lockForUpdate();
+      Plan p = new SelectPlan(tp, data.pred());
       Map<String,IndexInfo> indexes = SimpleDB.mdMgr().getIndexInfo(tblname, tx);
       
       UpdateScan s = (UpdateScan) p.open();
@@ -76,8 +81,9 @@ public class IndexUpdatePlanner implements UpdatePlanner {
    public int executeModify(ModifyData data, Transaction tx) {
       String tblname = data.tableName();
       String fldname = data.targetField();
-      Plan p = new TablePlan(tblname, tx);
-      p = new SelectPlan(p, data.pred());
+      TablePlan tp = new TablePlan(tblname, tx);
+      tp.lockForUpdate();
+      Plan p = new SelectPlan(tp, data.pred());
       
       IndexInfo ii = SimpleDB.mdMgr().getIndexInfo(tblname, tx).get(fldname);
       Index idx = (ii == null) ? null : ii.open();
@@ -103,6 +109,54 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       return count;
    }
    
+   public int executeLoad(LoadData data, Transaction tx) {
+      String tblname = data.tableName();
+      TableInfo ti = SimpleDB.mdMgr().getTableInfo(tblname, tx);
+      
+      // first, load the records into new blocks
+      BulkLoader loader = new BulkLoader(ti, data.fields(), tx);
+      loader.loadFile(data.fileName());
+      loader.close();
+      if (loader.firstBlock() < 0)
+         return 0;
+      
+      // then add the loaded records to each index, a sorted run at a time
+      Map<String,IndexInfo> indexes = SimpleDB.mdMgr().getIndexInfo(tblname, tx);
+      for (String fldname : indexes.keySet()) {
+         Index idx = indexes.get(fldname).open();
+         List<IndexEntry> entries = new ArrayList<IndexEntry>();
+         TableScan s = new TableScan(ti, tx);
+         s.moveToRid(new RID(loader.firstBlock(), -1));
+         int fldidx = s.fieldIndex(fldname);
+         while (s.next()) {
+            entries.add(new IndexEntry(s.getVal(fldidx), s.getRid()));
+            if (entries.size() == LOAD_SORT_SIZE)
+               insertSorted(idx, entries);
+         }
+         s.close();
+         insertSorted(idx, entries);
+         idx.close();
+      }
+      return loader.recordsLoaded();
+   }
+   
+   /**
+    * Sorts the specified index records by value, inserts them
+    * into the index in that order, and empties the list.
+    * The index is not built bottom-up, since it may already
+    * hold records; the records are inserted one at a time, but
+    * consecutive insertions go to the same or adjacent B-tree leaves,
+    * which therefore stay in the buffer pool.
+    * Sorting at most LOAD_SORT_SIZE records at once bounds
+    * the memory that a load needs, whatever its size.
+    */
+   private void insertSorted(Index idx, List<IndexEntry> entries) {
+      Collections.sort(entries);
+      for (IndexEntry e : entries)
+         idx.insert(e.val, e.rid);
+      entries.clear();
+   }
+   
    public int executeCreateTable(CreateTableData data, Transaction tx) {
       SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
       return 0;
@@ -117,4 +171,28 @@ public class IndexUpdatePlanner implements UpdatePlanner {
       SimpleDB.mdMgr().createIndex(data.indexName(), data.tableName(), data.fieldName(), tx);
       return 0;
    }
+   
+   public int executeCreateZoneMap(CreateZoneMapData data, Transaction tx) {
+      TableInfo ti = SimpleDB.mdMgr().getTableInfo(data.tableName(), tx);
+      ZoneMap.create(ti, tx);
+      return 0;
+   }
+   
+   /**
+    * An index record of a loaded table record,
+    * ordered by its value.
+    */
+   private static class IndexEntry implements Comparable<IndexEntry> {
+      Constant val;
+      RID rid;
+      
+      IndexEntry(Constant val, RID rid) {
+         this.val = val;
+         this.rid = rid;
+      }
+      
+      public int compareTo(IndexEntry e) {
+         return val.compareTo(e.val);
+      }
+   }
 }
@@ -7,8 +7,9 @@ import simpledb.file.Page;
  * A class that provides the ability to read the values of
  * a log record.
  * The class has no idea what values are there.
- * Instead, the methods {@link #nextInt() nextInt}
- * and {@link #nextString() nextString} read the values 
+ * Instead, the methods {@link #nextInt() nextInt},
+ * {@link #nextLong() nextLong}, {@link #nextString() nextString}
+ * and {@link #nextBytes() nextBytes} read the values 
  * sequentially.
  * Thus the client is responsible for knowing how many values
  * are in the log record, and what their types are.
@@ -17,11 +18,12 @@ import simpledb.file.Page;
 public class BasicLogRecord {
    private Page pg;
    private int pos;
+   private long lsn = -1;
    
    /**
     * A log record located at the specified position of the specified page.
     * This constructor is called exclusively by
-    * {@link LogIterator#next()}.
+    * {@link LogReader}.
     * @param pg the page containing the log record
     * @param pos the position of the log record 
     */
@@ -30,6 +32,29 @@ public class BasicLogRecord {
       this.pos = pos;
    }
    
+   /**
+    * Repositions this object at the log record 
+    * at the specified position of the specified page.
+    * The log reader calls this method to reuse 
+    * a single object for every record of the log.
+    * @param pg the page containing the log record
+    * @param pos the position of the log record
+    * @param lsn the LSN of the log record
+    */
+   void moveTo(Page pg, int pos, long lsn) {
+      this.pg = pg;
+      this.pos = pos;
+      this.lsn = lsn;
+   }
+   
+   /**
+    * Returns the LSN of this log record.
+    * @return the LSN of the log record
+    */
+   public long lsn() {
+      return lsn;
+   }
+   
    /**
     * Returns the next value of the current log record, 
     * assuming it is an integer.
@@ -41,6 +66,18 @@ public class BasicLogRecord {
       return result;
    }
    
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is a long integer written by
+    * {@link LogRecordWriter#putLong(long)}.
+    * @return the next value of the current log record
+    */
+   public long nextLong() {
+      long high = nextInt();
+      long low = nextInt() & 0xffffffffL;
+      return (high << 32) | low;
+   }
+   
    /**
     * Returns the next value of the current log record, 
     * assuming it is a string.
@@ -51,4 +88,17 @@ public class BasicLogRecord {
       pos += STR_SIZE(result.length());
       return result;
    }
+   
+   /**
+    * Returns the next value of the current log record, 
+    * assuming it is an array of bytes written by
+    * {@link LogRecordWriter#putBytes(byte[])}.
+    * @return the next value of the current log record
+    */
+   public byte[] nextBytes() {
+      int length = nextInt();
+      byte[] result = pg.getBytes(pos, length);
+      pos += length;
+      return result;
+   }
 }
@@ -1,30 +1,27 @@
 package simpledb.log;
 
-import static simpledb.file.Page.INT_SIZE;
-import simpledb.file.*;
-import java.util.Iterator;
+import java.util.*;
 
 /**
  * A class that provides the ability to move through the
  * records of the log file in reverse order.
+ * The iterator is a thin adapter over a {@link LogReader}.
  * 
  * @author Edward Sciore
  */
 class LogIterator implements Iterator<BasicLogRecord> {
-   private Block blk;
-   private Page pg = new Page();
-   private int currentrec;
+   private LogReader reader;
+   private boolean peeked = false, hasprev;
    
    /**
     * Creates an iterator for the records in the log file,
     * positioned after the last log record.
     * This constructor is called exclusively by
     * {@link LogMgr#iterator()}.
+    * @param reader a reader positioned after the last log record
     */
-   LogIterator(Block blk) {
-      this.blk = blk;
-      pg.read(blk);
-      currentrec = pg.getInt(LogMgr.LAST_POS);
+   LogIterator(LogReader reader) {
+      this.reader = reader;
    }
    
    /**
@@ -33,34 +30,27 @@ class LogIterator implements Iterator<BasicLogRecord> {
     * @return true if there is an earlier record
     */
    public boolean hasNext() {
-      return currentrec>0 || blk.number()>0;
+      if (!peeked) {
+         hasprev = reader.previous();
+         peeked = true;
+      }
+      return hasprev;
    }
    
    /**
     * Moves to the next log record in reverse order.
-    * If the current log record is the earliest in its block,
-    * then the method moves to the next oldest block,
-    * and returns the log record from there.
+    * The returned object is reused by the next call,
+    * so its values must be read before then.
     * @return the next earliest log record
     */
    public BasicLogRecord next() {
-      if (currentrec == 0) 
-         moveToNextBlock();
-      currentrec = pg.getInt(currentrec);
-      return new BasicLogRecord(pg, currentrec+INT_SIZE);
+      if (!hasNext())
+         throw new NoSuchElementException();
+      peeked = false;
+      return reader.record();
    }
    
    public void remove() {
       throw new UnsupportedOperationException();
    }
-   
-   /**
-    * Moves to the next log block in reverse order,
-    * and positions it after the last record in that block.
-    */
-   private void moveToNextBlock() {
-      blk = new Block(blk.fileName(), blk.number()-1);
-      pg.read(blk);
-      currentrec = pg.getInt(LogMgr.LAST_POS);
-   }
 }
@@ -4,6 +4,7 @@ import simpledb.server.SimpleDB;
 import simpledb.file.*;
 import static simpledb.file.Page.*;
 import java.util.*;
+import java.util.logging.Level;
 
 /**
  * The low-level log manager.
@@ -13,6 +14,36 @@ import java.util.*;
  * The log manager does not understand the meaning of these
  * values, which are written and read by the
  * {@link simpledb.tx.recovery.RecoveryMgr recovery manager}.
+ * <P>
+ * The LSN of a log record is its byte offset in the log file.
+ * Records are appended to an in-memory ring of log pages
+ * ({@link simpledb.server.SimpleDB#LOG_BUFFER_PAGES} of them);
+ * an appender waits only when every page of the ring
+ * is full and not yet written.
+ * A background writer thread streams the full pages to disk,
+ * and keeps track of the flushed LSN: every log record
+ * whose LSN is less than it is on disk.
+ * <P>
+ * A transaction that needs its records on disk asks the writer
+ * to write the current, partially-filled page, and waits.
+ * Flushes requested by concurrent transactions are grouped:
+ * one write of the current page satisfies every transaction
+ * waiting at that time.
+ * The writer copies the page, so that transactions can keep
+ * appending records while the write is in progress.
+ * A transaction that commits asynchronously does not wait; instead,
+ * the writer flushes its commit record by a deadline
+ * ({@link simpledb.server.SimpleDB#ASYNC_COMMIT_DELAY}).
+ * The writer can also wait for a configurable window
+ * ({@link simpledb.server.SimpleDB#LOG_GROUP_WINDOW}) before writing,
+ * to let more transactions join its group.
+ * The distribution of group sizes is kept, and reported periodically.
+ * <P>
+ * The log is stored as a sequence of segment files, each holding
+ * {@link simpledb.server.SimpleDB#LOG_SEGMENT_BLOCKS} blocks;
+ * segment i of log file "f" is named "f.i".
+ * The segments preceding the oldest LSN still needed by recovery
+ * can be removed by {@link #truncate(long)}.
  * @author Edward Sciore
  */
 public class LogMgr implements Iterable<BasicLogRecord> {
@@ -22,15 +53,60 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     */
    public static final int LAST_POS = 0;
 
+   /**
+    * The size of the largest log record that fits in a log block.
+    * The block also holds the pointer to its last record and
+    * the pointer that follows the record, and since the
+    * end of the log is always within the current block,
+    * at least one byte of the block must be left free.
+    */
+   public static final int MAX_RECORD_SIZE = BLOCK_SIZE - 2 * INT_SIZE - 1;
+
+   /**
+    * The number of group flushes between reports of the
+    * group size distribution.
+    */
+   public static final int GROUP_REPORT_INTERVAL = 1000;
+
+   /**
+    * The version of the log format.
+    * Version 1 used the number of a record's block as its LSN,
+    * instead of the record's byte offset.
+    * Version 2 kept the log in a single file, instead of segments.
+    * @see simpledb.file.FileMgr#checkFormat(int, int, String)
+    */
+   public static final int FORMAT_VERSION = 3;
+
    private String logfile;
-   private Page mypage = new Page();
-   private Block currentblk;
+   private int segblocks;
+   private int firstblknum;  // the first block that has not been truncated
+   private Page[] ring;
+   private Page currentpage;
+   private int currentblknum;
    private int currentpos;
 
+   // the writer's state
+   private Page partialpage = new Page();
+   private int writtenblks;          // the blocks before this one are on disk
+   private long flushedlsn;          // the log bytes before this offset are on disk
+   private long requestedlsn = -1;   // the highest LSN that a transaction waits for
+   private long laterlsn = -1;       // the highest LSN to be flushed by the deadline
+   private long laterdeadline;
+   private RuntimeException writeerror;
+
+   // group commit statistics
+   private int waiters = 0;
+   private long[] groupsizes = new long[Long.SIZE];
+   private long groupflushes = 0;
+
    /**
     * Creates the manager for the specified log file.
-    * If the log file does not yet exist, it is created
+    * The format of the database's log is checked first,
+    * since records written in another format cannot be recovered.
+    * The existing segments of the log are located;
+    * if there are none, the first segment is created
     * with an empty first block.
+    * The constructor also starts the background writer thread.
     * This constructor depends on a {@link FileMgr} object
     * that it gets from the method
     * {@link simpledb.server.SimpleDB#fileMgr()}.
@@ -41,26 +117,112 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * @param logfile the name of the log file
     */
    public LogMgr(String logfile) {
+      SimpleDB.fileMgr().checkFormat(FileMgr.LOG_FORMAT, FORMAT_VERSION, "log");
       this.logfile = logfile;
-      int logsize = SimpleDB.fileMgr().size(logfile);
-      if (logsize == 0)
-         appendNewBlock();
+      ring = new Page[Math.max(SimpleDB.LOG_BUFFER_PAGES, 2)];
+      for (int i=0; i<ring.length; i++)
+         ring[i] = new Page();
+      segblocks = SimpleDB.LOG_SEGMENT_BLOCKS;
+      List<Integer> segs = existingSegments();
+      firstblknum = segs.isEmpty() ? 0 : segs.get(0) * segblocks;
+      int lastblknum = -1;
+      for (int i=segs.size()-1; i>=0 && lastblknum<0; i--) {
+         int seg = segs.get(i);
+         int size = SimpleDB.fileMgr().size(segmentName(seg));
+         if (size > 0)
+            lastblknum = seg * segblocks + size - 1;
+      }
+      if (lastblknum < 0) {
+         currentblknum = firstblknum;
+         currentpage = ring[slot(currentblknum)];
+         setLastRecordPosition(0);
+         currentpos = INT_SIZE;
+         currentpage.write(physicalBlock(currentblknum));
+      }
       else {
-         currentblk = new Block(logfile, logsize-1);
-         mypage.read(currentblk);
+         currentblknum = lastblknum;
+         currentpage = ring[slot(currentblknum)];
+         currentpage.read(physicalBlock(currentblknum));
          currentpos = getLastRecordPosition() + INT_SIZE;
       }
+      writtenblks = currentblknum;
+      flushedlsn = endLSN();
+      Thread writer = new Thread(new LogWriter(), "log writer");
+      writer.setDaemon(true);
+      writer.start();
    }
 
    /**
-    * Ensures that the log records corresponding to the
+    * Ensures that the log record having the
     * specified LSN has been written to disk.
     * All earlier log records will also be written to disk.
+    * If the record is not yet on disk, the method
+    * asks the writer to write it and waits;
+    * the write also satisfies every other transaction waiting
+    * at that time.
     * @param lsn the LSN of a log record
     */
-   public void flush(int lsn) {
-      if (lsn >= currentLSN())
-         flush();
+   public synchronized void flush(long lsn) {
+      if (lsn < flushedlsn)
+         return;
+      if (lsn > requestedlsn)
+         requestedlsn = lsn;
+      notifyAll();
+      waiters++;
+      try {
+         while (flushedlsn <= lsn)
+            awaitWriter();
+      }
+      finally {
+         waiters--;
+      }
+   }
+
+   /**
+    * Ensures that the log record having the specified LSN
+    * will be written to disk within
+    * {@link simpledb.server.SimpleDB#ASYNC_COMMIT_DELAY} milliseconds,
+    * without waiting for it.
+    * The writer flushes it sooner if another record is flushed
+    * in the meantime, or when its page fills.
+    * @param lsn the LSN of a log record
+    */
+   public synchronized void flushLater(long lsn) {
+      if (lsn < flushedlsn || lsn <= laterlsn)
+         return;
+      if (laterlsn < flushedlsn)
+         laterdeadline = System.currentTimeMillis() + SimpleDB.ASYNC_COMMIT_DELAY;
+      laterlsn = lsn;
+      notifyAll();
+   }
+
+   /**
+    * Returns the flushed LSN.
+    * Every log record having a smaller LSN is on disk.
+    * @return the flushed LSN
+    */
+   public synchronized long flushedLSN() {
+      return flushedlsn;
+   }
+
+   /**
+    * Returns the LSN of the end of the log.
+    * Every log record appended from now on
+    * will have an LSN at least as large.
+    * @return the LSN of the end of the log
+    */
+   public synchronized long endOfLog() {
+      return endLSN();
+   }
+
+   /**
+    * Returns the distribution of group sizes of the flushes so far.
+    * Element i of the array is the number of flushes whose group
+    * size was at least 2<sup>i</sup> and less than 2<sup>i+1</sup>.
+    * @return the group size histogram
+    */
+   public synchronized long[] groupSizeDistribution() {
+      return groupsizes.clone();
    }
 
    /**
@@ -68,85 +230,184 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * which will be returned in reverse order starting with the most recent.
     * @see java.lang.Iterable#iterator()
     */
-   public synchronized Iterator<BasicLogRecord> iterator() {
-      flush();
-      return new LogIterator(currentblk);
+   public Iterator<BasicLogRecord> iterator() {
+      return new LogIterator(reader());
    }
 
    /**
-    * Appends a log record to the file.
-    * The record contains an arbitrary array of strings and integers.
-    * The method also writes an integer to the end of each log record whose value
-    * is the offset of the corresponding integer for the previous log record.
-    * These integers allow log records to be read in reverse order.
-    * @param rec the list of values
-    * @return the LSN of the final value
-    */
-   public synchronized int append(Object[] rec) {
-      int recsize = INT_SIZE;  // 4 bytes for the integer that points to the previous log record
-      for (Object obj : rec)
-         recsize += size(obj);
-      if (currentpos + recsize >= BLOCK_SIZE){ // the log record doesn't fit,
-         flush();        // so move to the next block.
-         appendNewBlock();
-      }
-      for (Object obj : rec)
-         appendVal(obj);
-      finalizeRecord();
-      return currentLSN();
+    * Returns a reader for the log records,
+    * positioned after the most recent one.
+    * The reader sees the records that are in the log now,
+    * whether or not they have been written to disk.
+    * @return a reader for the log
+    */
+   public synchronized LogReader reader() {
+      return new LogReader(this, firstblknum, endLSN(), segblocks);
    }
 
    /**
-    * Adds the specified value to the page at the position denoted by
-    * currentpos.  Then increments currentpos by the size of the value.
-    * @param val the integer or string to be added to the page
+    * Copies the specified consecutive blocks of the log
+    * that are not yet on disk from the ring of pages
+    * into the corresponding pages of the specified array.
+    * The blocks that are on disk precede the others;
+    * the method returns how many of them there are,
+    * so that the caller can read them.
+    * @param first the number of the first block
+    * @param count the number of blocks
+    * @param pages the pages that receive the blocks
+    * @return the number of leading blocks that are on disk
     */
-   private void appendVal(Object val) {
-      if (val instanceof String)
-         mypage.setString(currentpos, (String)val);
-      else
-         mypage.setInt(currentpos, (Integer)val);
-      currentpos += size(val);
+   synchronized int copyUnwritten(int first, int count, Page[] pages) {
+      int ondisk = Math.max(0, Math.min(count, writtenblks - first));
+      for (int i=ondisk; i<count; i++)
+         ring[slot(first + i)].copyTo(pages[i]);
+      return ondisk;
    }
 
    /**
-    * Calculates the size of the specified integer or string.
-    * @param val the value
-    * @return the size of the value, in bytes
+    * Removes the log segments that precede the specified LSN.
+    * The segment containing the LSN, and every later one, are kept.
+    * The caller must ensure that no record preceding the LSN
+    * will be needed for recovery or rollback.
+    * @param lsn the oldest LSN that must be kept
     */
-   private int size(Object val) {
-      if (val instanceof String) {
-         String sval = (String) val;
-         return STR_SIZE(sval.length());
+   public synchronized void truncate(long lsn) {
+      int blknum = (int) Math.min(lsn / BLOCK_SIZE, writtenblks);
+      int firstseg = firstblknum / segblocks;
+      int keepseg = blknum / segblocks;
+      for (int seg=firstseg; seg<keepseg; seg++)
+         SimpleDB.fileMgr().delete(segmentName(seg));
+      if (keepseg > firstseg)
+         firstblknum = keepseg * segblocks;
+   }
+
+   /**
+    * Returns the disk block that holds the
+    * specified block of the log.
+    * @param blknum the number of a block of the log
+    * @return the block of the corresponding segment file
+    */
+   Block physicalBlock(int blknum) {
+      return new Block(segmentName(blknum / segblocks), blknum % segblocks);
+   }
+
+   private String segmentName(int seg) {
+      return logfile + "." + seg;
+   }
+
+   /**
+    * Returns the numbers of the existing segments of the log,
+    * in increasing order.
+    */
+   private List<Integer> existingSegments() {
+      String prefix = logfile + ".";
+      List<Integer> segs = new ArrayList<Integer>();
+      for (String filename : SimpleDB.fileMgr().fileNames(prefix)) {
+         try {
+            segs.add(Integer.parseInt(filename.substring(prefix.length())));
+         }
+         catch (NumberFormatException e) {
+            // not a log segment
+         }
       }
-      else
-         return INT_SIZE;
+      Collections.sort(segs);
+      return segs;
    }
 
    /**
-    * Returns the LSN of the most recent log record.
-    * As implemented, the LSN is the block number where the record is stored.
-    * Thus every log record in a block has the same LSN.
-    * @return the LSN of the most recent log record
+    * Appends a log record to the file.
+    * The record contains the values held by the specified writer.
+    * The method also writes an integer to the end of each log record whose value
+    * is the offset of the corresponding integer for the previous log record.
+    * These integers allow log records to be read in reverse order.
+    * A record larger than {@link #MAX_RECORD_SIZE} would not
+    * fit in any block, and is rejected.
+    * @param rec the writer holding the record's values
+    * @return the LSN of the record
+    * @throws IllegalArgumentException if the record does not fit in a log block
     */
-   private int currentLSN() {
-      return currentblk.number();
+   public synchronized long append(LogRecordWriter rec) {
+      if (rec.size() > MAX_RECORD_SIZE)
+         throw new IllegalArgumentException("log record of " + rec.size()
+                                            + " bytes exceeds the maximum of " + MAX_RECORD_SIZE);
+      int recsize = INT_SIZE + rec.size();  // 4 bytes for the integer that points to the previous log record
+      while (currentpos + recsize >= BLOCK_SIZE) // the log record doesn't fit,
+         moveToNextBlock();                     // so move to the next block.
+      long lsn = endLSN();
+      rec.writeTo(currentpage, currentpos);
+      currentpos += rec.size();
+      finalizeRecord();
+      return lsn;
+   }
+
+   /**
+    * Appends a log record to the file.
+    * The record contains an arbitrary array of strings, integers and longs.
+    * This method is a convenience for clients that are not
+    * performance critical; it copies the values into
+    * the calling thread's {@link LogRecordWriter}.
+    * @param rec the list of values
+    * @return the LSN of the record
+    */
+   public long append(Object[] rec) {
+      LogRecordWriter w = LogRecordWriter.get();
+      for (Object obj : rec) {
+         if (obj instanceof String)
+            w.putString((String) obj);
+         else if (obj instanceof Long)
+            w.putLong((Long) obj);
+         else
+            w.putInt((Integer) obj);
+      }
+      return append(w);
    }
 
    /**
-    * Writes the current page to the log file.
+    * Returns the byte offset in the log file
+    * at which the next log record will be appended,
+    * provided that it fits in the current block.
+    * @return the offset of the end of the log
     */
-   private void flush() {
-      mypage.write(currentblk);
+   private long endLSN() {
+      return (long) currentblknum * BLOCK_SIZE + currentpos;
+   }
+
+   private int slot(int blknum) {
+      return blknum % ring.length;
    }
 
    /**
-    * Clear the current page, and append it to the log file.
+    * Seals the current page, and moves to the next page of the ring.
+    * If that page still holds a block that has not been written,
+    * the method waits for the writer; if another appender
+    * moves to the next page in the meantime, the method
+    * returns without moving.
+    * The writer is then notified of the newly-full page.
     */
-   private void appendNewBlock() {
+   private void moveToNextBlock() {
+      int blknum = currentblknum;
+      while (currentblknum == blknum && blknum + 1 >= writtenblks + ring.length)
+         awaitWriter();
+      if (currentblknum != blknum)
+         return;
+      currentblknum++;
+      currentpage = ring[slot(currentblknum)];
       setLastRecordPosition(0);
       currentpos = INT_SIZE;
-      currentblk = mypage.append(logfile);
+      notifyAll();
+   }
+
+   private void awaitWriter() {
+      if (writeerror != null)
+         throw writeerror;
+      try {
+         wait();
+      }
+      catch (InterruptedException e) {
+         throw new RuntimeException("interrupted while waiting for the log writer");
+      }
+      if (writeerror != null)
+         throw writeerror;
    }
 
    /**
@@ -157,16 +418,118 @@ public class LogMgr implements Iterable<BasicLogRecord> {
     * is the offset of the integer for the last log record in the page.
     */
    private void finalizeRecord() {
-      mypage.setInt(currentpos, getLastRecordPosition());
+      currentpage.setInt(currentpos, getLastRecordPosition());
       setLastRecordPosition(currentpos);
       currentpos += INT_SIZE;
    }
 
    private int getLastRecordPosition() {
-      return mypage.getInt(LAST_POS);
+      return currentpage.getInt(LAST_POS);
    }
 
    private void setLastRecordPosition(int pos) {
-      mypage.setInt(LAST_POS, pos);
+      currentpage.setInt(LAST_POS, pos);
+   }
+
+   /**
+    * Adds a group to the group size distribution,
+    * and reports the distribution every
+    * GROUP_REPORT_INTERVAL flushes.
+    */
+   private void recordGroupSize(int size) {
+      groupsizes[Long.SIZE - 1 - Long.numberOfLeadingZeros(size)]++;
+      groupflushes++;
+      if (groupflushes % GROUP_REPORT_INTERVAL == 0 && SimpleDB.getLogger() != null)
+         SimpleDB.getLogger().log(Level.INFO, groupSizeReport());
+   }
+
+   private String groupSizeReport() {
+      StringBuilder sb = new StringBuilder("log group flushes: " + groupflushes + "; group sizes:");
+      for (int i=0; i<groupsizes.length; i++)
+         if (groupsizes[i] > 0)
+         sb.append(" [" + (1L << i) + "," + (1L << (i+1)) + "): " + groupsizes[i]);
+      return sb.toString();
+   }
+
+   /**
+    * The background thread that writes log pages.
+    * Each round writes the full pages that have not yet been written,
+    * followed by a copy of the current page if a transaction
+    * is waiting for one of its records, or if the deadline
+    * of an asynchronous commit has passed.
+    * The pages are written outside of the log manager's lock.
+    * A full page is not modified until it has been written,
+    * and so it needs no copy.
+    */
+   private class LogWriter implements Runnable {
+      public void run() {
+         try {
+            while (true)
+               writeRound();
+         }
+         catch (RuntimeException e) {
+            synchronized (LogMgr.this) {
+               writeerror = e;
+               LogMgr.this.notifyAll();
+            }
+         }
+      }
+
+      private void writeRound() {
+         int first, last, partialblk = -1;
+         long target;
+         synchronized (LogMgr.this) {
+            while (writtenblks == currentblknum && requestedlsn < flushedlsn) {
+               long remaining = laterdeadline - System.currentTimeMillis();
+               if (laterlsn < flushedlsn)
+                  await(0);
+               else if (remaining > 0)
+                  await(remaining);
+               else
+                  requestedlsn = laterlsn;
+            }
+            if (requestedlsn >= flushedlsn && SimpleDB.LOG_GROUP_WINDOW > 0)
+               awaitGroupWindow();
+            first = writtenblks;
+            last = currentblknum - 1;
+            target = (long) currentblknum * BLOCK_SIZE;
+            if (requestedlsn >= target) {
+               partialblk = currentblknum;
+               currentpage.copyTo(partialpage);
+               target = endLSN();
+            }
+            if (waiters > 0)
+               recordGroupSize(waiters);
+         }
+         for (int b=first; b<=last; b++)
+            ring[slot(b)].write(physicalBlock(b));
+         if (partialblk >= 0)
+            partialpage.write(physicalBlock(partialblk));
+         synchronized (LogMgr.this) {
+            writtenblks = last + 1;
+            flushedlsn = Math.max(flushedlsn, target);
+            LogMgr.this.notifyAll();
+         }
+      }
+
+      /**
+       * Waits for the group commit window to elapse,
+       * so that other transactions can join the flush.
+       */
+      private void awaitGroupWindow() {
+         long deadline = System.currentTimeMillis() + SimpleDB.LOG_GROUP_WINDOW;
+         long remaining;
+         while ((remaining = deadline - System.currentTimeMillis()) > 0)
+            await(remaining);
+      }
+
+      private void await(long millis) {
+         try {
+            LogMgr.this.wait(millis);
+         }
+         catch (InterruptedException e) {
+            throw new RuntimeException("log writer interrupted");
+         }
+      }
    }
 }
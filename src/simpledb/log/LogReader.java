@@ -0,0 +1,215 @@
+package simpledb.log;
+
+import static simpledb.file.Page.*;
+import java.nio.ByteBuffer;
+import simpledb.file.Page;
+import simpledb.server.SimpleDB;
+
+/**
+ * A reader of the log records, which can move through
+ * them in either direction, and can jump to the record
+ * having a given LSN.
+ * The reader reads the log in chunks of up to
+ * CHUNK_BLOCKS consecutive blocks of a segment, 
+ * with one disk read per chunk; the blocks that are not yet
+ * on disk are copied from the log manager's ring of pages.
+ * Each block of a chunk is viewed as a page, and a single
+ * {@link BasicLogRecord} is repositioned at each record,
+ * so moving from one record to another creates no objects.
+ * <P>
+ * A reader sees the records that were in the log when it
+ * was created by {@link LogMgr#reader()}.
+ * It is used by one thread at a time.
+ */
+public class LogReader {
+   /**
+    * The largest number of blocks read at once.
+    */
+   public static final int CHUNK_BLOCKS = 32;
+   
+   private LogMgr logmgr;
+   private int firstblknum, lastblknum, segblocks;
+   private long endlsn;
+   
+   // the chunk of blocks in memory
+   private ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_BLOCKS * BLOCK_SIZE);
+   private Page[] pages = new Page[CHUNK_BLOCKS];
+   private int chunkfirst = -1, chunksize = 0;
+   
+   // the current block, and the positions of its records in log order
+   private int blknum = -1;
+   private Page pg;
+   private int[] recpos = new int[BLOCK_SIZE / INT_SIZE];
+   private int reccount;
+   private int current;
+   private BasicLogRecord rec;
+   
+   /**
+    * Creates a reader for the log records preceding the specified LSN,
+    * positioned after the last of them.
+    * This constructor is called exclusively by {@link LogMgr#reader()}.
+    * @param logmgr the log manager, which locates the blocks of the log
+    * @param firstblknum the first block of the log that has not been truncated
+    * @param endlsn the LSN of the end of the log
+    * @param segblocks the number of blocks in a log segment
+    */
+   LogReader(LogMgr logmgr, int firstblknum, long endlsn, int segblocks) {
+      this.logmgr = logmgr;
+      this.firstblknum = firstblknum;
+      this.endlsn = endlsn;
+      this.segblocks = segblocks;
+      lastblknum = (int) (endlsn / BLOCK_SIZE);
+      for (int i=0; i<CHUNK_BLOCKS; i++) {
+         chunk.limit((i+1) * BLOCK_SIZE);
+         chunk.position(i * BLOCK_SIZE);
+         pages[i] = new Page(chunk.slice());
+      }
+      chunk.clear();
+      afterLast();
+   }
+   
+   /**
+    * Positions the reader before the first record of the log.
+    */
+   public void beforeFirst() {
+      moveToBlock(firstblknum, true);
+      current = -1;
+   }
+   
+   /**
+    * Positions the reader after the last record of the log.
+    */
+   public void afterLast() {
+      moveToBlock(lastblknum, false);
+      current = reccount;
+   }
+   
+   /**
+    * Moves to the next record of the log, in log order.
+    * @return false if there is no next record
+    */
+   public boolean next() {
+      current++;
+      while (current >= reccount) {
+         if (blknum >= lastblknum) {
+            current = reccount;
+            return false;
+         }
+         moveToBlock(blknum + 1, true);
+         current = 0;
+      }
+      positionRecord();
+      return true;
+   }
+   
+   /**
+    * Moves to the previous record of the log, in log order.
+    * @return false if there is no previous record
+    */
+   public boolean previous() {
+      current--;
+      while (current < 0) {
+         if (blknum <= firstblknum) {
+            current = -1;
+            return false;
+         }
+         moveToBlock(blknum - 1, false);
+         current = reccount - 1;
+      }
+      positionRecord();
+      return true;
+   }
+   
+   /**
+    * Moves to the log record having the specified LSN,
+    * and returns it.
+    * The reader can then move forwards or backwards from it.
+    * @param lsn the LSN of a log record
+    * @return the log record
+    */
+   public BasicLogRecord seek(long lsn) {
+      int pos = (int) (lsn % BLOCK_SIZE);
+      moveToBlock((int) (lsn / BLOCK_SIZE), false);
+      for (current=0; current<reccount; current++)
+         if (recpos[current] == pos) {
+            positionRecord();
+            return rec;
+         }
+      throw new RuntimeException("no log record at LSN " + lsn);
+   }
+   
+   /**
+    * Returns the current log record.
+    * The returned object is reused when the reader moves,
+    * so its values must be read before then.
+    * @return the current log record
+    */
+   public BasicLogRecord record() {
+      return rec;
+   }
+   
+   private void positionRecord() {
+      long lsn = (long) blknum * BLOCK_SIZE + recpos[current];
+      if (rec == null)
+         rec = new BasicLogRecord(pg, recpos[current]);
+      rec.moveTo(pg, recpos[current], lsn);
+   }
+   
+   /**
+    * Makes the specified block the current one, reading
+    * a new chunk if necessary, and finds the positions of
+    * its records.
+    * Each record is followed by the position of the integer
+    * that follows the previous record, so the positions are found
+    * in reverse order, starting from the page's LAST_POS.
+    * @param b the block number
+    * @param forward the direction in which the reader is moving
+    */
+   private void moveToBlock(int b, boolean forward) {
+      if (b < chunkfirst || b >= chunkfirst + chunksize)
+         readChunk(b, forward);
+      blknum = b;
+      pg = pages[b - chunkfirst];
+      reccount = 0;
+      for (int p = pg.getInt(LogMgr.LAST_POS); p != 0; p = pg.getInt(p))
+         recpos[reccount++] = pg.getInt(p) + INT_SIZE;
+      for (int i=0, j=reccount-1; i<j; i++, j--) {
+         int tmp = recpos[i];
+         recpos[i] = recpos[j];
+         recpos[j] = tmp;
+      }
+      if (b == lastblknum)
+         while (reccount > 0 && recpos[reccount-1] >= endlsn % BLOCK_SIZE)
+            reccount--;
+   }
+   
+   /**
+    * Reads a chunk of consecutive blocks of one segment,
+    * which contains the specified block and extends in 
+    * the specified direction.
+    * The blocks that are not yet on disk are copied
+    * from the log manager, and the others are read in a single
+    * disk read.
+    */
+   private void readChunk(int b, boolean forward) {
+      int segfirst = b - (b % segblocks);
+      int first, last;
+      if (forward) {
+         first = b;
+         last = Math.min(Math.min(b + CHUNK_BLOCKS - 1, segfirst + segblocks - 1), lastblknum);
+      }
+      else {
+         last = b;
+         first = Math.max(Math.max(b - CHUNK_BLOCKS + 1, segfirst), firstblknum);
+      }
+      int size = last - first + 1;
+      int ondisk = logmgr.copyUnwritten(first, size, pages);
+      if (ondisk > 0) {
+         chunk.clear();
+         chunk.limit(ondisk * BLOCK_SIZE);
+         SimpleDB.fileMgr().readBlocks(logmgr.physicalBlock(first), chunk);
+      }
+      chunkfirst = first;
+      chunksize = size;
+   }
+}
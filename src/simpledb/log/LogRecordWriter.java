@@ -0,0 +1,159 @@
+package simpledb.log;
+
+import static simpledb.file.Page.*;
+import simpledb.file.Page;
+
+/**
+ * A reusable buffer for the values of a log record.
+ * A client adds the values of a record with the methods 
+ * {@link #putInt(int) putInt}, {@link #putLong(long) putLong},
+ * {@link #putString(String) putString} and {@link #putBytes(byte[]) putBytes},
+ * and passes the writer to {@link LogMgr#append(LogRecordWriter)}.
+ * The values are kept unboxed, and the arrays holding them
+ * are reused for the next record, so that writing a log record
+ * creates no garbage.
+ * Each thread has its own writer, obtained from {@link #get()}.
+ */
+public class LogRecordWriter {
+   private static final ThreadLocal<LogRecordWriter> writers =
+      new ThreadLocal<LogRecordWriter>() {
+         protected LogRecordWriter initialValue() {
+            return new LogRecordWriter();
+         }
+      };
+   
+   private int[] ints = new int[8];
+   private String[] strs = new String[8];
+   private byte[][] bytes = new byte[8][];
+   private int count = 0;
+   private int size = 0;
+   
+   /**
+    * Returns the calling thread's writer, emptied of any
+    * previous values.
+    * @return an empty log record writer
+    */
+   public static LogRecordWriter get() {
+      LogRecordWriter w = writers.get();
+      w.reset();
+      return w;
+   }
+   
+   /**
+    * Adds an integer to the record.
+    * @param val the integer value
+    * @return this writer
+    */
+   public LogRecordWriter putInt(int val) {
+      ensureCapacity();
+      ints[count] = val;
+      strs[count] = null;
+      bytes[count] = null;
+      count++;
+      size += INT_SIZE;
+      return this;
+   }
+   
+   /**
+    * Adds a long integer to the record.
+    * The value is stored as two integers,
+    * the high-order one first, and is read by
+    * {@link BasicLogRecord#nextLong()}.
+    * @param val the long value
+    * @return this writer
+    */
+   public LogRecordWriter putLong(long val) {
+      return putInt((int) (val >>> 32)).putInt((int) val);
+   }
+   
+   /**
+    * Adds a string to the record.
+    * @param val the string value
+    * @return this writer
+    */
+   public LogRecordWriter putString(String val) {
+      ensureCapacity();
+      strs[count] = val;
+      bytes[count] = null;
+      count++;
+      size += STR_SIZE(val.length());
+      return this;
+   }
+   
+   /**
+    * Adds an array of bytes to the record.
+    * The bytes are preceded by their number in the log,
+    * and are read by {@link BasicLogRecord#nextBytes()}.
+    * The array is not copied, and so must not be modified
+    * until the record has been appended.
+    * @param val the bytes
+    * @return this writer
+    */
+   public LogRecordWriter putBytes(byte[] val) {
+      ensureCapacity();
+      strs[count] = null;
+      bytes[count] = val;
+      count++;
+      size += INT_SIZE + val.length;
+      return this;
+   }
+   
+   /**
+    * Removes the values of the record.
+    */
+   public void reset() {
+      for (int i=0; i<count; i++) {
+         strs[i] = null;
+         bytes[i] = null;
+      }
+      count = 0;
+      size = 0;
+   }
+   
+   /**
+    * Returns the number of bytes that the values
+    * will occupy in a log page.
+    * @return the size of the record's values
+    */
+   int size() {
+      return size;
+   }
+   
+   /**
+    * Writes the values to the specified page, 
+    * starting at the specified position.
+    * @param page the log page
+    * @param pos the position of the first value
+    */
+   void writeTo(Page page, int pos) {
+      for (int i=0; i<count; i++) {
+         if (strs[i] != null) {
+            page.setString(pos, strs[i]);
+            pos += STR_SIZE(strs[i].length());
+         }
+         else if (bytes[i] != null) {
+            page.setInt(pos, bytes[i].length);
+            page.setBytes(pos + INT_SIZE, bytes[i]);
+            pos += INT_SIZE + bytes[i].length;
+         }
+         else {
+            page.setInt(pos, ints[i]);
+            pos += INT_SIZE;
+         }
+      }
+   }
+   
+   private void ensureCapacity() {
+      if (count == ints.length) {
+         int[] newints = new int[2 * count];
+         String[] newstrs = new String[2 * count];
+         byte[][] newbytes = new byte[2 * count][];
+         System.arraycopy(ints, 0, newints, 0, count);
+         System.arraycopy(strs, 0, newstrs, 0, count);
+         System.arraycopy(bytes, 0, newbytes, 0, count);
+         ints = newints;
+         strs = newstrs;
+         bytes = newbytes;
+      }
+   }
+}
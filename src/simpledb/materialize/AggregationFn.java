@@ -23,6 +23,24 @@ public interface AggregationFn {
     */
    void processNext(Scan s);
    
+   /**
+    * Uses the <i>i</i>th selected record of the specified batch
+    * to be the first record in the group.
+    * @param b the batch to aggregate over.
+    * @param i the index of the record in the selection vector
+    */
+   void processFirst(Batch b, int i);
+   
+   /**
+    * Uses the selected records of the specified batch,
+    * from index start up to but not including index end,
+    * to be the next records in the group.
+    * @param b the batch to aggregate over.
+    * @param start the index of the first record in the selection vector
+    * @param end the index following the last record
+    */
+   void processNext(Batch b, int start, int end);
+   
    /**
     * Returns the name of the new aggregation field.
     * @return the name of the new aggregation field
@@ -0,0 +1,160 @@
+package simpledb.materialize;
+
+import simpledb.query.*;
+import java.util.*;
+
+/**
+ * The Scan class for the <i>groupby</i> operator,
+ * when its input is read in batches.
+ * As with {@link GroupByScan}, the records of a group must
+ * be consecutive.
+ * The scan finds the end of each group's run of records
+ * in a batch by comparing the column vectors, and gives the
+ * whole run to each aggregation function at once.
+ * @author Edward Sciore
+ */
+public class BatchGroupByScan implements Scan {
+   private BatchScan s;
+   private String[] groupfields;
+   private Collection<AggregationFn> aggfns;
+   private Batch batch;
+   private int current;
+   private int[] cols = null;
+   private Constant[] groupvals;
+   private int[] groupints;
+   private String[] groupstrings;
+
+   /**
+    * Creates a groupby scan, given a grouped batch scan.
+    * @param s the grouped batch scan
+    * @param groupfields the group fields
+    * @param aggfns the aggregation functions
+    */
+   public BatchGroupByScan(BatchScan s, Collection<String> groupfields, Collection<AggregationFn> aggfns) {
+      this.s = s;
+      this.groupfields = groupfields.toArray(new String[groupfields.size()]);
+      this.aggfns = aggfns;
+      int n = this.groupfields.length;
+      groupvals = new Constant[n];
+      groupints = new int[n];
+      groupstrings = new String[n];
+      beforeFirst();
+   }
+
+   /**
+    * Positions the scan before the first group,
+    * and reads the first batch of the underlying scan.
+    * @see simpledb.query.Scan#beforeFirst()
+    */
+   public void beforeFirst() {
+      s.beforeFirst();
+      batch = s.nextBatch();
+      current = 0;
+   }
+
+   /**
+    * Moves to the next group.
+    * The group consists of the records having the same
+    * group values as the first unprocessed record, which
+    * may extend over several batches.
+    * @see simpledb.query.Scan#next()
+    */
+   public boolean next() {
+      if (batch == null)
+         return false;
+      startGroup();
+      int start = current + 1;
+      while (true) {
+         int end = start;
+         while (end < batch.size() && inGroup(end))
+            end++;
+         if (end > start)
+            for (AggregationFn fn : aggfns)
+            fn.processNext(batch, start, end);
+         if (end < batch.size()) {
+            current = end;
+            return true;
+         }
+         batch = s.nextBatch();
+         if (batch == null)
+            return true;
+         start = 0;
+      }
+   }
+
+   public void close() {
+      s.close();
+   }
+
+   public Constant getVal(String fldname) {
+      for (int k=0; k<groupfields.length; k++)
+         if (groupfields[k].equals(fldname))
+         return groupvals[k];
+      for (AggregationFn fn : aggfns)
+         if (fn.fieldName().equals(fldname))
+         return fn.value();
+      throw new RuntimeException("field " + fldname + " not found.");
+   }
+
+   public int getInt(String fldname) {
+      return (Integer)getVal(fldname).asJavaVal();
+   }
+
+   public String getString(String fldname) {
+      return (String)getVal(fldname).asJavaVal();
+   }
+
+   /* Returns true if the specified field is either a
+    * grouping field or created by an aggregation function.
+    * @see simpledb.query.Scan#hasField(java.lang.String)
+    */
+   public boolean hasField(String fldname) {
+      for (String groupfield : groupfields)
+         if (groupfield.equals(fldname))
+         return true;
+      for (AggregationFn fn : aggfns)
+         if (fn.fieldName().equals(fldname))
+         return true;
+      return false;
+   }
+
+   /**
+    * Starts a group with the first unprocessed record,
+    * saving its group values.
+    */
+   private void startGroup() {
+      if (cols == null) {
+         cols = new int[groupfields.length];
+         for (int k=0; k<groupfields.length; k++) {
+            cols[k] = batch.column(groupfields[k]);
+            if (cols[k] < 0)
+               throw new RuntimeException("field " + groupfields[k] + " not found.");
+         }
+      }
+      int pos = batch.selection()[current];
+      for (int k=0; k<groupfields.length; k++) {
+         groupvals[k] = batch.getVal(cols[k], pos);
+         if (batch.isInt(cols[k]))
+            groupints[k] = batch.ints(cols[k])[pos];
+         else
+            groupstrings[k] = batch.strings(cols[k])[pos];
+      }
+      for (AggregationFn fn : aggfns)
+         fn.processFirst(batch, current);
+   }
+
+   /**
+    * Returns true if the <i>i</i>th selected record
+    * of the batch has the group values of the current group.
+    */
+   private boolean inGroup(int i) {
+      int pos = batch.selection()[i];
+      for (int k=0; k<cols.length; k++) {
+         int col = cols[k];
+         if (batch.isInt(col) ? batch.ints(col)[pos] != groupints[k]
+                              : !batch.strings(col)[pos].equals(groupstrings[k]))
+            return false;
+      }
+      return true;
+   }
+}
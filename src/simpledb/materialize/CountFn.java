@@ -44,6 +44,22 @@ public class CountFn implements AggregationFn {
     * Returns the field's name, prepended by "countof".
     * @see simpledb.materialize.AggregationFn#fieldName()
     */
+   /**
+    * Starts a new count.
+    * @see simpledb.materialize.AggregationFn#processFirst(simpledb.query.Batch, int)
+    */
+   public void processFirst(Batch b, int i) {
+      count = 1;
+   }
+   
+   /**
+    * Adds the number of records to the count.
+    * @see simpledb.materialize.AggregationFn#processNext(simpledb.query.Batch, int, int)
+    */
+   public void processNext(Batch b, int start, int end) {
+      count += end - start;
+   }
+   
    public String fieldName() {
       return "countof" + fldname;
    }
@@ -10,7 +10,7 @@ import java.util.*;
  * @author Edward Sciore
  */
 public class GroupByPlan implements Plan {
-   private Plan p;
+   private Plan p, input;
    private Collection<String> groupfields;
    private Collection<AggregationFn> aggfns;
    private Schema sch = new Schema();
@@ -29,6 +29,7 @@ public class GroupByPlan implements Plan {
    public GroupByPlan(Plan p, Collection<String> groupfields, Collection<AggregationFn> aggfns, Transaction tx) {
       List<String> grouplist = new ArrayList<String>();
       grouplist.addAll(groupfields);
+      this.input = p;
       this.p = new SortPlan(p, grouplist, tx);
       this.groupfields = groupfields;
       this.aggfns = aggfns;
@@ -42,9 +43,17 @@ public class GroupByPlan implements Plan {
     * This method opens a sort plan for the specified plan.
     * The sort plan ensures that the underlying records
     * will be appropriately grouped.
+    * If there are no group fields, then the records need not be
+    * sorted; if the underlying plan is also vectorized, then
+    * its records are aggregated in batches.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
+      if (groupfields.isEmpty() && (input instanceof BatchPlan)
+            && ((BatchPlan) input).isVectorized()) {
+         BatchScan bs = ((BatchPlan) input).openBatch(input.schema().fields());
+         return new BatchGroupByScan(bs, groupfields, aggfns);
+      }
       Scan s = p.open();
       return new GroupByScan(s, groupfields, aggfns);
    }
@@ -38,6 +38,55 @@ public class MaxFn implements AggregationFn {
          val = newval;
    }
    
+   /**
+    * Starts a new maximum to be the 
+    * field value in the specified record of the batch.
+    * @see simpledb.materialize.AggregationFn#processFirst(simpledb.query.Batch, int)
+    */
+   public void processFirst(Batch b, int i) {
+      val = b.getVal(fldname, i);
+   }
+   
+   /**
+    * Replaces the current maximum by the highest
+    * field value in the specified records of the batch,
+    * if it is higher.
+    * The values are compared in the column vector,
+    * so only the new maximum becomes a constant.
+    * @see simpledb.materialize.AggregationFn#processNext(simpledb.query.Batch, int, int)
+    */
+   public void processNext(Batch b, int start, int end) {
+      int col = b.column(fldname);
+      int[] sel = b.selection();
+      if (b.isInt(col)) {
+         int[] vals = b.ints(col);
+         int max = (Integer) val.asJavaVal(), maxpos = -1;
+         for (int i=start; i<end; i++) {
+            int pos = sel[i];
+            if (vals[pos] > max) {
+               max = vals[pos];
+               maxpos = pos;
+            }
+         }
+         if (maxpos >= 0)
+            val = b.getVal(col, maxpos);
+      }
+      else {
+         String[] vals = b.strings(col);
+         String max = (String) val.asJavaVal();
+         int maxpos = -1;
+         for (int i=start; i<end; i++) {
+            int pos = sel[i];
+            if (vals[pos].compareTo(max) > 0) {
+               max = vals[pos];
+               maxpos = pos;
+            }
+         }
+         if (maxpos >= 0)
+            val = b.getVal(col, maxpos);
+      }
+   }
+   
    /**
     * Returns the field's name, prepended by "maxof".
     * @see simpledb.materialize.AggregationFn#fieldName()
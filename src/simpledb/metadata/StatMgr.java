@@ -10,6 +10,9 @@ import java.util.*;
  * The manager does not store this information in the database.
  * Instead, it calculates this information on system startup,
  * and periodically refreshes it.
+ * After startup, the tables are read in a snapshot transaction
+ * of their own, so that gathering statistics does not lock
+ * the tables on behalf of the calling transaction.
  * @author Edward Sciore
  */
 class StatMgr {
@@ -37,13 +40,18 @@ class StatMgr {
     */
    public synchronized StatInfo getStatInfo(String tblname, TableInfo ti, Transaction tx) {
       numcalls++;
+      if (numcalls <= 100 && tablestats.containsKey(tblname))
+         return tablestats.get(tblname);
+      Transaction stx = new Transaction();
+      stx.beginSnapshot();
       if (numcalls > 100)
-         refreshStatistics(tx);
+         refreshStatistics(stx);
       StatInfo si = tablestats.get(tblname);
       if (si == null) {
-         si = calcTableStats(ti, tx);
+         si = calcTableStats(ti, stx);
          tablestats.put(tblname, si);
       }
+      stx.commit();
       return si;
    }
    
@@ -86,23 +86,30 @@ public class TableMgr {
     */
    public TableInfo getTableInfo(String tblname, Transaction tx) {
       RecordFile tcatfile = new RecordFile(tcatInfo, tx);
+      int tnameidx  = tcatInfo.fieldIndex("tblname");
+      int reclenidx = tcatInfo.fieldIndex("reclength");
       int reclen = -1;
       while (tcatfile.next())
-         if(tcatfile.getString("tblname").equals(tblname)) {
-         reclen = tcatfile.getInt("reclength");
+         if(tcatfile.getString(tnameidx).equals(tblname)) {
+         reclen = tcatfile.getInt(reclenidx);
          break;
       }
       tcatfile.close();
       
       RecordFile fcatfile = new RecordFile(fcatInfo, tx);
+      int fnameidx  = fcatInfo.fieldIndex("tblname");
+      int fldidx    = fcatInfo.fieldIndex("fldname");
+      int typeidx   = fcatInfo.fieldIndex("type");
+      int lengthidx = fcatInfo.fieldIndex("length");
+      int offsetidx = fcatInfo.fieldIndex("offset");
       Schema sch = new Schema();
       Map<String,Integer> offsets = new HashMap<String,Integer>();
       while (fcatfile.next())
-         if (fcatfile.getString("tblname").equals(tblname)) {
-         String fldname = fcatfile.getString("fldname");
-         int fldtype    = fcatfile.getInt("type");
-         int fldlen     = fcatfile.getInt("length");
-         int offset     = fcatfile.getInt("offset");
+         if (fcatfile.getString(fnameidx).equals(tblname)) {
+         String fldname = fcatfile.getString(fldidx);
+         int fldtype    = fcatfile.getInt(typeidx);
+         int fldlen     = fcatfile.getInt(lengthidx);
+         int offset     = fcatfile.getInt(offsetidx);
          offsets.put(fldname, offset);
          sch.addField(fldname, fldtype, fldlen);
       }
@@ -16,6 +16,7 @@ import java.util.List;
 public class ChunkScan implements Scan {
    private List<RecordPage> pages;
    private int startbnum, endbnum, current;
+   private TableInfo ti;
    private Schema sch;
    private RecordPage rp;
    
@@ -30,6 +31,7 @@ public class ChunkScan implements Scan {
       pages = new ArrayList<RecordPage>();
       this.startbnum = startbnum;
       this.endbnum   = endbnum;
+      this.ti = ti;
       this.sch = ti.schema();
       String filename = ti.fileName();
       for (int i=startbnum; i<=endbnum; i++) {
@@ -76,10 +78,13 @@ public class ChunkScan implements Scan {
     * @see simpledb.query.Scan#getVal(java.lang.String)
     */
    public Constant getVal(String fldname) {
-      if (sch.type(fldname) == INTEGER)
-         return new IntConstant(rp.getInt(fldname));
+      int fldidx = ti.fieldIndex(fldname);
+      if (fldidx < 0)
+         throw new RuntimeException("field " + fldname + " not found.");
+      if (ti.type(fldidx) == INTEGER)
+         return new IntConstant(rp.getInt(fldidx));
       else
-         return new StringConstant(rp.getString(fldname));
+         return new StringConstant(rp.getString(fldidx));
    }
    
    /**
@@ -26,6 +26,8 @@ public class MultiBufferProductScan implements Scan {
       this.lhsscan = lhsscan;
       this.ti = ti;
       this.tx = tx;
+      // the chunks cover the file as it is now, so appends must wait
+      tx.lockFileForScan(ti.fileName());
       filesize = tx.size(ti.fileName());
       chunksize = BufferNeeds.bestFactor(filesize);
       beforeFirst();
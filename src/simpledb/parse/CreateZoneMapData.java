@@ -0,0 +1,23 @@
+package simpledb.parse;
+
+/**
+ * Data for the SQL <i>create zonemap</i> statement.
+ */
+public class CreateZoneMapData {
+   private String tblname;
+   
+   /**
+    * Saves the name of the table whose zone map is created.
+    */
+   public CreateZoneMapData(String tblname) {
+      this.tblname = tblname;
+   }
+   
+   /**
+    * Returns the name of the table.
+    * @return the name of the table
+    */
+   public String tableName() {
+      return tblname;
+   }
+}
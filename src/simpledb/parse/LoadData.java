@@ -0,0 +1,48 @@
+package simpledb.parse;
+
+import java.util.*;
+
+/**
+ * Data for the SQL <i>load</i> statement,
+ * which bulk-loads the records of a file into a table.
+ * @author Edward Sciore
+ */
+public class LoadData {
+   private String tblname;
+   private List<String> flds;
+   private String filename;
+   
+   /**
+    * Saves the table name, the field list, and the name of the data file.
+    */
+   public LoadData(String tblname, List<String> flds, String filename) {
+      this.tblname = tblname;
+      this.flds = flds;
+      this.filename = filename;
+   }
+   
+   /**
+    * Returns the name of the affected table.
+    * @return the name of the affected table
+    */
+   public String tableName() {
+      return tblname;
+   }
+   
+   /**
+    * Returns the list of fields whose values
+    * appear in each line of the data file, in order.
+    * @return a list of field names
+    */
+   public List<String> fields() {
+      return flds;
+   }
+   
+   /**
+    * Returns the name of the data file.
+    * @return the name of the data file
+    */
+   public String fileName() {
+      return filename;
+   }
+}
@@ -142,6 +142,8 @@ public class Parser {
          return delete();
       else if (lex.matchKeyword("update"))
          return modify();
+      else if (lex.matchKeyword("load"))
+         return load();
       else
          return create();
    }
@@ -152,6 +154,8 @@ public class Parser {
          return createTable();
       else if (lex.matchKeyword("view"))
          return createView();
+      else if (lex.matchKeyword("zonemap"))
+         return createZoneMap();
       else
          return createIndex();
    }
@@ -206,6 +210,20 @@ public class Parser {
       return L;
    }
    
+// Method for parsing load commands
+   
+   public LoadData load() {
+      lex.eatKeyword("load");
+      lex.eatKeyword("into");
+      String tblname = lex.eatId();
+      lex.eatDelim('(');
+      List<String> flds = fieldList();
+      lex.eatDelim(')');
+      lex.eatKeyword("from");
+      String filename = lex.eatStringConstant();
+      return new LoadData(tblname, flds, filename);
+   }
+   
 // Method for parsing modify commands
    
    public ModifyData modify() {
@@ -288,5 +306,14 @@ public class Parser {
       lex.eatDelim(')');
       return new CreateIndexData(idxname, tblname, fldname);
    }
+   
+//  Method for parsing create zonemap commands
+   
+   public CreateZoneMapData createZoneMap() {
+      lex.eatKeyword("zonemap");
+      lex.eatKeyword("on");
+      String tblname = lex.eatId();
+      return new CreateZoneMapData(tblname);
+   }
 }
 
@@ -18,11 +18,14 @@ public class BasicQueryPlanner implements QueryPlanner {
     * and finally it projects on the field list. 
     */
    public Plan createPlan(QueryData data, Transaction tx) {
-      //Step 1: Create a plan for each mentioned table or view
+      //Step 1: Create a plan for each mentioned table, virtual table or view
       List<Plan> plans = new ArrayList<Plan>();
       for (String tblname : data.tables()) {
-         String viewdef = SimpleDB.mdMgr().getViewDef(tblname, tx);
-         if (viewdef != null)
+         Plan vp = VirtualTablePlan.forTable(tblname);
+         String viewdef = (vp == null) ? SimpleDB.mdMgr().getViewDef(tblname, tx) : null;
+         if (vp != null)
+            plans.add(vp);
+         else if (viewdef != null)
             plans.add(SimpleDB.planner().createQueryPlan(viewdef, tx));
          else
             plans.add(new TablePlan(tblname, tx));
@@ -5,6 +5,7 @@ import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.parse.*;
 import simpledb.query.*;
+import simpledb.record.*;
 
 /**
  * The basic planner for SQL update statements.
@@ -13,8 +14,9 @@ import simpledb.query.*;
 public class BasicUpdatePlanner implements UpdatePlanner {
    
    public int executeDelete(DeleteData data, Transaction tx) {
-      Plan p = new TablePlan(data.tableName(), tx);
-      p = new SelectPlan(p, data.pred());
+      TablePlan tp = new TablePlan(data.tableName(), tx);
+      tp.lockForUpdate();
+      Plan p = new SelectPlan(tp, data.pred());
       UpdateScan us = (UpdateScan) p.open();
       int count = 0;
       while(us.next()) {
@@ -26,8 +28,9 @@ public class BasicUpdatePlanner implements UpdatePlanner {
    }
    
    public int executeModify(ModifyData data, Transaction tx) {
-      Plan p = new TablePlan(data.tableName(), tx);
-      p = new SelectPlan(p, data.pred());
+      TablePlan tp = new TablePlan(data.tableName(), tx);
+      tp.lockForUpdate();
+      Plan p = new SelectPlan(tp, data.pred());
       UpdateScan us = (UpdateScan) p.open();
       int count = 0;
       while(us.next()) {
@@ -52,6 +55,14 @@ public class BasicUpdatePlanner implements UpdatePlanner {
       return 1;
    }
    
+   public int executeLoad(LoadData data, Transaction tx) {
+      TableInfo ti = SimpleDB.mdMgr().getTableInfo(data.tableName(), tx);
+      BulkLoader loader = new BulkLoader(ti, data.fields(), tx);
+      loader.loadFile(data.fileName());
+      loader.close();
+      return loader.recordsLoaded();
+   }
+   
    public int executeCreateTable(CreateTableData data, Transaction tx) {
       SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
       return 0;
@@ -65,4 +76,10 @@ public class BasicUpdatePlanner implements UpdatePlanner {
       SimpleDB.mdMgr().createIndex(data.indexName(), data.tableName(), data.fieldName(), tx);
       return 0;  
    }
+   
+   public int executeCreateZoneMap(CreateZoneMapData data, Transaction tx) {
+      TableInfo ti = SimpleDB.mdMgr().getTableInfo(data.tableName(), tx);
+      ZoneMap.create(ti, tx);
+      return 0;
+   }
 }
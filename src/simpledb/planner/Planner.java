@@ -30,7 +30,7 @@ public class Planner {
    }
    
    /**
-    * Executes an SQL insert, delete, modify, or
+    * Executes an SQL insert, delete, modify, load, or
     * create statement.
     * The method dispatches to the appropriate method of the
     * supplied update planner,
@@ -54,6 +54,10 @@ public class Planner {
          return uplanner.executeCreateView((CreateViewData)obj, tx);
       else if (obj instanceof CreateIndexData)
          return uplanner.executeCreateIndex((CreateIndexData)obj, tx);
+      else if (obj instanceof CreateZoneMapData)
+         return uplanner.executeCreateZoneMap((CreateZoneMapData)obj, tx);
+      else if (obj instanceof LoadData)
+         return uplanner.executeLoad((LoadData)obj, tx);
       else
          return 0;
    }
@@ -37,6 +37,15 @@ public interface UpdatePlanner {
     */
    public int executeModify(ModifyData data, Transaction tx);
    
+   /**
+    * Executes the specified load statement, and
+    * returns the number of affected records.
+    * @param data the parsed representation of the load statement
+    * @param tx the calling transaction
+    * @return the number of affected records
+    */
+   public int executeLoad(LoadData data, Transaction tx);
+   
    /**
     * Executes the specified create table statement, and
     * returns the number of affected records.
@@ -63,4 +72,13 @@ public interface UpdatePlanner {
     * @return the number of affected records
     */
    public int executeCreateIndex(CreateIndexData data, Transaction tx);
+   
+   /**
+    * Executes the specified create zonemap statement, and
+    * returns the number of affected records.
+    * @param data the parsed representation of the create zonemap statement
+    * @param tx the calling transaction
+    * @return the number of affected records
+    */
+   public int executeCreateZoneMap(CreateZoneMapData data, Transaction tx);
 }
@@ -126,6 +126,11 @@ public class MyUpdatePlanner implements UpdatePlanner {
       return 1;
    }
    
+   public int executeLoad(LoadData data, Transaction tx) {
+
+      return new simpledb.index.planner.IndexUpdatePlanner().executeLoad(data, tx);
+   }
+   
    public int executeCreateTable(CreateTableData data, Transaction tx) {
 
       SimpleDB.mdMgr().createTable(data.tableName(), data.newSchema(), tx);
@@ -142,4 +147,9 @@ public class MyUpdatePlanner implements UpdatePlanner {
       SimpleDB.mdMgr().createIndex(data.indexName(), data.tableName(), data.fieldName(), tx);
       return 0;  
    }
+   
+   public int executeCreateZoneMap(CreateZoneMapData data, Transaction tx) {
+
+      return new simpledb.index.planner.IndexUpdatePlanner().executeCreateZoneMap(data, tx);
+   }
 }
@@ -0,0 +1,181 @@
+package simpledb.query;
+
+import static java.sql.Types.INTEGER;
+import simpledb.record.Schema;
+import java.util.*;
+
+/**
+ * A batch of records, stored as column vectors.
+ * Each column holds the values of one field, in an
+ * integer vector or a string vector according to its type.
+ * The selection vector lists the positions of the records
+ * of the batch that are still selected; a select operator
+ * filters a batch by shrinking its selection vector,
+ * rather than by moving values.
+ * The <i>i</i>th record of the batch is the record at position
+ * <code>selection()[i]</code> of the columns.
+ * @author Edward Sciore
+ */
+public class Batch {
+   /**
+    * The largest number of records in a batch.
+    */
+   public static final int CAPACITY = 1024;
+
+   private Map<String,Integer> columns = new HashMap<String,Integer>();
+   private String[] fldnames;
+   private int[][] ints;
+   private String[][] strings;
+   private int[] sel = new int[CAPACITY];
+   private int size = 0;
+
+   /**
+    * Creates an empty batch having a column for each
+    * of the specified fields that are in the schema.
+    * @param sch the schema giving the types of the fields
+    * @param fldnames the fields of the batch
+    */
+   public Batch(Schema sch, Collection<String> fldnames) {
+      List<String> fields = new ArrayList<String>();
+      for (String fldname : fldnames)
+         if (sch.hasField(fldname) && !fields.contains(fldname))
+         fields.add(fldname);
+      int n = fields.size();
+      this.fldnames = new String[n];
+      ints = new int[n][];
+      strings = new String[n][];
+      int col = 0;
+      for (String fldname : fields) {
+         this.fldnames[col] = fldname;
+         columns.put(fldname, col);
+         if (sch.type(fldname) == INTEGER)
+            ints[col] = new int[CAPACITY];
+         else
+            strings[col] = new String[CAPACITY];
+         col++;
+      }
+   }
+
+   /**
+    * Returns the number of selected records in the batch.
+    * @return the number of records
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Returns the selection vector, whose first
+    * {@link #size()} entries are the positions of
+    * the selected records.
+    * @return the selection vector
+    */
+   public int[] selection() {
+      return sel;
+   }
+
+   /**
+    * Sets the number of selected records, after
+    * the selection vector has been modified.
+    * @param size the number of selected records
+    */
+   public void setSize(int size) {
+      this.size = size;
+   }
+
+   /**
+    * Selects the records at the first n positions of the columns,
+    * after the columns have been filled.
+    * @param n the number of records in the columns
+    */
+   public void selectAll(int n) {
+      for (int i=0; i<n; i++)
+         sel[i] = i;
+      size = n;
+   }
+
+   /**
+    * Returns the names of the fields of the batch, in column order.
+    * @return the field names
+    */
+   public String[] fields() {
+      return fldnames;
+   }
+
+   /**
+    * Returns the column of the specified field,
+    * or -1 if the batch has no such field.
+    * @param fldname the name of the field
+    * @return the index of the column
+    */
+   public int column(String fldname) {
+      Integer col = columns.get(fldname);
+      return (col == null) ? -1 : col;
+   }
+
+   /**
+    * Returns true if the batch has a column for the specified field.
+    * @param fldname the name of the field
+    * @return true if the batch has the field
+    */
+   public boolean hasField(String fldname) {
+      return columns.containsKey(fldname);
+   }
+
+   /**
+    * Returns true if the specified column holds integers.
+    * @param col the index of the column
+    * @return true if the column is an integer vector
+    */
+   public boolean isInt(int col) {
+      return ints[col] != null;
+   }
+
+   /**
+    * Returns the integer vector of the specified column,
+    * or null if the column holds strings.
+    * @param col the index of the column
+    * @return the integer vector
+    */
+   public int[] ints(int col) {
+      return ints[col];
+   }
+
+   /**
+    * Returns the string vector of the specified column,
+    * or null if the column holds integers.
+    * @param col the index of the column
+    * @return the string vector
+    */
+   public String[] strings(int col) {
+      return strings[col];
+   }
+
+   /**
+    * Returns the value of the specified column
+    * at the specified position, as a constant.
+    * @param col the index of the column
+    * @param pos the position of the record in the columns
+    * @return the value of the field
+    */
+   public Constant getVal(int col, int pos) {
+      if (ints[col] != null)
+         return new IntConstant(ints[col][pos]);
+      else
+         return new StringConstant(strings[col][pos]);
+   }
+
+   /**
+    * Returns the value of the specified field
+    * of the <i>i</i>th selected record, as a constant.
+    * @param fldname the name of the field
+    * @param i the index of the record in the selection vector
+    * @return the value of the field
+    */
+   public Constant getVal(String fldname, int i) {
+      int col = column(fldname);
+      if (col < 0)
+         throw new RuntimeException("field " + fldname + " not found.");
+      return getVal(col, sel[i]);
+   }
+}
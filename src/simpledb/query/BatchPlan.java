@@ -0,0 +1,29 @@
+package simpledb.query;
+
+import java.util.Collection;
+
+/**
+ * The interface implemented by plans that can
+ * produce their records in batches.
+ * @author Edward Sciore
+ */
+public interface BatchPlan extends Plan {
+
+   /**
+    * Returns true if the plan reads its records in batches
+    * all the way down to the stored table, so that
+    * {@link #openBatch(Collection)} is faster than {@link #open()}.
+    * Otherwise, the batches are filled from a record-at-a-time scan.
+    * @return true if the plan's batch scan is vectorized
+    */
+   public boolean  isVectorized();
+
+   /**
+    * Opens a batch scan corresponding to this plan.
+    * The batches of the scan have at least the specified fields,
+    * so that a table scan need not read the other fields.
+    * @param fldnames the fields needed by the caller
+    * @return a batch scan
+    */
+   public BatchScan openBatch(Collection<String> fldnames);
+}
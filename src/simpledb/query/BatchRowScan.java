@@ -0,0 +1,82 @@
+package simpledb.query;
+
+import java.util.*;
+
+/**
+ * A scan that returns the records of a batch scan
+ * one at a time, so that the batch operators can
+ * feed the record-at-a-time operators and clients.
+ * @see RowBatchScan
+ * @author Edward Sciore
+ */
+public class BatchRowScan implements Scan {
+   private BatchScan s;
+   private Batch batch = null;
+   private int current = -1;
+   private Map<String,Integer> columns = new HashMap<String,Integer>();
+
+   /**
+    * Creates a scan of the records of the specified batch scan.
+    * @param s the underlying batch scan
+    */
+   public BatchRowScan(BatchScan s) {
+      this.s = s;
+   }
+
+   public void beforeFirst() {
+      s.beforeFirst();
+      batch = null;
+      current = -1;
+   }
+
+   public boolean next() {
+      current++;
+      while (batch == null || current >= batch.size()) {
+         batch = s.nextBatch();
+         if (batch == null)
+            return false;
+         current = 0;
+      }
+      return true;
+   }
+
+   public void close() {
+      s.close();
+   }
+
+   public Constant getVal(String fldname) {
+      return batch.getVal(column(fldname), position());
+   }
+
+   public int getInt(String fldname) {
+      return batch.ints(column(fldname))[position()];
+   }
+
+   public String getString(String fldname) {
+      return batch.strings(column(fldname))[position()];
+   }
+
+   public boolean hasField(String fldname) {
+      return s.hasField(fldname);
+   }
+
+   private int position() {
+      return batch.selection()[current];
+   }
+
+   /**
+    * Returns the column of the specified field.
+    * The columns of a batch scan do not change from batch
+    * to batch, so each field is looked up once.
+    */
+   private int column(String fldname) {
+      Integer col = columns.get(fldname);
+      if (col == null) {
+         if (!s.hasField(fldname) || !batch.hasField(fldname))
+            throw new RuntimeException("field " + fldname + " not found.");
+         col = batch.column(fldname);
+         columns.put(fldname, col);
+      }
+      return col;
+   }
+}
@@ -0,0 +1,38 @@
+package simpledb.query;
+
+/**
+ * The interface implemented by all batch scans.
+ * A batch scan produces its output records a batch at a time,
+ * as column vectors, instead of a record at a time.
+ * @see Batch
+ * @author Edward Sciore
+ */
+public interface BatchScan {
+
+   /**
+    * Positions the scan before its first record.
+    */
+   public void     beforeFirst();
+
+   /**
+    * Returns the next batch of records, which contains
+    * at least one selected record.
+    * The scan returns the same batch object each time,
+    * refilled with the following records, so the records
+    * of a batch must be consumed before the next call.
+    * @return the next batch, or null if there are no more records
+    */
+   public Batch    nextBatch();
+
+   /**
+    * Closes the scan and its subscans, if any.
+    */
+   public void     close();
+
+   /**
+    * Returns true if the scan's records have the specified field.
+    * @param fldname the name of the field
+    * @return true if the scan has that field
+    */
+   public boolean  hasField(String fldname);
+}
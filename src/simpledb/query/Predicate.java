@@ -133,6 +133,29 @@ public class Predicate {
       return null;
    }
    
+   /**
+    * Returns the terms of the predicate.
+    * @return the list of terms
+    */
+   public List<Term> terms() {
+      return terms;
+   }
+   
+   /**
+    * Returns the names of the fields that the predicate mentions.
+    * @return the set of field names
+    */
+   public Set<String> fields() {
+      Set<String> result = new LinkedHashSet<String>();
+      for (Term t : terms) {
+         if (t.lhs().isFieldName())
+            result.add(t.lhs().asFieldName());
+         if (t.rhs().isFieldName())
+            result.add(t.rhs().asFieldName());
+      }
+      return result;
+   }
+   
    public String toString() {
       Iterator<Term> iter = terms.iterator();
       if (!iter.hasNext()) 
@@ -0,0 +1,48 @@
+package simpledb.query;
+
+import java.util.*;
+
+/**
+ * The batch scan class corresponding to the <i>project</i>
+ * relational algebra operator.
+ * A batch is passed on unchanged; the fields that are not
+ * projected were not read from the table in the first place,
+ * unless the predicate of an underlying select needed them.
+ * @author Edward Sciore
+ */
+public class ProjectBatchScan implements BatchScan {
+   private BatchScan s;
+   private Collection<String> fieldlist;
+
+   /**
+    * Creates a project scan having the specified
+    * underlying batch scan and field list.
+    * @param s the underlying batch scan
+    * @param fieldlist the list of field names
+    */
+   public ProjectBatchScan(BatchScan s, Collection<String> fieldlist) {
+      this.s = s;
+      this.fieldlist = fieldlist;
+   }
+
+   public void beforeFirst() {
+      s.beforeFirst();
+   }
+
+   public Batch nextBatch() {
+      return s.nextBatch();
+   }
+
+   public void close() {
+      s.close();
+   }
+
+   /**
+    * Returns true if the specified field
+    * is in the projection list.
+    * @see simpledb.query.BatchScan#hasField(java.lang.String)
+    */
+   public boolean hasField(String fldname) {
+      return fieldlist.contains(fldname);
+   }
+}
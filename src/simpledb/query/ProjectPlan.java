@@ -1,13 +1,13 @@
 package simpledb.query;
 
 import simpledb.record.Schema;
-import java.util.Collection;
+import java.util.*;
 
 /** The Plan class corresponding to the <i>project</i>
   * relational algebra operator.
   * @author Edward Sciore
   */
-public class ProjectPlan implements Plan {
+public class ProjectPlan implements BatchPlan {
    private Plan p;
    private Schema schema = new Schema();
    
@@ -29,13 +29,43 @@ public class ProjectPlan implements Plan {
    }
    /**
     * Creates a project scan for this query.
+    * If the subquery is vectorized, the records are
+    * read in batches, and returned one at a time.
     * @see simpledb.query.Plan#open()
     */
    public Scan open() {
+      if (isVectorized())
+         return new BatchRowScan(openBatch(schema.fields()));
       Scan s = p.open();
       return new ProjectScan(s, schema.fields());
    }
    
+   /**
+    * A projection is vectorized if its subquery is.
+    * @see simpledb.query.BatchPlan#isVectorized()
+    */
+   public boolean isVectorized() {
+      return (p instanceof BatchPlan) && ((BatchPlan) p).isVectorized();
+   }
+   
+   /**
+    * Creates a project batch scan for this query.
+    * Only the projected fields are requested from the subquery.
+    * @see simpledb.query.BatchPlan#openBatch(java.util.Collection)
+    */
+   public BatchScan openBatch(Collection<String> fldnames) {
+      List<String> needed = new ArrayList<String>();
+      for (String fldname : fldnames)
+         if (schema.hasField(fldname))
+         needed.add(fldname);
+      BatchScan s;
+      if (isVectorized())
+         s = ((BatchPlan) p).openBatch(needed);
+      else
+         s = new RowBatchScan(p.open(), p.schema(), needed);
+      return new ProjectBatchScan(s, schema.fields());
+   }
+   
    /**
     * Estimates the number of block accesses in the projection,
     * which is the same as in the underlying query.
@@ -0,0 +1,70 @@
+package simpledb.query;
+
+import static java.sql.Types.INTEGER;
+import simpledb.record.Schema;
+import java.util.Collection;
+
+/**
+ * A batch scan that fills its batches from the records
+ * of a record-at-a-time scan, so that the batch operators
+ * can read the output of any plan.
+ * @see BatchRowScan
+ * @author Edward Sciore
+ */
+public class RowBatchScan implements BatchScan {
+   private Scan s;
+   private Batch batch;
+   private String[] fields;
+   private boolean[] isint;
+   private boolean done = false;
+
+   /**
+    * Creates a batch scan of the specified fields
+    * of the records of the specified scan.
+    * @param s the underlying scan
+    * @param sch the schema of the underlying scan
+    * @param fldnames the fields of the batches
+    */
+   public RowBatchScan(Scan s, Schema sch, Collection<String> fldnames) {
+      this.s = s;
+      batch = new Batch(sch, fldnames);
+      fields = batch.fields();
+      isint = new boolean[fields.length];
+      for (int col=0; col<fields.length; col++)
+         isint[col] = (sch.type(fields[col]) == INTEGER);
+   }
+
+   public void beforeFirst() {
+      s.beforeFirst();
+      done = false;
+   }
+
+   public Batch nextBatch() {
+      int n = 0;
+      while (n < Batch.CAPACITY && !done) {
+         if (!s.next()) {
+            done = true;
+            break;
+         }
+         for (int col=0; col<fields.length; col++) {
+            if (isint[col])
+               batch.ints(col)[n] = s.getInt(fields[col]);
+            else
+               batch.strings(col)[n] = s.getString(fields[col]);
+         }
+         n++;
+      }
+      if (n == 0)
+         return null;
+      batch.selectAll(n);
+      return batch;
+   }
+
+   public void close() {
+      s.close();
+   }
+
+   public boolean hasField(String fldname) {
+      return batch.hasField(fldname);
+   }
+}
@@ -0,0 +1,225 @@
+package simpledb.query;
+
+import static java.sql.Types.INTEGER;
+import simpledb.record.ZoneMap;
+
+/**
+ * The batch scan class corresponding to the <i>select</i>
+ * relational algebra operator.
+ * The scan filters each batch of the underlying scan by
+ * shrinking its selection vector, one term of the predicate
+ * at a time.
+ * A term comparing a field with a constant, or two fields
+ * of the same type, is evaluated by a loop over the column
+ * vectors, without creating constants.
+ * @author Edward Sciore
+ */
+public class SelectBatchScan implements BatchScan {
+   private BatchScan s;
+   private VectorTerm[] terms;
+   private Batch bound = null;
+
+   /**
+    * Creates a select scan having the specified underlying
+    * batch scan and predicate.
+    * If the underlying scan is a table scan, its zone map
+    * is restricted to the blocks that might match the predicate.
+    * @param s the batch scan of the underlying query
+    * @param pred the selection predicate
+    */
+   public SelectBatchScan(BatchScan s, Predicate pred) {
+      this.s = s;
+      terms = new VectorTerm[pred.terms().size()];
+      for (int i=0; i<terms.length; i++)
+         terms[i] = new VectorTerm(pred.terms().get(i));
+      if (s instanceof TableBatchScan) {
+         TableBatchScan ts = (TableBatchScan) s;
+         ZoneMap zm = ts.zoneMap();
+         if (zm != null)
+            for (VectorTerm vt : terms)
+            vt.restrict(ts, zm);
+      }
+   }
+
+   public void beforeFirst() {
+      s.beforeFirst();
+   }
+
+   public Batch nextBatch() {
+      Batch b;
+      while ((b = s.nextBatch()) != null) {
+         if (b != bound) {
+            for (VectorTerm vt : terms)
+               vt.bind(b);
+            bound = b;
+         }
+         int n = b.size();
+         for (int i=0; i<terms.length && n > 0; i++)
+            n = terms[i].filter(b, n);
+         b.setSize(n);
+         if (n > 0)
+            return b;
+      }
+      return null;
+   }
+
+   public void close() {
+      s.close();
+   }
+
+   public boolean hasField(String fldname) {
+      return s.hasField(fldname);
+   }
+
+   /**
+    * A term of the predicate, bound to the columns of a batch.
+    */
+   private static class VectorTerm {
+      private static final int CONSTANTS = 0, INT_CONST = 1, STR_CONST = 2,
+                               INT_FIELDS = 3, STR_FIELDS = 4, GENERIC = 5;
+
+      private Term term;
+      private String fldname, fldname2;
+      private Constant val2;
+      private boolean lt, eq, gt;
+      private int kind, col = -1, col2 = -1, intval;
+      private String strval;
+
+      /**
+       * Determines the shape of the term: the field it compares,
+       * and the constant or field it compares it with.
+       * The field is taken to be on the left; the flags lt, eq and
+       * gt tell which results of the comparison satisfy the term.
+       */
+      VectorTerm(Term term) {
+         this.term = term;
+         Expression lhs = term.lhs(), rhs = term.rhs();
+         boolean swapped = !lhs.isFieldName() && rhs.isFieldName();
+         Expression first = swapped ? rhs : lhs, second = swapped ? lhs : rhs;
+         if (first.isFieldName())
+            fldname = first.asFieldName();
+         if (second.isFieldName())
+            fldname2 = second.asFieldName();
+         else
+            val2 = second.asConstant();
+         int sign = swapped ? -1 : 1;
+         lt = term.isSatisfied(-sign);
+         eq = term.isSatisfied(0);
+         gt = term.isSatisfied(sign);
+      }
+
+      /**
+       * Finds the columns of the term's fields in the batch,
+       * and chooses how to evaluate the term.
+       */
+      void bind(Batch b) {
+         col = (fldname == null) ? -1 : column(b, fldname);
+         col2 = (fldname2 == null) ? -1 : column(b, fldname2);
+         if (col < 0)
+            kind = CONSTANTS;
+         else if (col2 >= 0) {
+            if (b.isInt(col) && b.isInt(col2))
+               kind = INT_FIELDS;
+            else if (!b.isInt(col) && !b.isInt(col2))
+               kind = STR_FIELDS;
+            else
+               kind = GENERIC;
+         }
+         else if (b.isInt(col) && val2 instanceof IntConstant) {
+            kind = INT_CONST;
+            intval = (Integer) val2.asJavaVal();
+         }
+         else if (!b.isInt(col) && val2 instanceof StringConstant) {
+            kind = STR_CONST;
+            strval = (String) val2.asJavaVal();
+         }
+         else
+            kind = GENERIC;
+      }
+
+      /**
+       * Removes the records that do not satisfy the term
+       * from the first n entries of the batch's selection vector.
+       * @return the number of records that remain
+       */
+      int filter(Batch b, int n) {
+         int[] sel = b.selection();
+         int m = 0;
+         switch (kind) {
+            case INT_CONST: {
+               int[] vals = b.ints(col);
+               for (int i=0; i<n; i++) {
+                  int pos = sel[i], v = vals[pos];
+                  if (v < intval ? lt : (v == intval ? eq : gt))
+                     sel[m++] = pos;
+               }
+               return m;
+            }
+            case STR_CONST: {
+               String[] vals = b.strings(col);
+               for (int i=0; i<n; i++) {
+                  int pos = sel[i], cmp = vals[pos].compareTo(strval);
+                  if (cmp < 0 ? lt : (cmp == 0 ? eq : gt))
+                     sel[m++] = pos;
+               }
+               return m;
+            }
+            case INT_FIELDS: {
+               int[] vals = b.ints(col), vals2 = b.ints(col2);
+               for (int i=0; i<n; i++) {
+                  int pos = sel[i], v = vals[pos], v2 = vals2[pos];
+                  if (v < v2 ? lt : (v == v2 ? eq : gt))
+                     sel[m++] = pos;
+               }
+               return m;
+            }
+            case STR_FIELDS: {
+               String[] vals = b.strings(col), vals2 = b.strings(col2);
+               for (int i=0; i<n; i++) {
+                  int pos = sel[i], cmp = vals[pos].compareTo(vals2[pos]);
+                  if (cmp < 0 ? lt : (cmp == 0 ? eq : gt))
+                     sel[m++] = pos;
+               }
+               return m;
+            }
+            case CONSTANTS:
+               return term.isSatisfied(term.lhs().asConstant(), term.rhs().asConstant()) ? n : 0;
+            default: {
+               boolean swapped = !term.lhs().isFieldName();
+               for (int i=0; i<n; i++) {
+                  int pos = sel[i];
+                  Constant v = b.getVal(col, pos);
+                  Constant v2 = (col2 >= 0) ? b.getVal(col2, pos) : val2;
+                  if (swapped ? term.isSatisfied(v2, v) : term.isSatisfied(v, v2))
+                     sel[m++] = pos;
+               }
+               return m;
+            }
+         }
+      }
+
+      /**
+       * Adds the term to the zone map of the table,
+       * if it compares a field of the table with a constant
+       * of the same type.
+       */
+      void restrict(TableBatchScan ts, ZoneMap zm) {
+         if (fldname == null || fldname2 != null)
+            return;
+         int fldidx = ts.fieldIndex(fldname);
+         if (fldidx < 0)
+            return;
+         boolean isint = (ts.fieldType(fldidx) == INTEGER);
+         if (isint != (val2 instanceof IntConstant))
+            return;
+         zm.addCondition(fldidx, val2.asJavaVal(), lt, eq, gt);
+      }
+
+      private static int column(Batch b, String fldname) {
+         int col = b.column(fldname);
+         if (col < 0)
+            throw new RuntimeException("field " + fldname + " not found.");
+         return col;
+      }
+   }
+}
@@ -1,12 +1,13 @@
 package simpledb.query;
 
 import simpledb.record.Schema;
+import java.util.*;
 
 /** The Plan class corresponding to the <i>select</i>
   * relational algebra operator.
   * @author Edward Sciore
   */
-public class SelectPlan implements Plan {
+public class SelectPlan implements BatchPlan {
    private Plan p;
    private Predicate pred;
    
@@ -30,6 +31,31 @@ public class SelectPlan implements Plan {
       return new SelectScan(s, pred);
    }
    
+   /**
+    * A selection is vectorized if its subquery is.
+    * @see simpledb.query.BatchPlan#isVectorized()
+    */
+   public boolean isVectorized() {
+      return (p instanceof BatchPlan) && ((BatchPlan) p).isVectorized();
+   }
+   
+   /**
+    * Creates a select batch scan for this query.
+    * The subquery's batches also have the fields
+    * that the predicate mentions.
+    * @see simpledb.query.BatchPlan#openBatch(java.util.Collection)
+    */
+   public BatchScan openBatch(Collection<String> fldnames) {
+      Set<String> needed = new LinkedHashSet<String>(fldnames);
+      needed.addAll(pred.fields());
+      BatchScan s;
+      if (isVectorized())
+         s = ((BatchPlan) p).openBatch(needed);
+      else
+         s = new RowBatchScan(p.open(), p.schema(), needed);
+      return new SelectBatchScan(s, pred);
+   }
+   
    /**
     * Estimates the number of block accesses in the selection,
     * which is the same as in the underlying query.
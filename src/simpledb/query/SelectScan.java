@@ -1,5 +1,7 @@
 package simpledb.query;
 
+import static java.sql.Types.INTEGER;
+import java.util.List;
 import simpledb.record.*;
 
 /**
@@ -7,11 +9,21 @@ import simpledb.record.*;
  * algebra operator.
  * All methods except next delegate their work to the
  * underlying scan.
+ * If the underlying scan is a table scan, then the
+ * field names mentioned in the predicate are resolved
+ * to field indexes when the scan is created,
+ * so that testing a record requires no name lookups.
+ * If the table also has a zone map, then each term that
+ * compares a field with a constant is passed to the zone map,
+ * so that the table scan can skip blocks that cannot
+ * satisfy the predicate.
  * @author Edward Sciore
  */
 public class SelectScan implements UpdateScan {
    private Scan s;
    private Predicate pred;
+   private TableScan ts;
+   private BoundTerm[] boundterms;
    
    /**
     * Creates a select scan having the specified underlying
@@ -22,6 +34,8 @@ public class SelectScan implements UpdateScan {
    public SelectScan(Scan s, Predicate pred) {
       this.s = s;
       this.pred = pred;
+      if (s instanceof TableScan)
+         bind((TableScan) s);
    }
    
    // Scan methods
@@ -39,7 +53,7 @@ public class SelectScan implements UpdateScan {
     */
    public boolean next() {
       while (s.next())
-         if (pred.isSatisfied(s))
+         if (isSatisfied())
          return true;
       return false;
    }
@@ -100,4 +114,125 @@ public class SelectScan implements UpdateScan {
       UpdateScan us = (UpdateScan) s;
       us.moveToRid(rid);
    }
+   
+   private boolean isSatisfied() {
+      if (boundterms == null)
+         return pred.isSatisfied(s);
+      for (BoundTerm bt : boundterms)
+         if (!bt.isSatisfied(ts))
+         return false;
+      return true;
+   }
+   
+   /**
+    * Resolves the field names of each term against
+    * the specified table scan.
+    * If some field cannot be resolved, the predicate
+    * is left unbound and is evaluated by name.
+    */
+   private void bind(TableScan ts) {
+      List<Term> terms = pred.terms();
+      BoundTerm[] bts = new BoundTerm[terms.size()];
+      for (int i=0; i<bts.length; i++) {
+         bts[i] = new BoundTerm(terms.get(i), ts);
+         if (!bts[i].isBound())
+            return;
+      }
+      this.ts = ts;
+      boundterms = bts;
+      ZoneMap zm = ts.zoneMap();
+      if (zm != null)
+         for (BoundTerm bt : bts)
+         bt.restrict(zm);
+   }
+   
+   /**
+    * A term whose field references have been resolved
+    * to field indexes of a table scan.
+    * When the term compares a field with a constant
+    * of the same type, the field value is compared
+    * without being wrapped in a constant.
+    */
+   private static class BoundTerm {
+      private Term term;
+      private int lhsidx = -1, rhsidx = -1;
+      private Constant lhsval, rhsval;
+      private boolean bound = true;
+      private boolean unwrapped = false;
+      private int fldidx, intval;
+      private String strval;
+      
+      BoundTerm(Term term, TableScan ts) {
+         this.term = term;
+         Expression lhs = term.lhs(), rhs = term.rhs();
+         if (lhs.isFieldName())
+            lhsidx = resolve(lhs.asFieldName(), ts);
+         else
+            lhsval = lhs.asConstant();
+         if (rhs.isFieldName())
+            rhsidx = resolve(rhs.asFieldName(), ts);
+         else
+            rhsval = rhs.asConstant();
+         if (bound && lhsidx >= 0 && rhsval != null)
+            unwrap(ts, lhsidx, rhsval);
+         else if (bound && rhsidx >= 0 && lhsval != null)
+            unwrap(ts, rhsidx, lhsval);
+      }
+      
+      boolean isBound() {
+         return bound;
+      }
+      
+      boolean isSatisfied(TableScan ts) {
+         if (unwrapped) {
+            int cmp;
+            if (strval == null)
+               cmp = Integer.compare(ts.getInt(fldidx), intval);
+            else
+               cmp = Integer.signum(ts.getString(fldidx).compareTo(strval));
+            return term.isSatisfied(lhsidx >= 0 ? cmp : -cmp);
+         }
+         Constant l = (lhsidx >= 0) ? ts.getVal(lhsidx) : lhsval;
+         Constant r = (rhsidx >= 0) ? ts.getVal(rhsidx) : rhsval;
+         return term.isSatisfied(l, r);
+      }
+      
+      /**
+       * Adds the term to the zone map as a condition,
+       * if it compares a field with a constant.
+       * The outcome of a comparison is reversed
+       * when the field is on the right-hand side.
+       */
+      void restrict(ZoneMap zm) {
+         if (!unwrapped)
+            return;
+         Object val = (strval == null) ? (Object) intval : strval;
+         int sign = (lhsidx >= 0) ? 1 : -1;
+         zm.addCondition(fldidx, val, term.isSatisfied(-sign),
+                         term.isSatisfied(0), term.isSatisfied(sign));
+      }
+      
+      /**
+       * Saves the unwrapped value of the constant, 
+       * provided that it has the same type as the field.
+       */
+      private void unwrap(TableScan ts, int fldidx, Constant c) {
+         boolean isint = (ts.fieldType(fldidx) == INTEGER);
+         if (isint != (c instanceof IntConstant))
+            return;
+         this.fldidx = fldidx;
+         if (isint)
+            intval = (Integer) c.asJavaVal();
+         else
+            strval = (String) c.asJavaVal();
+         unwrapped = true;
+      }
+      
+      private int resolve(String fldname, TableScan ts) {
+         int idx = ts.fieldIndex(fldname);
+         if (idx < 0)
+            bound = false;
+         return idx;
+      }
+   }
 }
@@ -0,0 +1,89 @@
+package simpledb.query;
+
+import simpledb.tx.Transaction;
+import simpledb.record.*;
+import java.util.Collection;
+
+/**
+ * The batch scan class corresponding to a table.
+ * The scan reads only the requested fields, copying
+ * each block once and decoding its records into
+ * the column vectors of the batch.
+ * @author Edward Sciore
+ */
+public class TableBatchScan implements BatchScan {
+   private RecordFile rf;
+   private TableInfo ti;
+   private Batch batch;
+   private int[] fldidxs;
+   private int[][] ints;
+   private String[][] strings;
+
+   /**
+    * Creates a batch scan of the specified fields of the table.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    * @param fldnames the fields to be read
+    */
+   public TableBatchScan(TableInfo ti, Transaction tx, Collection<String> fldnames) {
+      rf = new RecordFile(ti, tx);
+      this.ti = ti;
+      batch = new Batch(ti.schema(), fldnames);
+      String[] fields = batch.fields();
+      fldidxs = new int[fields.length];
+      ints = new int[fields.length][];
+      strings = new String[fields.length][];
+      for (int col=0; col<fields.length; col++) {
+         fldidxs[col] = ti.fieldIndex(fields[col]);
+         ints[col] = batch.ints(col);
+         strings[col] = batch.strings(col);
+      }
+   }
+
+   public void beforeFirst() {
+      rf.beforeFirst();
+   }
+
+   public Batch nextBatch() {
+      int n = rf.read(fldidxs, ints, strings, Batch.CAPACITY);
+      if (n == 0)
+         return null;
+      batch.selectAll(n);
+      return batch;
+   }
+
+   public void close() {
+      rf.close();
+   }
+
+   public boolean hasField(String fldname) {
+      return batch.hasField(fldname);
+   }
+
+   /**
+    * Returns the index of the specified field in the table's records.
+    * @param fldname the name of the field
+    * @return the index of the field
+    */
+   public int fieldIndex(String fldname) {
+      return ti.fieldIndex(fldname);
+   }
+
+   /**
+    * Returns the type of the field having the specified index.
+    * @param fldidx the index of the field
+    * @return the type of the field
+    */
+   public int fieldType(int fldidx) {
+      return ti.type(fldidx);
+   }
+
+   /**
+    * Returns the table's zone map, which a select scan
+    * can restrict to the blocks that might match its predicate.
+    * @return the zone map, or null if the table has none
+    */
+   public ZoneMap zoneMap() {
+      return rf.zoneMap();
+   }
+}
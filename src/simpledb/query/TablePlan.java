@@ -4,11 +4,12 @@ import simpledb.server.SimpleDB;
 import simpledb.tx.Transaction;
 import simpledb.metadata.*;
 import simpledb.record.*;
+import java.util.Collection;
 
 /** The Plan class corresponding to a table.
   * @author Edward Sciore
   */
-public class TablePlan implements Plan {
+public class TablePlan implements BatchPlan {
    private Transaction tx;
    private TableInfo ti;
    private StatInfo si;
@@ -33,6 +34,33 @@ public class TablePlan implements Plan {
       return new TableScan(ti, tx);
    }
    
+   /**
+    * Declares that the calling transaction is about to
+    * modify records of the table that it finds by scanning it.
+    * The scans of the table then lock its records,
+    * instead of the whole file.
+    * @see Transaction#lockFileForUpdate(String)
+    */
+   public void lockForUpdate() {
+      tx.lockFileForUpdate(ti.fileName());
+   }
+   
+   /**
+    * A table is always read in batches directly.
+    * @see simpledb.query.BatchPlan#isVectorized()
+    */
+   public boolean isVectorized() {
+      return true;
+   }
+   
+   /**
+    * Creates a batch scan of the specified fields of the table.
+    * @see simpledb.query.BatchPlan#openBatch(java.util.Collection)
+    */
+   public BatchScan openBatch(Collection<String> fldnames) {
+      return new TableBatchScan(ti, tx, fldnames);
+   }
+   
    /**
     * Estimates the number of block accesses for the table,
     * which is obtainable from the statistics manager.
@@ -9,11 +9,17 @@ import simpledb.record.*;
  * A table scan is just a wrapper for a RecordFile object;
  * most methods just delegate to the corresponding
  * RecordFile methods.
+ * In addition to the name-based methods of {@link Scan},
+ * a table scan provides methods that access a field by
+ * its index; a client can resolve each field name once via
+ * {@link #fieldIndex(String) fieldIndex}, and then avoid
+ * looking up the name for every record.
  * @author Edward Sciore
  *
  */
 public class TableScan implements UpdateScan {
    private RecordFile rf;
+   private TableInfo ti;
    private Schema sch;
    
    /**
@@ -24,6 +30,7 @@ public class TableScan implements UpdateScan {
     */
    public TableScan(TableInfo ti, Transaction tx) {
       rf  = new RecordFile(ti, tx);
+      this.ti = ti;
       sch = ti.schema();
    }
    
@@ -43,16 +50,13 @@ public class TableScan implements UpdateScan {
    
    /**
     * Returns the value of the specified field, as a Constant.
-    * The schema is examined to determine the field's type.
+    * The table metadata is examined to determine the field's type.
     * If INTEGER, then the record file's getInt method is called;
     * otherwise, the getString method is called.
     * @see simpledb.query.Scan#getVal(java.lang.String)
     */
    public Constant getVal(String fldname) {
-      if (sch.type(fldname) == INTEGER)
-         return new IntConstant(rf.getInt(fldname));
-      else
-         return new StringConstant(rf.getString(fldname));
+      return getVal(knownField(fldname));
    }
    
    public int getInt(String fldname) {
@@ -67,20 +71,109 @@ public class TableScan implements UpdateScan {
       return sch.hasField(fldname);
    }
    
+   /**
+    * Returns the index of the specified field, 
+    * for use with the index-based accessors.
+    * @param fldname the name of the field
+    * @return the index of the field, or -1 if the table has no such field
+    */
+   public int fieldIndex(String fldname) {
+      return ti.fieldIndex(fldname);
+   }
+   
+   /**
+    * Returns the type of the field having the specified index,
+    * using the constants in {@link java.sql.Types}.
+    * @param fldidx the index of the field
+    * @return the integer type of the field
+    */
+   public int fieldType(int fldidx) {
+      return ti.type(fldidx);
+   }
+   
+   /**
+    * Returns the zone map of the table, 
+    * or null if the table does not have one.
+    * Conditions added to the zone map restrict
+    * the blocks visited by the scan.
+    * @return the table's zone map, or null
+    */
+   public ZoneMap zoneMap() {
+      return rf.zoneMap();
+   }
+   
+   /**
+    * Returns the value of the field having the specified index,
+    * as a Constant.
+    * @param fldidx the index of the field
+    * @return the value of that field
+    */
+   public Constant getVal(int fldidx) {
+      if (ti.type(fldidx) == INTEGER)
+         return new IntConstant(rf.getInt(fldidx));
+      else
+         return new StringConstant(rf.getString(fldidx));
+   }
+   
+   /**
+    * Returns the value of the integer field having the specified index.
+    * @param fldidx the index of the field
+    * @return the field's integer value in the current record
+    */
+   public int getInt(int fldidx) {
+      return rf.getInt(fldidx);
+   }
+   
+   /**
+    * Returns the value of the string field having the specified index.
+    * @param fldidx the index of the field
+    * @return the field's string value in the current record
+    */
+   public String getString(int fldidx) {
+      return rf.getString(fldidx);
+   }
+   
    // UpdateScan methods
    
    /**
     * Sets the value of the specified field, as a Constant.
-    * The schema is examined to determine the field's type.
+    * The table metadata is examined to determine the field's type.
     * If INTEGER, then the record file's setInt method is called;
     * otherwise, the setString method is called.
     * @see simpledb.query.UpdateScan#setVal(java.lang.String, simpledb.query.Constant)
     */ 
    public void setVal(String fldname, Constant val) {
-      if (sch.type(fldname) == INTEGER)
-         rf.setInt(fldname, (Integer)val.asJavaVal());
+      setVal(knownField(fldname), val);
+   }
+   
+   /**
+    * Sets the value of the field having the specified index.
+    * @param fldidx the index of the field
+    * @param val the new value, expressed as a Constant
+    */
+   public void setVal(int fldidx, Constant val) {
+      if (ti.type(fldidx) == INTEGER)
+         rf.setInt(fldidx, (Integer)val.asJavaVal());
       else
-         rf.setString(fldname, (String)val.asJavaVal());
+         rf.setString(fldidx, (String)val.asJavaVal());
+   }
+   
+   /**
+    * Sets the value of the integer field having the specified index.
+    * @param fldidx the index of the field
+    * @param val the new integer value
+    */
+   public void setInt(int fldidx, int val) {
+      rf.setInt(fldidx, val);
+   }
+   
+   /**
+    * Sets the value of the string field having the specified index.
+    * @param fldidx the index of the field
+    * @param val the new string value
+    */
+   public void setString(int fldidx, String val) {
+      rf.setString(fldidx, val);
    }
    
    public void setInt(String fldname, int val) {
@@ -106,4 +199,11 @@ public class TableScan implements UpdateScan {
    public void moveToRid(RID rid) {
       rf.moveToRid(rid);
    }
+   
+   private int knownField(String fldname) {
+      int fldidx = ti.fieldIndex(fldname);
+      if (fldidx < 0)
+         throw new RuntimeException("field " + fldname + " not found.");
+      return fldidx;
+   }
 }
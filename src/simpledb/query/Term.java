@@ -141,6 +141,17 @@ public class Term {
    public boolean isSatisfied(Scan s) {
       Constant lhsval = lhs.evaluate(s);
       Constant rhsval = rhs.evaluate(s);
+      return isSatisfied(lhsval, rhsval);
+   }
+   
+   /**
+    * Returns true if the term's comparison holds
+    * between the specified values.
+    * @param lhsval the value of the LHS expression
+    * @param rhsval the value of the RHS expression
+    * @return true if the comparison holds
+    */
+   public boolean isSatisfied(Constant lhsval, Constant rhsval) {
       boolean flag = false;
       switch(rlat){
          case 0: if(!lhsval.equals(rhsval)) flag = true; break;
@@ -152,6 +163,41 @@ public class Term {
       return flag;
    }
    
+   /**
+    * Returns true if the term's comparison holds,
+    * given the result of comparing the LHS value
+    * to the RHS value.
+    * This method lets a caller that compares
+    * unwrapped values avoid creating constants.
+    * @param cmp the comparison result, as returned by compareTo
+    * @return true if the comparison holds
+    */
+   public boolean isSatisfied(int cmp) {
+      switch(rlat){
+         case 0: return cmp != 0;
+         case 1: return cmp == 0;
+         case 2: return cmp > 0;
+         case 3: return cmp < 0;
+         default: return false;
+      }
+   }
+   
+   /**
+    * Returns the LHS expression of the term.
+    * @return the LHS expression
+    */
+   public Expression lhs() {
+      return lhs;
+   }
+   
+   /**
+    * Returns the RHS expression of the term.
+    * @return the RHS expression
+    */
+   public Expression rhs() {
+      return rhs;
+   }
+   
    public String toString() {
       String rlat_str;
       switch(rlat){
@@ -0,0 +1,139 @@
+package simpledb.query;
+
+import simpledb.record.Schema;
+import simpledb.tx.concurrency.LockMonitor;
+import java.util.*;
+
+/** The Plan class corresponding to a virtual table,
+  * whose records describe the state of the server
+  * and are computed when the plan is created.
+  * The virtual tables are:
+  * <UL>
+  * <LI><code>syslocks</code>, the locks held and requested,
+  *     with fields resource, txnum, mode, status
+  *     (granted or waiting) and waitms;
+  * <LI><code>syslockwaits</code>, the resources that lock requests
+  *     waited for, with fields resource, waits and waitms.
+  * </UL>
+  * @author Edward Sciore
+  */
+public class VirtualTablePlan implements Plan {
+   private static final int RESOURCE_LENGTH = 60;
+
+   private Schema sch = new Schema();
+   private List<String> fields = new ArrayList<String>();
+   private List<Constant[]> rows = new ArrayList<Constant[]>();
+
+   /**
+    * Returns the plan of the specified virtual table,
+    * or null if there is no such virtual table.
+    * @param tblname the name of the table
+    * @return the plan of the virtual table, or null
+    */
+   public static Plan forTable(String tblname) {
+      if (tblname.equals("syslocks"))
+         return lockPlan();
+      else if (tblname.equals("syslockwaits"))
+         return lockWaitPlan();
+      else
+         return null;
+   }
+
+   private static VirtualTablePlan lockPlan() {
+      VirtualTablePlan p = new VirtualTablePlan();
+      p.addStringField("resource", RESOURCE_LENGTH);
+      p.addIntField("txnum");
+      p.addStringField("mode", 3);
+      p.addStringField("status", 7);
+      p.addIntField("waitms");
+      for (LockMonitor.LockInfo info : LockMonitor.monitor().locks())
+         p.addRow(info.resource(), info.txnum(), info.mode(),
+                  info.isGranted() ? "granted" : "waiting", info.waitMillis());
+      return p;
+   }
+
+   private static VirtualTablePlan lockWaitPlan() {
+      VirtualTablePlan p = new VirtualTablePlan();
+      p.addStringField("resource", RESOURCE_LENGTH);
+      p.addIntField("waits");
+      p.addIntField("waitms");
+      for (Map.Entry<Object,long[]> e : LockMonitor.monitor().contended(Integer.MAX_VALUE))
+         p.addRow(e.getKey(), e.getValue()[0], e.getValue()[1]);
+      return p;
+   }
+
+   private VirtualTablePlan() {}
+
+   /**
+    * Creates a scan of the records of the virtual table.
+    * @see simpledb.query.Plan#open()
+    */
+   public Scan open() {
+      return new VirtualTableScan(fields, rows);
+   }
+
+   /**
+    * The records of a virtual table are in memory,
+    * so the estimate is a single block.
+    * @see simpledb.query.Plan#blocksAccessed()
+    */
+   public int blocksAccessed() {
+      return 1;
+   }
+
+   /**
+    * Returns the number of records in the virtual table.
+    * @see simpledb.query.Plan#recordsOutput()
+    */
+   public int recordsOutput() {
+      return rows.size();
+   }
+
+   /**
+    * Estimates the number of distinct field values
+    * as a third of the records.
+    * @see simpledb.query.Plan#distinctValues(java.lang.String)
+    */
+   public int distinctValues(String fldname) {
+      return 1 + rows.size() / 3;
+   }
+
+   /**
+    * Returns the schema of the virtual table.
+    * @see simpledb.query.Plan#schema()
+    */
+   public Schema schema() {
+      return sch;
+   }
+
+   private void addIntField(String fldname) {
+      sch.addIntField(fldname);
+      fields.add(fldname);
+   }
+
+   private void addStringField(String fldname, int length) {
+      sch.addStringField(fldname, length);
+      fields.add(fldname);
+   }
+
+   /**
+    * Adds a record with the specified values, in field order.
+    * Numbers become integer constants, and other values become
+    * strings, truncated to the length of their field.
+    */
+   private void addRow(Object... vals) {
+      Constant[] row = new Constant[vals.length];
+      for (int i=0; i<vals.length; i++) {
+         if (vals[i] instanceof Number) {
+            long n = ((Number) vals[i]).longValue();
+            row[i] = new IntConstant((int) Math.min(n, Integer.MAX_VALUE));
+         }
+         else {
+            String s = String.valueOf(vals[i]);
+            int length = sch.length(fields.get(i));
+            row[i] = new StringConstant(s.length() > length ? s.substring(0, length) : s);
+         }
+      }
+      rows.add(row);
+   }
+}
@@ -0,0 +1,57 @@
+package simpledb.query;
+
+import java.util.*;
+
+/**
+ * The scan class corresponding to a virtual table.
+ * The scan iterates through records held in memory.
+ * @author Edward Sciore
+ */
+public class VirtualTableScan implements Scan {
+   private Map<String,Integer> positions = new HashMap<String,Integer>();
+   private List<Constant[]> rows;
+   private int current = -1;
+
+   /**
+    * Creates a scan of the specified records.
+    * @param fields the field names, in the order of the values of each record
+    * @param rows the records
+    */
+   public VirtualTableScan(List<String> fields, List<Constant[]> rows) {
+      for (int i=0; i<fields.size(); i++)
+         positions.put(fields.get(i), i);
+      this.rows = rows;
+   }
+
+   public void beforeFirst() {
+      current = -1;
+   }
+
+   public boolean next() {
+      if (current < rows.size())
+         current++;
+      return current < rows.size();
+   }
+
+   public void close() {
+   }
+
+   public Constant getVal(String fldname) {
+      Integer pos = positions.get(fldname);
+      if (pos == null)
+         throw new RuntimeException("field " + fldname + " not found.");
+      return rows.get(current)[pos];
+   }
+
+   public int getInt(String fldname) {
+      return (Integer) getVal(fldname).asJavaVal();
+   }
+
+   public String getString(String fldname) {
+      return (String) getVal(fldname).asJavaVal();
+   }
+
+   public boolean hasField(String fldname) {
+      return positions.containsKey(fldname);
+   }
+}
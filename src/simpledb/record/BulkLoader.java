@@ -0,0 +1,245 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import static simpledb.file.Page.*;
+import simpledb.file.*;
+import simpledb.buffer.PageFormatter;
+import simpledb.tx.Transaction;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Loads records into a table in bulk.
+ * Instead of inserting each record into a free slot and
+ * logging each field, the loader accumulates a page's worth
+ * of records and writes them into a newly appended block
+ * all at once.
+ * Each such block is written with a single log record,
+ * whose undo empties the block.
+ * The loaded blocks are fully packed, and always
+ * follow the existing blocks of the table.
+ */
+public class BulkLoader {
+   private TableInfo ti;
+   private Transaction tx;
+   private int[] fldidxs;
+   private int numslots;
+   private ZoneMap zonemap;
+   private List<Object[]> rows = new ArrayList<Object[]>();
+   private int firstblknum = -1;
+   private int count = 0;
+   
+   /**
+    * Creates a loader for the specified table.
+    * Each loaded record will contain values for the specified fields,
+    * in that order; the remaining fields get default values.
+    * @param ti the table's metadata
+    * @param fields the fields whose values are supplied
+    * @param tx the calling transaction
+    */
+   public BulkLoader(TableInfo ti, List<String> fields, Transaction tx) {
+      this.ti = ti;
+      this.tx = tx;
+      fldidxs = new int[fields.size()];
+      for (int i=0; i<fldidxs.length; i++) {
+         fldidxs[i] = ti.fieldIndex(fields.get(i));
+         if (fldidxs[i] < 0)
+            throw new RuntimeException("field " + fields.get(i) + " not found.");
+      }
+      numslots = RecordPage.slotCount(ti.recordLength());
+      zonemap = ZoneMap.open(ti, tx);
+   }
+   
+   /**
+    * Adds a record to the table.
+    * The values must be Integer or String objects,
+    * corresponding to the loader's fields.
+    * The record is written when its page is full,
+    * or when the loader is closed.
+    * @param vals the field values of the record
+    */
+   public void insert(Object[] vals) {
+      rows.add(vals);
+      count++;
+      if (rows.size() == numslots)
+         writeBlock();
+   }
+   
+   /**
+    * Reads the specified file, and adds a record for each of its lines.
+    * Each line contains the values of the loader's fields, 
+    * separated by commas.
+    * A value may be enclosed in single or double quotes,
+    * in which case it may contain commas, and the quote
+    * character is written inside it by doubling it.
+    * Blank lines are ignored.
+    * @param filename the name of the data file
+    */
+   public void loadFile(String filename) {
+      try {
+         BufferedReader reader = new BufferedReader(new FileReader(filename));
+         try {
+            String line;
+            int linenum = 0;
+            while ((line = reader.readLine()) != null) {
+               linenum++;
+               if (line.trim().length() > 0)
+                  insert(parseLine(line, linenum));
+            }
+         }
+         finally {
+            reader.close();
+         }
+      }
+      catch (IOException e) {
+         throw new RuntimeException("cannot read " + filename);
+      }
+   }
+   
+   /**
+    * Writes any records that have not yet been written.
+    */
+   public void close() {
+      if (rows.size() > 0)
+         writeBlock();
+   }
+   
+   /**
+    * Returns the number of records added by the loader.
+    * @return the number of loaded records
+    */
+   public int recordsLoaded() {
+      return count;
+   }
+   
+   /**
+    * Returns the number of the first block written by the loader,
+    * or -1 if no block has been written.
+    * All of the loaded records live in this block and the ones after it.
+    * @return the first loaded block number
+    */
+   public int firstBlock() {
+      return firstblknum;
+   }
+   
+   private void writeBlock() {
+      String filename = ti.fileName();
+      Block blk = tx.appendExclusive(filename, new RecordFormatter(ti));
+      if (firstblknum < 0)
+         firstblknum = blk.number();
+      tx.pin(blk);
+      tx.load(blk, new LoadFormatter(rows));
+      tx.unpin(blk);
+      if (zonemap != null)
+         zonemap.rebuild(blk.number());
+      rows = new ArrayList<Object[]>();
+   }
+   
+   private Object[] parseLine(String line, int linenum) {
+      List<String> tokens = splitLine(line, linenum);
+      if (tokens.size() != fldidxs.length)
+         throw new RuntimeException("line " + linenum + ": expected "
+                                    + fldidxs.length + " values");
+      Object[] vals = new Object[fldidxs.length];
+      for (int i=0; i<fldidxs.length; i++) {
+         String token = tokens.get(i);
+         int fldidx = fldidxs[i];
+         if (ti.type(fldidx) == INTEGER) {
+            try {
+               vals[i] = Integer.parseInt(token);
+            }
+            catch (NumberFormatException e) {
+               throw new RuntimeException("line " + linenum + ": bad integer " + token);
+            }
+         }
+         else {
+            String sval = token;
+            int maxlen = ti.schema().length(ti.fieldName(fldidx));
+            if (sval.length() > maxlen)
+               throw new RuntimeException("line " + linenum + ": string too long: " + sval);
+            vals[i] = sval;
+         }
+      }
+      return vals;
+   }
+   
+   /**
+    * Splits a line into its values, removing the quotes
+    * around a quoted value and the whitespace around the others.
+    * A comma ends a value unless it is inside quotes.
+    */
+   private List<String> splitLine(String line, int linenum) {
+      List<String> tokens = new ArrayList<String>();
+      int n = line.length();
+      int pos = 0;
+      while (true) {
+         while (pos < n && Character.isWhitespace(line.charAt(pos)))
+            pos++;
+         if (pos < n && (line.charAt(pos) == '\'' || line.charAt(pos) == '"')) {
+            char quote = line.charAt(pos++);
+            StringBuilder token = new StringBuilder();
+            while (true) {
+               if (pos >= n)
+                  throw new RuntimeException("line " + linenum + ": unterminated quoted value");
+               char c = line.charAt(pos++);
+               if (c != quote)
+                  token.append(c);
+               else if (pos < n && line.charAt(pos) == quote) {
+                  token.append(quote);
+                  pos++;
+               }
+               else
+                  break;
+            }
+            while (pos < n && Character.isWhitespace(line.charAt(pos)))
+               pos++;
+            if (pos < n && line.charAt(pos) != ',')
+               throw new RuntimeException("line " + linenum + ": text follows quoted value " + token);
+            tokens.add(token.toString());
+         }
+         else {
+            int start = pos;
+            while (pos < n && line.charAt(pos) != ',')
+               pos++;
+            tokens.add(line.substring(start, pos).trim());
+         }
+         if (pos >= n)
+            return tokens;
+         pos++;  // the comma
+      }
+   }
+   
+   /**
+    * A formatter that fills a record page with the
+    * specified records, and marks their slots as in use.
+    * The remaining slots are empty.
+    */
+   private class LoadFormatter implements PageFormatter {
+      private List<Object[]> pagerows;
+      
+      LoadFormatter(List<Object[]> pagerows) {
+         this.pagerows = pagerows;
+      }
+      
+      public void format(Page page) {
+         new RecordFormatter(ti).format(page);
+         int slotsize = ti.recordLength();
+         int headersize = RecordPage.headerSize(numslots);
+         int[] bitmap = new int[headersize / INT_SIZE];
+         for (int slot=0; slot<pagerows.size(); slot++) {
+            bitmap[slot / Integer.SIZE] |= 1 << (slot % Integer.SIZE);
+            Object[] vals = pagerows.get(slot);
+            int pos = headersize + slot * slotsize;
+            for (int i=0; i<fldidxs.length; i++) {
+               int offset = pos + ti.offset(fldidxs[i]);
+               if (vals[i] instanceof String)
+                  page.setString(offset, (String) vals[i]);
+               else
+                  page.setInt(offset, (Integer) vals[i]);
+            }
+         }
+         for (int i=0; i<bitmap.length; i++)
+            page.setInt(i * INT_SIZE, bitmap[i]);
+      }
+   }
+}
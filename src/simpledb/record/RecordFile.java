@@ -7,6 +7,9 @@ import simpledb.tx.Transaction;
  * Manages a file of records.
  * There are methods for iterating through the records
  * and accessing their contents.
+ * If the table has a zone map, then the record file
+ * keeps it up to date, and the iteration skips the
+ * blocks that the zone map rules out.
  * @author Edward Sciore
  */
 public class RecordFile {
@@ -15,6 +18,9 @@ public class RecordFile {
    private String filename;
    private RecordPage rp;
    private int currentblknum;
+   private ZoneMap zonemap;
+   private boolean filelocked = false;
+   private boolean endlocked = false;
    
    /**
     * Constructs an object to manage a file of records.
@@ -26,8 +32,8 @@ public class RecordFile {
       this.ti = ti;
       this.tx = tx;
       filename = ti.fileName();
-      if (tx.size(filename) == 0)
-         appendBlock();
+      zonemap = ZoneMap.open(ti, tx);
+      tx.extend(filename, 1, new RecordFormatter(ti));
       moveTo(0);
    }
    
@@ -49,18 +55,45 @@ public class RecordFile {
    /**
     * Moves to the next record. Returns false if there
     * is no next record.
+    * A block that the zone map rules out is
+    * skipped without being read.
+    * When the iteration first moves past a block,
+    * the file is locked as a whole, so that the
+    * rest of the scan takes no block locks,
+    * unless the transaction is modifying the file.
+    * @see Transaction#lockFileForScan(String)
     * @return false if there is no next record.
     */
    public boolean next() {
       while (true) {
          if (rp.next())
             return true;
-         if (atLastBlock())
+         if (!nextBlock())
             return false;
-         moveTo(currentblknum + 1);
       }
    }
    
+   /**
+    * Reads the values of the records following the current one
+    * into column vectors, moving from block to block as needed,
+    * and moves to the last record read.
+    * Each column is either an integer vector or a string vector,
+    * according to the type of its field.
+    * @param fldidxs the indexes of the fields to be read
+    * @param ints the integer vector of each field, or null
+    * @param strings the string vector of each field, or null
+    * @param max the largest number of records to read
+    * @return the number of records read, which is less than max
+    * only if there are no more records
+    * @see RecordPage#read(int[], int[][], String[][], int, int)
+    */
+   public int read(int[] fldidxs, int[][] ints, String[][] strings, int max) {
+      int n = rp.read(fldidxs, ints, strings, 0, max);
+      while (n < max && nextBlock())
+         n += rp.read(fldidxs, ints, strings, n, max - n);
+      return n;
+   }
+   
    /**
     * Returns the value of the specified field
     * in the current record.
@@ -88,7 +121,7 @@ public class RecordFile {
     * @param val the new value for the field
     */
    public void setInt(String fldname, int val) {
-      rp.setInt(fldname, val);
+      setInt(fieldIndex(fldname), val);
    }
    
    /**
@@ -98,7 +131,51 @@ public class RecordFile {
     * @param val the new value for the field
     */
    public void setString(String fldname, String val) {
-      rp.setString(fldname, val);
+      setString(fieldIndex(fldname), val);
+   }
+   
+   /**
+    * Returns the value of the field having the specified
+    * index in the current record.
+    * @param fldidx the index of the field, as given by {@link TableInfo#fieldIndex(String)}
+    * @return the integer value at that field
+    */
+   public int getInt(int fldidx) {
+      return rp.getInt(fldidx);
+   }
+   
+   /**
+    * Returns the value of the field having the specified
+    * index in the current record.
+    * @param fldidx the index of the field
+    * @return the string value at that field
+    */
+   public String getString(int fldidx) {
+      return rp.getString(fldidx);
+   }
+   
+   /**
+    * Sets the value of the field having the specified
+    * index in the current record.
+    * @param fldidx the index of the field
+    * @param val the new value for the field
+    */
+   public void setInt(int fldidx, int val) {
+      rp.setInt(fldidx, val);
+      if (zonemap != null)
+         zonemap.setInt(currentblknum, fldidx, val);
+   }
+   
+   /**
+    * Sets the value of the field having the specified
+    * index in the current record.
+    * @param fldidx the index of the field
+    * @param val the new value for the field
+    */
+   public void setString(int fldidx, String val) {
+      rp.setString(fldidx, val);
+      if (zonemap != null)
+         zonemap.setString(currentblknum, fldidx, val);
    }
    
    /**
@@ -124,6 +201,19 @@ public class RecordFile {
             appendBlock();
          moveTo(currentblknum + 1);
       }
+      if (zonemap != null)
+         zonemap.insert(currentblknum, rp);
+   }
+   
+   /**
+    * Returns the zone map of the table,
+    * or null if the table does not have one.
+    * A client can add conditions to the zone map,
+    * in order to restrict the blocks visited by {@link #next()}.
+    * @return the table's zone map, or null
+    */
+   public ZoneMap zoneMap() {
+      return zonemap;
    }
    
    /**
@@ -145,6 +235,13 @@ public class RecordFile {
       return new RID(currentblknum, id);
    }
    
+   private int fieldIndex(String fldname) {
+      int fldidx = ti.fieldIndex(fldname);
+      if (fldidx < 0)
+         throw new RuntimeException("field " + fldname + " not found.");
+      return fldidx;
+   }
+   
    private void moveTo(int b) {
       if (rp != null)
          rp.close();
@@ -153,12 +250,46 @@ public class RecordFile {
       rp = new RecordPage(blk, ti, tx);
    }
    
+   /**
+    * Moves to the next block that might contain matching records,
+    * if there is one.
+    * The whole file is locked before moving past its first block.
+    * When the scan reaches the end of the file, the end is locked
+    * as well, if the scan locks records, and the size of the file
+    * is read again, in case blocks were appended in the meantime.
+    * @return false if there is no next block
+    */
+   private boolean nextBlock() {
+      if (!filelocked) {
+         tx.lockFileForScan(filename);
+         filelocked = true;
+      }
+      int b = currentblknum + 1;
+      while (true) {
+         int size = tx.size(filename);
+         while (b < size && zonemap != null && !zonemap.mightMatch(b)) {
+            tx.noteSkipped(new Block(filename, b));
+            b++;
+         }
+         if (b < size) {
+            moveTo(b);
+            return true;
+         }
+         if (endlocked)
+            return false;
+         tx.lockFileEnd(filename);
+         endlocked = true;
+      }
+   }
+   
    private boolean atLastBlock() {
       return currentblknum == tx.size(filename) - 1;
    }
    
    private void appendBlock() {
       RecordFormatter fmtr = new RecordFormatter(ti);
-      tx.append(filename, fmtr);
+      Block blk = tx.append(filename, fmtr);
+      if (zonemap != null)
+         zonemap.clear(blk.number());
    }
 }
\ No newline at end of file
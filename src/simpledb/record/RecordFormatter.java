@@ -2,7 +2,6 @@ package simpledb.record;
 
 import static java.sql.Types.INTEGER;
 import static simpledb.file.Page.*;
-import static simpledb.record.RecordPage.EMPTY;
 import simpledb.file.Page;
 import simpledb.buffer.PageFormatter;
 
@@ -25,26 +24,29 @@ class RecordFormatter implements PageFormatter {
    /** 
     * Formats the page by allocating as many record slots
     * as possible, given the record length.
-    * Each record slot is assigned a flag of EMPTY.
+    * The occupancy bitmap is cleared, so that each
+    * record slot is EMPTY.
     * Each integer field is given a value of 0, and
     * each string field is given a value of "".
     * @see simpledb.buffer.PageFormatter#format(simpledb.file.Page)
     */
    public void format(Page page) {
-      int recsize = ti.recordLength() + INT_SIZE;
-      for (int pos=0; pos+recsize<=BLOCK_SIZE; pos += recsize) {
-         page.setInt(pos, EMPTY);
-         makeDefaultRecord(page, pos);
-      }
+      int recsize = ti.recordLength();
+      int numslots = RecordPage.slotCount(recsize);
+      int headersize = RecordPage.headerSize(numslots);
+      for (int pos=0; pos<headersize; pos += INT_SIZE)
+         page.setInt(pos, 0);
+      for (int slot=0; slot<numslots; slot++)
+         makeDefaultRecord(page, headersize + slot*recsize);
    }
    
    private void makeDefaultRecord(Page page, int pos) {
       for (String fldname : ti.schema().fields()) {
          int offset = ti.offset(fldname);
          if (ti.schema().type(fldname) == INTEGER)
-            page.setInt(pos + INT_SIZE + offset, 0);
+            page.setInt(pos + offset, 0);
          else
-            page.setString(pos + INT_SIZE + offset, "");
+            page.setString(pos + offset, "");
       }
    }
 }
@@ -3,19 +3,58 @@ package simpledb.record;
 import static simpledb.file.Page.*;
 import simpledb.file.Block;
 import simpledb.tx.Transaction;
+import java.nio.ByteBuffer;
 
 /**
  * Manages the placement and access of records in a block.
+ * The page begins with an occupancy bitmap, having one bit per
+ * record slot; a bit is set if its slot is in use.
+ * The bitmap is stored as a sequence of integers, so that
+ * a search for a used or empty slot can examine 32 slots
+ * with a single read of the page.
+ * The record slots follow the bitmap.
+ * <P>
+ * The values of a record are read and written under a lock
+ * on the record, so that transactions can modify different
+ * records of the page concurrently.
+ * Moving through the records reads the bitmap under
+ * an SLock on the block, so that a record deleted by an
+ * uncommitted transaction is not skipped.
+ * A transaction that is modifying the file instead searches
+ * the bitmap without locking, and SLocks each slot that it finds
+ * in use, or whose bit an uncommitted transaction has modified,
+ * before reading the bit again; its writes would otherwise convert
+ * the block's SLock to SIX, and make transactions modifying
+ * different records of the page wait on each other.
+ * An insertion looks for an empty slot without locking,
+ * locks the slot, and then sets its bit, unless another 
+ * transaction has set it in the meantime.
+ * A client that reads the values of many records at once
+ * instead copies the page under a single SLock on the block,
+ * and reads the values from the copy, unless it locks slots.
  * @author Edward Sciore
  */
 public class RecordPage {
    public static final int EMPTY = 0, INUSE = 1;
    
+   /**
+    * The version of the layout of record pages.
+    * Version 1 had an integer flag before each record, instead of the bitmap.
+    * @see simpledb.file.FileMgr#checkFormat(int, int, String)
+    */
+   public static final int FORMAT_VERSION = 2;
+   
+   private static final int SLOTS_PER_WORD = Integer.SIZE;
+   
    private Block blk;
    private TableInfo ti;
    private Transaction tx;
    private int slotsize;
+   private int numslots;
+   private int headersize;
    private int currentslot = -1;
+   private boolean locksslots;
+   private boolean emptylocked = false;
    
    /** Creates the record manager for the specified block.
      * The current record is set to be prior to the first one.
@@ -27,7 +66,10 @@ public class RecordPage {
       this.blk = blk;
       this.ti = ti;
       this.tx = tx;
-      slotsize = ti.recordLength() + INT_SIZE;
+      slotsize = ti.recordLength();
+      numslots = slotCount(slotsize);
+      headersize = headerSize(numslots);
+      locksslots = tx.scansRecords(blk.fileName());
       tx.pin(blk);
   }
    
@@ -49,6 +91,60 @@ public class RecordPage {
       return searchFor(INUSE);
    }
    
+   /**
+    * Reads the values of the records following the current one
+    * into column vectors, and moves to the last record read.
+    * The values are read from a copy of the page, which
+    * the transaction makes under an SLock on the block.
+    * Each column is either an integer vector or a string vector,
+    * according to the type of its field.
+    * @param fldidxs the indexes of the fields to be read
+    * @param ints the integer vector of each field, or null
+    * @param strings the string vector of each field, or null
+    * @param start the position in the vectors of the first record read
+    * @param max the largest number of records to read
+    * @return the number of records read
+    */
+   public int read(int[] fldidxs, int[][] ints, String[][] strings, int start, int max) {
+      if (locksslots)
+         return readRecords(fldidxs, ints, strings, start, max);
+      ByteBuffer image = ByteBuffer.wrap(tx.getBytes(blk, 0, BLOCK_SIZE));
+      int[] offsets = new int[fldidxs.length];
+      for (int i=0; i<fldidxs.length; i++)
+         offsets[i] = ti.offset(fldidxs[i]);
+      int n = 0;
+      while (n < max && searchFor(image)) {
+         int pos = currentpos();
+         for (int i=0; i<fldidxs.length; i++) {
+            if (ints[i] != null)
+               ints[i][start+n] = image.getInt(pos + offsets[i]);
+            else
+               strings[i][start+n] = getString(image, pos + offsets[i]);
+         }
+         n++;
+      }
+      return n;
+   }
+   
+   /**
+    * Reads the values of the records following the current one
+    * a record at a time, for a transaction that locks slots.
+    * @see #read(int[], int[][], String[][], int, int)
+    */
+   private int readRecords(int[] fldidxs, int[][] ints, String[][] strings, int start, int max) {
+      int n = 0;
+      while (n < max && next()) {
+         for (int i=0; i<fldidxs.length; i++) {
+            if (ints[i] != null)
+               ints[i][start+n] = getInt(fldidxs[i]);
+            else
+               strings[i][start+n] = getString(fldidxs[i]);
+         }
+         n++;
+      }
+      return n;
+   }
+   
    /**
     * Returns the integer value stored for the
     * specified field of the current record.
@@ -57,7 +153,7 @@ public class RecordPage {
     */
    public int getInt(String fldname) {
       int position = fieldpos(fldname);
-      return tx.getInt(blk, position);
+      return tx.getRecordInt(blk, currentslot, position);
    }
    
    /**
@@ -68,7 +164,7 @@ public class RecordPage {
     */
    public String getString(String fldname) {
       int position = fieldpos(fldname);
-      return tx.getString(blk, position);
+      return tx.getRecordString(blk, currentslot, position);
    }
    
    /**
@@ -79,7 +175,7 @@ public class RecordPage {
     */
    public void setInt(String fldname, int val) {
       int position = fieldpos(fldname);
-      tx.setInt(blk, position, val);
+      tx.setRecordInt(blk, currentslot, position, val);
    }
    
    /**
@@ -90,18 +186,59 @@ public class RecordPage {
     */
    public void setString(String fldname, String val) {
       int position = fieldpos(fldname);
-      tx.setString(blk, position, val);
+      tx.setRecordString(blk, currentslot, position, val);
+   }
+   
+   /**
+    * Returns the integer value stored for the
+    * field having the specified index.
+    * @param fldidx the index of the field, as given by {@link TableInfo#fieldIndex(String)}
+    * @return the integer stored in that field
+    */
+   public int getInt(int fldidx) {
+      int position = fieldpos(fldidx);
+      return tx.getRecordInt(blk, currentslot, position);
+   }
+   
+   /**
+    * Returns the string value stored for the
+    * field having the specified index.
+    * @param fldidx the index of the field
+    * @return the string stored in that field
+    */
+   public String getString(int fldidx) {
+      int position = fieldpos(fldidx);
+      return tx.getRecordString(blk, currentslot, position);
+   }
+   
+   /**
+    * Stores an integer at the field having the specified index.
+    * @param fldidx the index of the field
+    * @param val the integer value stored in that field
+    */
+   public void setInt(int fldidx, int val) {
+      int position = fieldpos(fldidx);
+      tx.setRecordInt(blk, currentslot, position, val);
+   }
+   
+   /**
+    * Stores a string at the field having the specified index.
+    * @param fldidx the index of the field
+    * @param val the string value stored in that field
+    */
+   public void setString(int fldidx, String val) {
+      int position = fieldpos(fldidx);
+      tx.setRecordString(blk, currentslot, position, val);
    }
    
    /**
     * Deletes the current record.
-    * Deletion is performed by just marking the record
-    * as "deleted"; the current record does not change. 
+    * Deletion is performed by just clearing the record's
+    * bit in the occupancy bitmap; the current record does not change. 
     * To get to the next record, call next().
     */
    public void delete() {
-      int position = currentpos();
-      tx.setInt(blk, position, EMPTY);
+      setFlag(EMPTY);
    }
    
    /**
@@ -111,12 +248,12 @@ public class RecordPage {
     */
    public boolean insert() {
       currentslot = -1;
-      boolean found = searchFor(EMPTY);
-      if (found) {
-         int position = currentpos();
-         tx.setInt(blk, position, INUSE);
+      while (searchFor(EMPTY)) {
+         tx.lockForInsert(blk);
+         if (setFlag(INUSE))
+            return true;
       }
-      return found;
+      return false;
    }
    
    /**
@@ -136,24 +273,169 @@ public class RecordPage {
       return currentslot;
    }
    
+   /**
+    * Returns true if no slot of the page is in use.
+    * The bitmap is read without locking, and so
+    * includes the changes of uncommitted transactions.
+    * @return true if the page contains no records
+    */
+   boolean isEmpty() {
+      for (int pos=0; pos<headersize; pos+=INT_SIZE)
+         if (tx.peekInt(blk, pos) != 0)
+         return false;
+      return true;
+   }
+   
+   /**
+    * Returns the number of record slots that fit in a page,
+    * given the size of each slot.
+    * The occupancy bitmap at the front of the page
+    * is taken into account.
+    * @param slotsize the size of a record slot, in bytes
+    * @return the number of slots in a page
+    */
+   static int slotCount(int slotsize) {
+      int n = BLOCK_SIZE / Math.max(slotsize, 1);
+      while (n > 0 && headerSize(n) + n * slotsize > BLOCK_SIZE)
+         n--;
+      return n;
+   }
+   
+   /**
+    * Returns the size of the occupancy bitmap 
+    * for a page having the specified number of slots.
+    * @param numslots the number of slots in the page
+    * @return the size of the bitmap, in bytes
+    */
+   static int headerSize(int numslots) {
+      int numwords = (numslots + SLOTS_PER_WORD - 1) / SLOTS_PER_WORD;
+      return numwords * INT_SIZE;
+   }
+   
    private int currentpos() {
-      return currentslot * slotsize;
+      return headersize + currentslot * slotsize;
    }
    
    private int fieldpos(String fldname) {
-      int offset = INT_SIZE + ti.offset(fldname);
-      return currentpos() + offset;
+      int fldidx = ti.fieldIndex(fldname);
+      if (fldidx < 0)
+         throw new RuntimeException("field " + fldname + " not found.");
+      return fieldpos(fldidx);
    }
    
-   private boolean isValidSlot() {
-      return currentpos() + slotsize <= BLOCK_SIZE;
+   private int fieldpos(int fldidx) {
+      return currentpos() + ti.offset(fldidx);
    }
    
+   private int wordpos(int slot) {
+      return (slot / SLOTS_PER_WORD) * INT_SIZE;
+   }
+   
+   /**
+    * Sets or clears the bitmap bit of the current slot.
+    * Only that bit of its bitmap word is modified, since
+    * other transactions may be modifying the other bits.
+    * @param flag either INUSE or EMPTY
+    * @return false if the bit already had the desired value
+    */
+   private boolean setFlag(int flag) {
+      int position = wordpos(currentslot);
+      int mask = 1 << (currentslot % SLOTS_PER_WORD);
+      return tx.setRecordFlag(blk, currentslot, position, mask, flag == INUSE);
+   }
+   
+   /**
+    * Moves to the next slot that is in use, according to
+    * the specified copy of the page.
+    * @param image a copy of the page
+    * @return false if there is no such slot
+    * @see #searchFor(int)
+    */
+   private boolean searchFor(ByteBuffer image) {
+      currentslot++;
+      while (currentslot < numslots) {
+         int bit = currentslot % SLOTS_PER_WORD;
+         int wordstart = currentslot - bit;
+         int word = image.getInt(wordpos(currentslot)) & (-1 << bit);
+         if (word != 0) {
+            currentslot = wordstart + Integer.numberOfTrailingZeros(word);
+            return currentslot < numslots;
+         }
+         currentslot = wordstart + SLOTS_PER_WORD;
+      }
+      return false;
+   }
+   
+   private static String getString(ByteBuffer image, int pos) {
+      int len = image.getInt(pos);
+      return new String(image.array(), pos + INT_SIZE, len);
+   }
+   
+   /**
+    * Moves to the next slot having the specified flag.
+    * A search for an empty slot does not lock the block.
+    * The bitmap is read a word at a time; within a word,
+    * the candidate slot is found by masking off the slots
+    * preceding the current one and counting trailing zeros.
+    * @param flag either INUSE or EMPTY
+    * @return false if there is no such slot
+    */
    private boolean searchFor(int flag) {
+      if (flag == INUSE && locksslots)
+         return searchSlots();
+      currentslot++;
+      while (currentslot < numslots) {
+         int word;
+         if (flag == EMPTY)
+            word = ~tx.peekInt(blk, wordpos(currentslot));
+         else
+            word = tx.getInt(blk, wordpos(currentslot));
+         int bit = currentslot % SLOTS_PER_WORD;
+         int wordstart = currentslot - bit;
+         word &= -1 << bit;
+         if (word != 0) {
+            currentslot = wordstart + Integer.numberOfTrailingZeros(word);
+            return currentslot < numslots;
+         }
+         currentslot = wordstart + SLOTS_PER_WORD;
+      }
+      return false;
+   }
+   
+   /**
+    * Moves to the next slot that is in use, for a transaction
+    * that locks slots.
+    * The bitmap is searched a word at a time without locking,
+    * as for an empty slot, for a slot that is in use or whose
+    * bit an uncommitted transaction has modified.
+    * The slot is then locked and its bit read again;
+    * the lock waits for an uncommitted transaction that has
+    * deleted the record or inserted one into the slot,
+    * just as the SLock on the block would have.
+    * Empty slots are not locked one at a time; instead, the
+    * empty slots of the block are locked together before the
+    * first search, so that no record can be inserted behind the scan.
+    * @return false if there is no such slot
+    */
+   private boolean searchSlots() {
+      if (!emptylocked) {
+         tx.lockEmptySlots(blk);
+         emptylocked = true;
+      }
       currentslot++;
-      while (isValidSlot()) {
-         int position = currentpos();
-         if (tx.getInt(blk, position) == flag)
+      while (currentslot < numslots) {
+         int bit = currentslot % SLOTS_PER_WORD;
+         int wordstart = currentslot - bit;
+         int word = tx.peekFlags(blk, wordpos(currentslot)) & (-1 << bit);
+         if (word == 0) {
+            currentslot = wordstart + SLOTS_PER_WORD;
+            continue;
+         }
+         currentslot = wordstart + Integer.numberOfTrailingZeros(word);
+         if (currentslot >= numslots)
+            return false;
+         int mask = 1 << (currentslot % SLOTS_PER_WORD);
+         if ((tx.getRecordInt(blk, currentslot, wordpos(currentslot)) & mask) != 0)
             return true;
          currentslot++;
       }
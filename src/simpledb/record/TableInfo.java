@@ -6,6 +6,12 @@ import java.util.*;
 
 /**
  * The metadata about a table and its records.
+ * Each field of the table is assigned a dense index,
+ * which can be used to access the field's offset and type
+ * without a map lookup.
+ * Clients that access the same fields repeatedly
+ * (such as scans) should resolve each field name to its
+ * index once, via {@link #fieldIndex(String) fieldIndex}.
  * @author Edward Sciore
  */
 public class TableInfo {
@@ -13,6 +19,10 @@ public class TableInfo {
    private Map<String,Integer> offsets;
    private int recordlen;
    private String tblname;
+   private Map<String,Integer> indexes;
+   private String[] fldnames;
+   private int[] fldoffsets;
+   private int[] fldtypes;
    
    /**
     * Creates a TableInfo object, given a table name
@@ -32,6 +42,7 @@ public class TableInfo {
          pos += lengthInBytes(fldname);
       }
       recordlen = pos;
+      assignIndexes();
    }
    
    /**
@@ -49,6 +60,7 @@ public class TableInfo {
       this.schema    = schema;
       this.offsets   = offsets;
       this.recordlen = recordlen;
+      assignIndexes();
    }
    
    /**
@@ -80,6 +92,54 @@ public class TableInfo {
       return offsets.get(fldname);
    }
    
+   /**
+    * Returns the index of the specified field,
+    * or -1 if the table has no such field.
+    * @param fldname the name of the field
+    * @return the index of the field
+    */
+   public int fieldIndex(String fldname) {
+      Integer idx = indexes.get(fldname);
+      return (idx == null) ? -1 : idx;
+   }
+   
+   /**
+    * Returns the number of fields in a record.
+    * Field indexes range from 0 to this value, exclusive.
+    * @return the number of fields
+    */
+   public int fieldCount() {
+      return fldnames.length;
+   }
+   
+   /**
+    * Returns the name of the field having the specified index.
+    * @param fldidx the index of the field
+    * @return the name of that field
+    */
+   public String fieldName(int fldidx) {
+      return fldnames[fldidx];
+   }
+   
+   /**
+    * Returns the offset of the field having the specified index.
+    * @param fldidx the index of the field
+    * @return the offset of that field within a record
+    */
+   public int offset(int fldidx) {
+      return fldoffsets[fldidx];
+   }
+   
+   /**
+    * Returns the type of the field having the specified index,
+    * using the constants in {@link java.sql.Types}.
+    * @param fldidx the index of the field
+    * @return the integer type of that field
+    */
+   public int type(int fldidx) {
+      return fldtypes[fldidx];
+   }
+   
    /**
     * Returns the length of a record, in bytes.
     * @return the length in bytes of a record
@@ -88,6 +148,27 @@ public class TableInfo {
       return recordlen;
    }
    
+   /**
+    * Assigns each field a dense index, 
+    * and saves the offset and type of each field
+    * in arrays ordered by that index.
+    */
+   private void assignIndexes() {
+      int n = schema.fields().size();
+      indexes    = new HashMap<String,Integer>();
+      fldnames   = new String[n];
+      fldoffsets = new int[n];
+      fldtypes   = new int[n];
+      int i = 0;
+      for (String fldname : schema.fields()) {
+         indexes.put(fldname, i);
+         fldnames[i]   = fldname;
+         fldoffsets[i] = offsets.get(fldname);
+         fldtypes[i]   = schema.type(fldname);
+         i++;
+      }
+   }
+   
    private int lengthInBytes(String fldname) {
       int fldtype = schema.type(fldname);
       if (fldtype == INTEGER)
@@ -0,0 +1,479 @@
+package simpledb.record;
+
+import static java.sql.Types.INTEGER;
+import static simpledb.file.Page.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import simpledb.file.*;
+import simpledb.buffer.PageFormatter;
+import simpledb.server.SimpleDB;
+import simpledb.tx.Transaction;
+
+/**
+ * The zone map of a table.
+ * A zone map is an optional side file that holds,
+ * for each block of the table, the minimum and maximum
+ * value of each field of the records in that block.
+ * A scan uses the zone map to skip the blocks
+ * that cannot contain a record satisfying its conditions.
+ * <P>
+ * Each block of the table has a fixed-size entry in the file,
+ * consisting of a state followed by the min and max of each field.
+ * A string field keeps only a prefix of its min and max values,
+ * which is enough to bound the values of the block.
+ * An entry whose state is unknown never allows its block
+ * to be skipped; this is the state of a newly-formatted entry.
+ * <P>
+ * The entries are not locked.
+ * A transaction modifies an entry under a short-term latch,
+ * and only ever widens its bounds, so that the entry is correct
+ * whichever of the modifying transactions commit; the changes are
+ * logged for recovery to redo, but a rollback leaves them in place.
+ * Writers of the table therefore do not wait on each other
+ * for the zone map, nor do its readers wait on them.
+ * Bounds grow on insert and update, but do not shrink on delete;
+ * a stale bound is still a correct bound.
+ * Re-creating the zone map recomputes every bound.
+ * <P>
+ * Every transaction, including one that reads a snapshot,
+ * reads and widens the current entries.
+ * Since a value is included in its block's bounds before it is
+ * committed, the current bounds cover every value that any
+ * snapshot can see; an entry rebuilt from the records in its block
+ * is the exception (see {@link #create(TableInfo, Transaction)}).
+ * An optimistic transaction treats a block that it skips
+ * as read, so that its validation fails if the block
+ * is modified after its snapshot began.
+ */
+public class ZoneMap {
+   /**
+    * The maximum number of characters kept for
+    * the bounds of a string field.
+    */
+   public static final int MAX_PREFIX = 8;
+
+   private static final int UNKNOWN = 0, EMPTY = 1, RANGE = 2;
+
+   private static final Object[] latches = new Object[16];
+   static {
+      for (int i=0; i<latches.length; i++)
+         latches[i] = new Object();
+   }
+
+   private TableInfo ti;
+   private Transaction tx;
+   private String filename;
+   private int[] minoffsets, widths, prefixes;
+   private int entrysize, entriesperblock;
+   private int zonesize = -1;
+   private List<Condition> conditions = new ArrayList<Condition>();
+
+   /**
+    * Returns the name of the zone map file of the specified table.
+    * @param tblname the name of the table
+    * @return the name of the zone map file
+    */
+   public static String fileName(String tblname) {
+      return tblname + ".zmp";
+   }
+
+   /**
+    * Opens the zone map of the specified table,
+    * or returns null if the table has no zone map.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    * @return the table's zone map, or null
+    */
+   public static ZoneMap open(TableInfo ti, Transaction tx) {
+      if (SimpleDB.fileMgr().exists(fileName(ti.tableName())))
+         return new ZoneMap(ti, tx);
+      else
+         return null;
+   }
+
+   /**
+    * Creates the zone map of the specified table, by
+    * computing the bounds of each existing block.
+    * If the zone map already exists, its bounds are recomputed.
+    * The recomputed bounds cover the current records only,
+    * so a snapshot that began before the creation can miss
+    * records that were deleted since; the zone map should be
+    * created when no such snapshot is reading the table.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    */
+   public static void create(TableInfo ti, Transaction tx) {
+      ZoneMap zm = new ZoneMap(ti, tx);
+      // obtaining the size creates the file, even if the table is empty
+      tx.size(zm.filename);
+      int size = tx.size(ti.fileName());
+      for (int blknum=0; blknum<size; blknum++)
+         zm.rebuild(blknum);
+   }
+
+   /**
+    * Creates a zone map for the specified table.
+    * The layout of an entry is computed from the table's fields.
+    * @param ti the table's metadata
+    * @param tx the calling transaction
+    */
+   private ZoneMap(TableInfo ti, Transaction tx) {
+      this.ti = ti;
+      this.tx = tx;
+      filename = fileName(ti.tableName());
+      int n = ti.fieldCount();
+      minoffsets = new int[n];
+      widths = new int[n];
+      prefixes = new int[n];
+      int pos = INT_SIZE;
+      for (int i=0; i<n; i++) {
+         if (ti.type(i) == INTEGER)
+            widths[i] = INT_SIZE;
+         else {
+            prefixes[i] = Math.min(ti.schema().length(ti.fieldName(i)), MAX_PREFIX);
+            widths[i] = STR_SIZE(prefixes[i]);
+         }
+         minoffsets[i] = pos;
+         pos += 2 * widths[i];
+      }
+      entrysize = pos;
+      if (entrysize > BLOCK_SIZE)
+         throw new RuntimeException("table " + ti.tableName() + " has too many fields for a zone map");
+      entriesperblock = BLOCK_SIZE / entrysize;
+   }
+
+   /**
+    * Restricts the blocks that can match, to those that may
+    * contain a value of the specified field that compares
+    * with the specified value in one of the allowed ways.
+    * For example, the condition "fld > 10" allows
+    * a greater result only, and "fld != 10" allows
+    * a lesser or greater result.
+    * A value whose type differs from the field is ignored.
+    * @param fldidx the index of the field
+    * @param val the Integer or String value to compare with
+    * @param lt true if a field value less than val satisfies the condition
+    * @param eq true if a field value equal to val satisfies the condition
+    * @param gt true if a field value greater than val satisfies the condition
+    */
+   public void addCondition(int fldidx, Object val, boolean lt, boolean eq, boolean gt) {
+      boolean isint = (ti.type(fldidx) == INTEGER);
+      if (isint ? !(val instanceof Integer) : !(val instanceof String))
+         return;
+      conditions.add(new Condition(fldidx, val, lt, eq, gt));
+   }
+
+   /**
+    * Returns true if the specified block may contain a
+    * record satisfying each condition of the zone map.
+    * An empty block never matches.
+    * The block's entry is read as it currently is.
+    * @param blknum the number of a block of the table
+    * @return false if the block can be skipped
+    */
+   public boolean mightMatch(int blknum) {
+      Block zblk = entryBlock(blknum);
+      if (zblk.number() >= zonesize) {
+         zonesize = tx.size(filename);
+         if (zblk.number() >= zonesize)
+            return true;
+      }
+      tx.pin(zblk);
+      Page entry = readEntry(zblk, entryPos(blknum));
+      tx.unpin(zblk);
+      int state = entry.getInt(0);
+      boolean result = (state != EMPTY);
+      if (state == RANGE)
+         for (Condition c : conditions)
+         if (!c.mightMatch(entry)) {
+         result = false;
+         break;
+      }
+      return result;
+   }
+
+   /**
+    * Records that the specified block is empty,
+    * when it has just been appended to the table.
+    * The block's bitmap is checked under the latch, since
+    * another transaction may already have inserted a record
+    * into the block, and its entry may not yet show it.
+    * @param blknum the number of the block
+    */
+   void clear(int blknum) {
+      RecordPage rp = new RecordPage(new Block(ti.fileName(), blknum), ti, tx);
+      Block zblk = prepare(blknum);
+      int pos = entryPos(blknum);
+      synchronized (latch(zblk)) {
+         byte[] before = tx.peekBytes(zblk, pos, entrysize);
+         Page entry = new Page(ByteBuffer.wrap(before.clone()));
+         if (rp.isEmpty()) {
+            entry.setInt(0, EMPTY);
+            writeEntry(zblk, pos, before, entry);
+         }
+      }
+      tx.unpin(zblk);
+      rp.close();
+   }
+
+   /**
+    * Widens the bounds of the specified block to include
+    * the values of the current record of the record page.
+    * This method is called after a record is inserted;
+    * the values are those that the slot held before the insertion.
+    * @param blknum the number of the block
+    * @param rp the record page, positioned at the new record
+    */
+   void insert(int blknum, RecordPage rp) {
+      Object[] vals = values(rp);
+      Block zblk = prepare(blknum);
+      int pos = entryPos(blknum);
+      synchronized (latch(zblk)) {
+         byte[] before = tx.peekBytes(zblk, pos, entrysize);
+         Page entry = new Page(ByteBuffer.wrap(before.clone()));
+         int state = entry.getInt(0);
+         if (state != UNKNOWN) {
+            include(entry, vals, state == EMPTY);
+            entry.setInt(0, RANGE);
+            writeEntry(zblk, pos, before, entry);
+         }
+      }
+      tx.unpin(zblk);
+   }
+
+   /**
+    * Widens the bounds of the specified field, to include
+    * the integer value just stored in the block.
+    * @param blknum the number of the block
+    * @param fldidx the index of the field
+    * @param val the stored value
+    */
+   void setInt(int blknum, int fldidx, int val) {
+      Block zblk = prepare(blknum);
+      int pos = entryPos(blknum);
+      synchronized (latch(zblk)) {
+         byte[] before = tx.peekBytes(zblk, pos, entrysize);
+         Page entry = new Page(ByteBuffer.wrap(before.clone()));
+         if (entry.getInt(0) == RANGE) {
+            includeInt(entry, fldidx, val, false);
+            writeEntry(zblk, pos, before, entry);
+         }
+      }
+      tx.unpin(zblk);
+   }
+
+   /**
+    * Widens the bounds of the specified field, to include
+    * the string value just stored in the block.
+    * @param blknum the number of the block
+    * @param fldidx the index of the field
+    * @param val the stored value
+    */
+   void setString(int blknum, int fldidx, String val) {
+      Block zblk = prepare(blknum);
+      int pos = entryPos(blknum);
+      synchronized (latch(zblk)) {
+         byte[] before = tx.peekBytes(zblk, pos, entrysize);
+         Page entry = new Page(ByteBuffer.wrap(before.clone()));
+         if (entry.getInt(0) == RANGE) {
+            includeString(entry, fldidx, val, false);
+            writeEntry(zblk, pos, before, entry);
+         }
+      }
+      tx.unpin(zblk);
+   }
+
+   /**
+    * Recomputes the bounds of the specified block from its records.
+    * This is the one modification that can narrow the bounds;
+    * it happens when the zone map is created, and when
+    * the bulk loader fills a block that it just appended.
+    * The records are read under the transaction's locks, which
+    * keep other transactions from modifying the block until it
+    * completes, and the new entry is then written at once.
+    * @param blknum the number of the block
+    */
+   void rebuild(int blknum) {
+      RecordPage rp = new RecordPage(new Block(ti.fileName(), blknum), ti, tx);
+      Page entry = new Page(ByteBuffer.wrap(new byte[entrysize]));
+      boolean empty = true;
+      while (rp.next()) {
+         include(entry, values(rp), empty);
+         empty = false;
+      }
+      rp.close();
+      entry.setInt(0, empty ? EMPTY : RANGE);
+      Block zblk = prepare(blknum);
+      int pos = entryPos(blknum);
+      synchronized (latch(zblk)) {
+         writeEntry(zblk, pos, tx.peekBytes(zblk, pos, entrysize), entry);
+      }
+      tx.unpin(zblk);
+   }
+
+   private Block entryBlock(int blknum) {
+      return new Block(filename, blknum / entriesperblock);
+   }
+
+   private int entryPos(int blknum) {
+      return (blknum % entriesperblock) * entrysize;
+   }
+
+   /**
+    * Appends zone map blocks as needed to hold the entry
+    * of the specified block, and pins that entry's block.
+    * The caller is responsible for unpinning the block.
+    */
+   private Block prepare(int blknum) {
+      Block zblk = entryBlock(blknum);
+      tx.extend(filename, zblk.number()+1, new ZoneFormatter());
+      tx.pin(zblk);
+      return zblk;
+   }
+
+   /**
+    * Returns the latch that serializes the modifications
+    * of the entries in the specified zone map block.
+    * It is held only while an entry is read and rewritten.
+    */
+   private static Object latch(Block zblk) {
+      int h = zblk.hashCode() & Integer.MAX_VALUE;
+      return latches[h % latches.length];
+   }
+
+   /**
+    * Returns a copy of the current entry at the specified
+    * position of the pinned zone map block, read without locking.
+    */
+   private Page readEntry(Block zblk, int pos) {
+      return new Page(ByteBuffer.wrap(tx.peekBytes(zblk, pos, entrysize)));
+   }
+
+   /**
+    * Writes the bytes of the modified entry that differ from
+    * its previous contents, as a single range.
+    * The caller holds the latch of the zone map block.
+    */
+   private void writeEntry(Block zblk, int pos, byte[] before, Page entry) {
+      byte[] after = entry.getBytes(0, entrysize);
+      int start = 0, end = entrysize;
+      while (start < end && before[start] == after[start])
+         start++;
+      while (end > start && before[end-1] == after[end-1])
+         end--;
+      if (start < end)
+         tx.setBytesRedoOnly(zblk, pos + start, Arrays.copyOfRange(after, start, end));
+   }
+
+   /**
+    * Returns the values of the current record of the record page,
+    * which are read before the latch is taken.
+    */
+   private Object[] values(RecordPage rp) {
+      Object[] vals = new Object[ti.fieldCount()];
+      for (int i=0; i<vals.length; i++) {
+         if (ti.type(i) == INTEGER)
+            vals[i] = rp.getInt(i);
+         else
+            vals[i] = rp.getString(i);
+      }
+      return vals;
+   }
+
+   private void include(Page entry, Object[] vals, boolean reset) {
+      for (int i=0; i<vals.length; i++) {
+         if (ti.type(i) == INTEGER)
+            includeInt(entry, i, (Integer) vals[i], reset);
+         else
+            includeString(entry, i, (String) vals[i], reset);
+      }
+   }
+
+   private void includeInt(Page entry, int fldidx, int val, boolean reset) {
+      int minpos = minoffsets[fldidx];
+      int maxpos = minpos + widths[fldidx];
+      if (reset || val < entry.getInt(minpos))
+         entry.setInt(minpos, val);
+      if (reset || val > entry.getInt(maxpos))
+         entry.setInt(maxpos, val);
+   }
+
+   private void includeString(Page entry, int fldidx, String val, boolean reset) {
+      int minpos = minoffsets[fldidx];
+      int maxpos = minpos + widths[fldidx];
+      val = prefix(fldidx, val);
+      if (reset || val.compareTo(entry.getString(minpos)) < 0)
+         entry.setString(minpos, val);
+      if (reset || val.compareTo(entry.getString(maxpos)) > 0)
+         entry.setString(maxpos, val);
+   }
+
+   private String prefix(int fldidx, String val) {
+      if (val.length() > prefixes[fldidx])
+         return val.substring(0, prefixes[fldidx]);
+      return val;
+   }
+
+   /**
+    * A condition on the values of a field.
+    * If the bounds of a string field are prefixes, then
+    * the condition's value is also reduced to a prefix and
+    * the comparison with the bounds is relaxed: since taking
+    * a prefix preserves order, a value below the min
+    * (or above the max) has a prefix no greater (or no less)
+    * than the prefix of that bound.
+    */
+   private class Condition {
+      private int fldidx;
+      private Object val;
+      private boolean lt, eq, gt;
+      private boolean exact;
+
+      Condition(int fldidx, Object val, boolean lt, boolean eq, boolean gt) {
+         this.fldidx = fldidx;
+         this.lt = lt;
+         this.eq = eq;
+         this.gt = gt;
+         if (val instanceof String) {
+            String fldname = ti.fieldName(fldidx);
+            exact = (prefixes[fldidx] == ti.schema().length(fldname));
+            this.val = prefix(fldidx, (String) val);
+         }
+         else {
+            exact = true;
+            this.val = val;
+         }
+      }
+
+      boolean mightMatch(Page entry) {
+         int minpos = minoffsets[fldidx];
+         int maxpos = minpos + widths[fldidx];
+         int lo, hi;
+         if (val instanceof Integer) {
+            int ival = (Integer) val;
+            lo = Integer.compare(entry.getInt(minpos), ival);
+            hi = Integer.compare(entry.getInt(maxpos), ival);
+         }
+         else {
+            String sval = (String) val;
+            lo = entry.getString(minpos).compareTo(sval);
+            hi = entry.getString(maxpos).compareTo(sval);
+         }
+         if (exact)
+            return (lt && lo < 0) || (eq && lo <= 0 && hi >= 0) || (gt && hi > 0);
+         else
+            return (lt && lo <= 0) || (eq && lo <= 0 && hi >= 0) || (gt && hi >= 0);
+      }
+   }
+
+   /**
+    * Formats a zone map page, by setting the state
+    * of each entry to unknown.
+    */
+   private static class ZoneFormatter implements PageFormatter {
+      public void format(Page page) {
+         for (int pos=0; pos+INT_SIZE<=BLOCK_SIZE; pos+=INT_SIZE)
+            page.setInt(pos, 0);
+      }
+   }
+}
@@ -11,5 +11,9 @@ import java.rmi.*;
 public interface RemoteConnection extends Remote {
    public RemoteStatement createStatement() throws RemoteException;
    public void close() throws RemoteException;
+   public void setAsyncCommit(boolean async) throws RemoteException;
+   public void setReadOnly(boolean readonly) throws RemoteException;
+   public boolean isReadOnly() throws RemoteException;
+   public void setOptimistic(boolean optimistic) throws RemoteException;
 }
 
@@ -11,6 +11,9 @@ import java.rmi.server.UnicastRemoteObject;
 @SuppressWarnings("serial") 
 class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnection {
    private Transaction tx;
+   private boolean async = false;
+   private boolean readonly = false;
+   private boolean optimistic = false;
    
    /**
     * Creates a remote connection
@@ -29,6 +32,56 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
       return new RemoteStatementImpl(this);
    }
    
+   /**
+    * Sets whether the transactions of this connection
+    * commit asynchronously, starting with the current one.
+    * @see simpledb.tx.Transaction#setAsyncCommit(boolean)
+    * @see simpledb.remote.RemoteConnection#setAsyncCommit(boolean)
+    */
+   public void setAsyncCommit(boolean async) throws RemoteException {
+      this.async = async;
+      tx.setAsyncCommit(async);
+   }
+   
+   /**
+    * Sets whether the transactions of this connection are read-only.
+    * A read-only transaction reads a snapshot of the database,
+    * and so takes no locks; like any transaction that modifies
+    * nothing, it writes nothing to the log.
+    * The current transaction is committed, and the
+    * new mode applies from the next one.
+    * @see simpledb.tx.Transaction#beginSnapshot()
+    * @see simpledb.remote.RemoteConnection#setReadOnly(boolean)
+    */
+   public void setReadOnly(boolean readonly) throws RemoteException {
+      if (this.readonly == readonly)
+         return;
+      this.readonly = readonly;
+      commit();
+   }
+   
+   /**
+    * Returns true if the transactions of this connection are read-only.
+    * @see simpledb.remote.RemoteConnection#isReadOnly()
+    */
+   public boolean isReadOnly() throws RemoteException {
+      return readonly;
+   }
+   
+   /**
+    * Sets whether the transactions of this connection are optimistic.
+    * The current transaction is committed, and the
+    * new mode applies from the next one.
+    * @see simpledb.tx.Transaction#beginOptimistic()
+    * @see simpledb.remote.RemoteConnection#setOptimistic(boolean)
+    */
+   public void setOptimistic(boolean optimistic) throws RemoteException {
+      if (this.optimistic == optimistic)
+         return;
+      this.optimistic = optimistic;
+      commit();
+   }
+   
    /**
     * Closes the connection.
     * The current transaction is committed.
@@ -55,7 +108,7 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     */
    void commit() {
       tx.commit();
-      tx = new Transaction();
+      beginTransaction();
    }
    
    /**
@@ -64,7 +117,16 @@ class RemoteConnectionImpl extends UnicastRemoteObject implements RemoteConnecti
     */
    void rollback() {
       tx.rollback();
+      beginTransaction();
+   }
+   
+   private void beginTransaction() {
       tx = new Transaction();
+      tx.setAsyncCommit(async);
+      if (readonly)
+         tx.beginSnapshot();
+      else if (optimistic)
+         tx.beginOptimistic();
    }
 }
 
@@ -1,6 +1,7 @@
 package simpledb.remote;
 
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.ValidationAbortException;
 import simpledb.query.Plan;
 import simpledb.server.SimpleDB;
 import java.rmi.RemoteException;
@@ -12,6 +13,7 @@ import java.rmi.server.UnicastRemoteObject;
  */
 @SuppressWarnings("serial")
 class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement {
+   private static final int MAX_ATTEMPTS = 3;
    private RemoteConnectionImpl rconn;
    
    public RemoteStatementImpl(RemoteConnectionImpl rconn) throws RemoteException {
@@ -41,18 +43,28 @@ class RemoteStatementImpl extends UnicastRemoteObject implements RemoteStatement
     * Executes the specified SQL update command.
     * The method sends the command to the update planner,
     * which executes it.
+    * The transaction commits right after the command, so if
+    * it is optimistic and fails validation, the command is
+    * executed again in a new transaction, up to MAX_ATTEMPTS times.
     * @see simpledb.remote.RemoteStatement#executeUpdate(java.lang.String)
     */
    public int executeUpdate(String cmd) throws RemoteException {
-      try {
-         Transaction tx = rconn.getTransaction();
-         int result = SimpleDB.planner().executeUpdate(cmd, tx);
-         rconn.commit();
-         return result;
-      }
-      catch(RuntimeException e) {
-         rconn.rollback();
-         throw e;
+      for (int attempt=1; ; attempt++) {
+         try {
+            Transaction tx = rconn.getTransaction();
+            int result = SimpleDB.planner().executeUpdate(cmd, tx);
+            rconn.commit();
+            return result;
+         }
+         catch(ValidationAbortException e) {
+            rconn.rollback();
+            if (attempt == MAX_ATTEMPTS)
+               throw e;
+         }
+         catch(RuntimeException e) {
+            rconn.rollback();
+            throw e;
+         }
       }
    }
 }
@@ -25,6 +25,66 @@ public class SimpleConnection extends ConnectionAdapter {
       }
    }
    
+   /**
+    * Sets whether the transactions of this connection commit
+    * asynchronously, trading the durability of the most recent
+    * commits for commit latency.
+    * This method is specific to SimpleDB.
+    * @param async true if commits should not wait for the log flush
+    * @throws SQLException if the server cannot be reached
+    */
+   public void setAsyncCommit(boolean async) throws SQLException {
+      try {
+         rconn.setAsyncCommit(async);
+      }
+      catch(Exception e) {
+         throw new SQLException(e);
+      }
+   }
+   
+   /**
+    * Sets whether the transactions of this connection are read-only.
+    * A read-only transaction reads a snapshot of the database
+    * without locking, and writes nothing to the log.
+    * The current transaction is committed.
+    * @param readOnly true if the transactions are read-only
+    * @throws SQLException if the server cannot be reached
+    */
+   public void setReadOnly(boolean readOnly) throws SQLException {
+      try {
+         rconn.setReadOnly(readOnly);
+      }
+      catch(Exception e) {
+         throw new SQLException(e);
+      }
+   }
+   
+   public boolean isReadOnly() throws SQLException {
+      try {
+         return rconn.isReadOnly();
+      }
+      catch(Exception e) {
+         throw new SQLException(e);
+      }
+   }
+   
+   /**
+    * Sets whether the transactions of this connection are optimistic:
+    * they read without locking, and are validated when they commit.
+    * An update statement that fails validation is retried.
+    * This method is specific to SimpleDB.
+    * @param optimistic true if the transactions are optimistic
+    * @throws SQLException if the server cannot be reached
+    */
+   public void setOptimistic(boolean optimistic) throws SQLException {
+      try {
+         rconn.setOptimistic(optimistic);
+      }
+      catch(Exception e) {
+         throw new SQLException(e);
+      }
+   }
+   
    public void close() throws SQLException {
       try {
          rconn.close();
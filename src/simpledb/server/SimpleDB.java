@@ -14,7 +14,10 @@ import simpledb.planner.BasicUpdatePlanner;
 import simpledb.planner.Planner;
 import simpledb.planner.QueryPlanner;
 import simpledb.planner.UpdatePlanner;
+import simpledb.record.RecordPage;
 import simpledb.tx.Transaction;
+import simpledb.tx.concurrency.LockMonitor;
+import simpledb.tx.recovery.RecoveryMgr;
 
 /**
  * The class that provides system-wide static global values. These values must
@@ -30,6 +33,59 @@ import simpledb.tx.Transaction;
 public class SimpleDB {
 	public static int BUFFER_SIZE = 8;
 
+	/**
+	 * The number of milliseconds that a committing transaction waits for
+	 * other transactions to join its log flush. Zero means that the flush
+	 * begins immediately; transactions that commit while it is in progress
+	 * are still flushed together by the next one.
+	 */
+	public static int LOG_GROUP_WINDOW = 0;
+
+	/**
+	 * The number of pages in the log manager's in-memory ring buffer.
+	 */
+	public static int LOG_BUFFER_PAGES = 8;
+
+	/**
+	 * The number of blocks in each segment file of the log. Segments that
+	 * precede the oldest LSN needed by recovery are deleted at checkpoints.
+	 */
+	public static int LOG_SEGMENT_BLOCKS = 256;
+
+	/**
+	 * The number of milliseconds between periodic checkpoints. Zero
+	 * disables periodic checkpoints.
+	 */
+	public static int CHECKPOINT_INTERVAL = 60000;
+
+	/**
+	 * The number of worker threads that redo and undo pages during recovery.
+	 * Zero means one thread per available processor.
+	 */
+	public static int RECOVERY_THREADS = 0;
+
+	/**
+	 * The largest number of milliseconds that the commit record of an
+	 * asynchronously-committed transaction stays in the log buffer before
+	 * being flushed. It bounds the commits that a crash can lose.
+	 */
+	public static int ASYNC_COMMIT_DELAY = 200;
+
+	/**
+	 * The largest number of milliseconds that a transaction waits for a
+	 * lock before aborting. Deadlocks are detected when they form, so this
+	 * only bounds waits behind long-running transactions.
+	 */
+	public static int LOCK_TIMEOUT = 120000;
+
+	/**
+	 * The number of block and record locks that a transaction can hold
+	 * in one file before its locks there are escalated: to a single lock
+	 * on the file if it has only read the file, and otherwise to
+	 * locks on the blocks in which it holds record locks.
+	 */
+	public static int LOCK_ESCALATION_THRESHOLD = 1000;
+
 	public static String LOG_FILE = "simpledb.log";
 	public static String CS4431_BASIC_LOG = "cs4432_basic.log";
 	public static String CS4431_LRU_LOG = "cs4432_lru.log";
@@ -89,6 +145,8 @@ public class SimpleDB {
 		}
 		initMetadataMgr(isnew, tx);
 		tx.commit();
+		RecoveryMgr.startCheckpointer();
+		LockMonitor.register();
 	}
 
 	/**
@@ -151,13 +209,16 @@ public class SimpleDB {
 	}
 
 	/**
-	 * Initializes only the file manager.
+	 * Initializes only the file manager, and checks that the layout of the
+	 * database's record pages is the one that this version of SimpleDB
+	 * reads.
 	 *
 	 * @param dirname
 	 *            the name of the database directory
 	 */
 	public static void initFileMgr(String dirname) {
 		fm = new FileMgr(dirname);
+		fm.checkFormat(FileMgr.RECORD_FORMAT, RecordPage.FORMAT_VERSION, "record page");
 	}
 
 	/**
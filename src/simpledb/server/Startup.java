@@ -20,6 +20,9 @@ public class Startup {
 		 *
 		 * No arguments : triggers the basic buffer manager
 		 *
+		 * -groupwindow=N : committing transactions wait N milliseconds for
+		 * others to join their log flush
+		 *
 		 * @author Lambert Wang
 		 */
 		int bufferManager = 0;
@@ -39,6 +42,9 @@ public class Startup {
 			else if (s.equals("-fifo")) {
 				bufferManager = 5;
 			}
+			else if (s.startsWith("-groupwindow=")) {
+				SimpleDB.LOG_GROUP_WINDOW = Integer.parseInt(s.substring("-groupwindow=".length()));
+			}
 		}
 
 
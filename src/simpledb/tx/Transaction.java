@@ -1,10 +1,13 @@
 package simpledb.tx;
 
+import static simpledb.file.Page.*;
 import simpledb.server.SimpleDB;
 import simpledb.file.Block;
 import simpledb.buffer.*;
 import simpledb.tx.recovery.RecoveryMgr;
 import simpledb.tx.concurrency.ConcurrencyMgr;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Provides transaction management for clients,
@@ -14,7 +17,11 @@ import simpledb.tx.concurrency.ConcurrencyMgr;
  */
 public class Transaction {
    private static int nextTxNum = 0;
-   private static final int END_OF_FILE = -1;
+   private static final Object[] extensionLatches = new Object[16];
+   static {
+      for (int i=0; i<extensionLatches.length; i++)
+         extensionLatches[i] = new Object();
+   }
    private RecoveryMgr    recoveryMgr;
    private ConcurrencyMgr concurMgr;
    private int txnum;
@@ -35,20 +42,71 @@ public class Transaction {
    public Transaction() {
       txnum       = nextTxNumber();
       recoveryMgr = new RecoveryMgr(txnum);
-      concurMgr   = new ConcurrencyMgr();
+      concurMgr   = new ConcurrencyMgr(txnum);
+   }
+   
+   /**
+    * Sets whether the transaction commits asynchronously.
+    * An asynchronous commit returns as soon as the commit record
+    * is in the log buffer, without waiting for it to be on disk;
+    * the log is flushed in the background within
+    * {@link simpledb.server.SimpleDB#ASYNC_COMMIT_DELAY} milliseconds.
+    * A crash in the meantime can lose the transaction, 
+    * in which case recovery rolls it back completely.
+    * @param async true if the transaction should commit asynchronously
+    */
+   public void setAsyncCommit(boolean async) {
+      recoveryMgr.setAsyncCommit(async);
+   }
+   
+   /**
+    * Makes this a read-only transaction that reads a snapshot
+    * of the database as of this moment.
+    * The transaction sees the changes of every transaction
+    * that completed before now, and of no other.
+    * It takes no locks, and so it neither waits for
+    * writers nor delays them.
+    * Only temporary tables can be modified by the transaction.
+    */
+   public void beginSnapshot() {
+      concurMgr.beginSnapshot();
+   }
+   
+   /**
+    * Makes this an optimistic transaction.
+    * The transaction reads a snapshot of the database as of 
+    * this moment, without locking; it sees its own modifications,
+    * which it makes under locks as usual.
+    * When it commits, the transaction checks that no other
+    * transaction has since modified what it read.
+    * An optimistic transaction suits a workload in which
+    * transactions rarely access the same records, since
+    * it does not pay for read locks.
+    */
+   public void beginOptimistic() {
+      concurMgr.beginOptimistic();
    }
    
    /**
     * Commits the current transaction.
-    * Flushes all modified buffers (and their log records),
-    * writes and flushes a commit record to the log,
+    * Writes and flushes a commit record to the log
+    * (unless the transaction commits asynchronously),
     * releases all locks, and unpins any pinned buffers.
+    * A transaction that modified nothing, such as a 
+    * snapshot transaction, writes nothing to the log
+    * and does not wait for it.
+    * An optimistic transaction is first validated; if validation
+    * fails, the transaction stays active, and the client must
+    * roll it back (and may then retry it).
+    * @throws simpledb.tx.concurrency.ValidationAbortException
+    * if an optimistic transaction fails validation
     */
    public void commit() {
+      concurMgr.validate();
       recoveryMgr.commit();
       concurMgr.release();
       myBuffers.unpinAll();
-      System.out.println("transaction " + txnum + " committed");
+      trace("transaction " + txnum + " committed");
    }
    
    /**
@@ -62,7 +120,7 @@ public class Transaction {
       recoveryMgr.rollback();
       concurMgr.release();
       myBuffers.unpinAll();
-      System.out.println("transaction " + txnum + " rolled back");
+      trace("transaction " + txnum + " rolled back");
    }
    
    /**
@@ -102,13 +160,17 @@ public class Transaction {
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
     * then it calls the buffer to retrieve the value.
+    * A snapshot transaction instead reads the value
+    * from its snapshot, without a lock.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the integer stored at that offset
     */
    public int getInt(Block blk, int offset) {
-      concurMgr.sLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
+      if (readsSnapshot(blk.fileName()))
+         return concurMgr.snapshotInt(buff, offset);
+      concurMgr.sLock(blk);
       return buff.getInt(offset);
    }
    
@@ -117,90 +179,582 @@ public class Transaction {
     * specified offset of the specified block.
     * The method first obtains an SLock on the block,
     * then it calls the buffer to retrieve the value.
+    * A snapshot transaction instead reads the value
+    * from its snapshot, without a lock.
     * @param blk a reference to a disk block
     * @param offset the byte offset within the block
     * @return the string stored at that offset
     */
    public String getString(Block blk, int offset) {
-      concurMgr.sLock(blk);
       Buffer buff = myBuffers.getBuffer(blk);
+      if (readsSnapshot(blk.fileName()))
+         return concurMgr.snapshotString(buff, offset);
+      concurMgr.sLock(blk);
       return buff.getString(offset);
    }
    
+   /**
+    * Returns a copy of the specified bytes
+    * of the specified block.
+    * The method first obtains an SLock on the block,
+    * so the bytes are copied at a single moment.
+    * A client that reads many values of a block calls this
+    * method once, instead of locking for each value.
+    * A snapshot transaction instead copies the bytes
+    * from its snapshot, without a lock.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param length the number of bytes
+    * @return the bytes in that range
+    */
+   public byte[] getBytes(Block blk, int offset, int length) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      if (readsSnapshot(blk.fileName()))
+         return concurMgr.snapshotBytes(buff, offset, length);
+      concurMgr.sLock(blk);
+      return buff.getBytes(offset, length);
+   }
+   
    /**
     * Stores an integer at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
-    * It then reads the current value at that offset,
-    * puts it into an update log record, and 
-    * writes that record to the log.
+    * The method first obtains an XLock on the block,
+    * and saves the block's version if necessary.
+    * It then tells the recovery manager, which logs
+    * the transaction's modifications of the page together
+    * when the transaction moves on to another page or completes.
     * Finally, it calls the buffer to store the value,
-    * passing in the LSN of the log record and the transaction's id. 
+    * passing in the transaction's id. 
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setInt(Block blk, int offset, int val) {
-      concurMgr.xLock(blk);
-      Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setInt(buff, offset, val);
-      buff.setInt(offset, val, txnum, lsn);
+      Buffer buff = lockForWrite(blk);
+      writeInt(buff, offset, val);
    }
    
    /**
     * Stores a string at the specified offset 
     * of the specified block.
-    * The method first obtains an XLock on the block.
-    * It then reads the current value at that offset,
-    * puts it into an update log record, and 
-    * writes that record to the log.
+    * The method first obtains an XLock on the block,
+    * and saves the block's version if necessary.
+    * It then tells the recovery manager, which logs
+    * the transaction's modifications of the page together
+    * when the transaction moves on to another page or completes.
     * Finally, it calls the buffer to store the value,
-    * passing in the LSN of the log record and the transaction's id. 
+    * passing in the transaction's id. 
     * @param blk a reference to the disk block
     * @param offset a byte offset within that block
     * @param val the value to be stored
     */
    public void setString(Block blk, int offset, String val) {
-      concurMgr.xLock(blk);
+      Buffer buff = lockForWrite(blk);
+      writeString(buff, offset, val);
+   }
+   
+   /**
+    * Returns the integer value stored at the
+    * specified offset of the specified record.
+    * The method obtains an SLock on the record, instead
+    * of the whole block, so that other transactions can
+    * modify the other records of the block.
+    * @param blk a reference to a disk block
+    * @param slot the slot of the record in the block
+    * @param offset the byte offset within the block
+    * @return the integer stored at that offset
+    */
+   public int getRecordInt(Block blk, int slot, int offset) {
       Buffer buff = myBuffers.getBuffer(blk);
-      int lsn = recoveryMgr.setString(buff, offset, val);
-      buff.setString(offset, val, txnum, lsn);
+      if (readsSnapshot(blk.fileName()))
+         return concurMgr.snapshotInt(buff, offset);
+      concurMgr.sLockRecord(blk, slot);
+      return buff.getInt(offset);
+   }
+   
+   /**
+    * Returns the string value stored at the
+    * specified offset of the specified record.
+    * The method obtains an SLock on the record.
+    * @param blk a reference to a disk block
+    * @param slot the slot of the record in the block
+    * @param offset the byte offset within the block
+    * @return the string stored at that offset
+    * @see #getRecordInt(Block, int, int)
+    */
+   public String getRecordString(Block blk, int slot, int offset) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      if (readsSnapshot(blk.fileName()))
+         return concurMgr.snapshotString(buff, offset);
+      concurMgr.sLockRecord(blk, slot);
+      return buff.getString(offset);
+   }
+   
+   /**
+    * Stores an integer at the specified offset 
+    * of the specified record.
+    * The method obtains an XLock on the record, instead of the
+    * whole block; the buffer's latch keeps the page consistent
+    * while other transactions modify its other records.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    */
+   public void setRecordInt(Block blk, int slot, int offset, int val) {
+      writeInt(lockRecordForWrite(blk, slot), offset, val);
+   }
+   
+   /**
+    * Stores a string at the specified offset 
+    * of the specified record.
+    * The method obtains an XLock on the record.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    * @param offset a byte offset within that block
+    * @param val the value to be stored
+    * @see #setRecordInt(Block, int, int, int)
+    */
+   public void setRecordString(Block blk, int slot, int offset, String val) {
+      writeString(lockRecordForWrite(blk, slot), offset, val);
+   }
+   
+   /**
+    * Sets or clears the specified bit of the integer at the specified
+    * offset, which is the occupancy flag of the specified record.
+    * The method obtains an XLock on the record.
+    * It then latches the buffer, and changes the bit unless it already
+    * has the desired value; the other bits of the integer belong to
+    * records that other transactions may be modifying.
+    * The change is logged right away.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    * @param offset a byte offset within that block
+    * @param mask the bit to be modified
+    * @param on true if the bit is to be set, false if cleared
+    * @return false if the bit already had the desired value
+    */
+   public boolean setRecordFlag(Block blk, int slot, int offset, int mask, boolean on) {
+      Buffer buff = lockRecordForWrite(blk, slot);
+      synchronized (buff) {
+         if (((buff.getInt(offset) & mask) != 0) == on)
+            return false;
+         if (savesVersions(blk.fileName()))
+            concurMgr.saveVersionBits(buff, offset, mask);
+         long lsn = recoveryMgr.setBits(buff, offset, mask, on);
+         buff.setBits(offset, mask, on, txnum, lsn);
+      }
+      return true;
+   }
+   
+   /**
+    * Returns the integer value stored at the
+    * specified offset of the specified block, without locking.
+    * A client uses this method to look for a record that it then
+    * locks, and must check the value again once it holds the lock.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the integer stored at that offset
+    */
+   public int peekInt(Block blk, int offset) {
+      Buffer buff = myBuffers.getBuffer(blk);
+      if (concurMgr.isSnapshot() && !isTempFile(blk.fileName()))
+         return concurMgr.snapshotInt(buff, offset);
+      return buff.getInt(offset);
+   }
+   
+   /**
+    * Returns the flags stored in the integer at the specified
+    * offset of the specified block, without locking, together with
+    * the flags that other uncommitted transactions have modified.
+    * That is, a bit of the result is set if the flag is set,
+    * or if its value may yet change.
+    * A client that searches for set flags and locks each one it finds
+    * uses this method, so that it also locks the flags that an
+    * uncommitted transaction has cleared; the lock then waits
+    * for that transaction to complete.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @return the flags, and those that may change
+    */
+   public int peekFlags(Block blk, int offset) {
+      return concurMgr.peekFlags(myBuffers.getBuffer(blk), offset);
+   }
+   
+   /**
+    * Returns a copy of the specified bytes of the
+    * specified block, without locking.
+    * The bytes are copied at a single moment, and are the
+    * current bytes of the block, even for a transaction
+    * that reads a snapshot.
+    * A client uses this method to read the data that it modifies
+    * with {@link #setBytesRedoOnly(Block, int, byte[])}, whose
+    * current value is correct for every transaction.
+    * @param blk a reference to a disk block
+    * @param offset the byte offset within the block
+    * @param length the number of bytes
+    * @return the bytes in that range
+    */
+   public byte[] peekBytes(Block blk, int offset, int length) {
+      return myBuffers.getBuffer(blk).getBytes(offset, length);
+   }
+   
+   /**
+    * Records that the client skipped the specified block
+    * without reading it, because data kept elsewhere (such as
+    * a zone map) showed that the block holds nothing of interest.
+    * An optimistic transaction treats the whole block as read,
+    * so that it fails validation if another transaction
+    * modifies the block after its snapshot began.
+    * A transaction that scans the file under record locks
+    * locks the whole block in mode S, so that no other
+    * transaction can insert into it a record of interest.
+    * @param blk a reference to the skipped block
+    */
+   public void noteSkipped(Block blk) {
+      if (concurMgr.isOptimistic() && !isTempFile(blk.fileName()))
+         concurMgr.noteBlockRead(blk);
+      else if (scansRecords(blk.fileName()))
+         concurMgr.sLock(blk);
+   }
+   
+   /**
+    * Obtains an SLock on the empty slots of the specified block,
+    * if the transaction scans the block's file under record locks.
+    * A client calls this method before it searches the block
+    * for records, so that no other transaction can insert
+    * a record into the block (that is, create a phantom)
+    * until this transaction completes.
+    * Other transactions take no lock, since their lock on
+    * the file or the block already keeps inserters out.
+    * @param blk a reference to the disk block
+    * @see #scansRecords(String)
+    */
+   public void lockEmptySlots(Block blk) {
+      if (scansRecords(blk.fileName()))
+         concurMgr.sLockEmptySlots(blk);
+   }
+   
+   /**
+    * Obtains an IX lock on the empty slots of the specified block,
+    * before the client inserts a record into one of them.
+    * The transaction waits for the transactions that have
+    * locked the empty slots in order to scan the block,
+    * but not for the other transactions inserting into it.
+    * @param blk a reference to the disk block
+    */
+   public void lockForInsert(Block blk) {
+      checkWritable(blk.fileName());
+      if (!concurMgr.isSnapshot() && !isTempFile(blk.fileName()))
+         concurMgr.ixLockEmptySlots(blk);
+   }
+   
+   /**
+    * Obtains an SLock on the end of the specified file,
+    * if the transaction scans the file under record locks.
+    * A client calls this method when its scan reaches the
+    * end of the file, so that no other transaction can append
+    * a block to the file until this transaction completes;
+    * it must then check the size of the file again, since
+    * blocks may have been appended before the lock was granted.
+    * @param filename the name of the file
+    * @see #scansRecords(String)
+    */
+   public void lockFileEnd(String filename) {
+      if (scansRecords(filename))
+         concurMgr.sLockFileEnd(filename);
+   }
+   
+   /**
+    * Stores bytes at the specified offset of the
+    * specified block, without locking the block.
+    * The change is logged right away, and recovery redoes it,
+    * but it is never undone; rolling back the transaction
+    * leaves the new bytes in place.
+    * Nor is the block's version saved: every transaction,
+    * including one that reads a snapshot, reads the current bytes
+    * (see {@link #peekBytes(Block, int, int)}).
+    * A client uses this method for data that stays correct
+    * whether or not the transaction commits, such as bounds
+    * that only widen, and latches the bytes itself so that
+    * concurrent modifications of them are not lost.
+    * @param blk a reference to the disk block
+    * @param offset a byte offset within that block
+    * @param val the bytes to be stored
+    */
+   public void setBytesRedoOnly(Block blk, int offset, byte[] val) {
+      checkWritable(blk.fileName());
+      Buffer buff = myBuffers.getBuffer(blk);
+      synchronized (buff) {
+         long lsn = recoveryMgr.setBytes(buff, offset, val);
+         buff.setBytes(offset, val, txnum, lsn);
+      }
+   }
+   
+   /**
+    * Overwrites the entire contents of the specified block,
+    * using the specified formatter.
+    * The method first obtains an XLock on the block,
+    * and saves the block's version if necessary.
+    * It then writes a single load log record for the block,
+    * instead of one record per modified value.
+    * The block is expected to be newly appended by this
+    * transaction, so that undoing the load simply empties it.
+    * @param blk a reference to the disk block
+    * @param fmtr the formatter used to write the page
+    */
+   public void load(Block blk, PageFormatter fmtr) {
+      Buffer buff = lockForWrite(blk);
+      if (savesVersions(blk.fileName()))
+         concurMgr.saveVersion(buff, 0, BLOCK_SIZE);
+      long lsn = recoveryMgr.load(buff);
+      buff.format(fmtr, txnum, lsn);
+   }
+   
+   /**
+    * Obtains an XLock on the specified block.
+    * A client that reads a block and then may modify it
+    * calls this method before the read, so that its
+    * SLock never needs to be upgraded.
+    * Two transactions upgrading locks on the same block
+    * would otherwise wait on each other.
+    * @param blk a reference to the disk block
+    */
+   public void lockForUpdate(Block blk) {
+      if (!concurMgr.isSnapshot())
+         concurMgr.xLock(blk);
+   }
+   
+   /**
+    * Obtains an SLock on the entire specified file.
+    * A client that is about to read every block of the file
+    * calls this method, so that it needs one lock instead of
+    * a lock per block.
+    * A snapshot transaction takes no lock, and neither does an
+    * optimistic transaction, which instead notes the size of the file.
+    * Nor does a transaction that has declared that it modifies the
+    * file; its scan keeps locking records as it goes, and so does
+    * not conflict with the scans of other transactions modifying
+    * other records of the file.
+    * The lock escalation threshold bounds the number of
+    * record locks that such a scan can hold.
+    * The scan sees no phantoms all the same, because it also
+    * locks the empty slots of the blocks it reads, and the
+    * end of the file when it gets there.
+    * @param filename the name of the file
+    * @see #lockFileForUpdate(String)
+    * @see #lockEmptySlots(Block)
+    * @see #lockFileEnd(String)
+    */
+   public void lockFileForScan(String filename) {
+      if (!readsSnapshot(filename)) {
+         if (!scansRecords(filename))
+            concurMgr.sLockFile(filename);
+      }
+      else if (concurMgr.isOptimistic())
+         concurMgr.noteScan(filename, size(filename));
+   }
+   
+   /**
+    * Obtains an IX lock on the entire specified file.
+    * A client that is about to scan the file and modify
+    * some of its records calls this method before the scan.
+    * The scan then reads the file under record locks, instead
+    * of an SLock that the modifications would convert to SIX;
+    * two transactions updating different records of the file
+    * would otherwise wait on each other.
+    * @param filename the name of the file
+    * @see #scansRecords(String)
+    */
+   public void lockFileForUpdate(String filename) {
+      checkWritable(filename);
+      if (!concurMgr.isSnapshot())
+         concurMgr.ixLockFile(filename);
+   }
+   
+   /**
+    * Returns true if a scan of the specified file
+    * should read it under record locks, because the
+    * transaction is modifying the file but holds no lock
+    * that covers reading it.
+    * @param filename the name of the file
+    * @return true if the scan should lock each record
+    * @see #lockFileForUpdate(String)
+    */
+   public boolean scansRecords(String filename) {
+      return !readsSnapshot(filename) && !isTempFile(filename)
+            && concurMgr.locksRecords(filename);
    }
    
    /**
     * Returns the number of blocks in the specified file.
-    * This method first obtains an SLock on the 
-    * "end of the file", before asking the file manager
-    * to return the file size.
+    * The method takes no lock.
+    * A client that must not see blocks appended later
+    * (that is, phantoms) calls {@link #lockFileForScan(String)}
+    * before it scans the file, and, if the transaction scans
+    * the file under record locks, {@link #lockFileEnd(String)}
+    * once it reaches the end, after which it calls this method again.
+    * Either lock conflicts with the IX locks that an
+    * appending transaction holds on the file and its end.
+    * The blocks appended since a snapshot transaction's
+    * snapshot began appear empty to it.
     * @param filename the name of the file
     * @return the number of blocks in the file
     */
    public int size(String filename) {
-      Block dummyblk = new Block(filename, END_OF_FILE);
-      concurMgr.sLock(dummyblk);
       return SimpleDB.fileMgr().size(filename);
    }
    
    /**
     * Appends a new block to the end of the specified file
     * and returns a reference to it.
-    * This method first obtains an XLock on the
-    * "end of the file", before performing the append.
+    * This method first obtains IX locks on the file and its end.
+    * The append itself is protected only by a latch
+    * on the end of the file, which is released as soon 
+    * as the block exists.
+    * The new block is not locked, so other
+    * transactions can insert into it right away.
     * @param filename the name of the file
     * @param fmtr the formatter used to initialize the new page
     * @return a reference to the newly-created disk block
     */
    public Block append(String filename, PageFormatter fmtr) {
-      Block dummyblk = new Block(filename, END_OF_FILE);
-      concurMgr.xLock(dummyblk);
-      Block blk = myBuffers.pinNew(filename, fmtr);
+      lockForAppend(filename);
+      Block blk;
+      synchronized (extensionLatch(filename)) {
+         blk = myBuffers.pinNew(filename, fmtr);
+      }
+      unpin(blk);
+      return blk;
+   }
+   
+   /**
+    * Appends a new block to the end of the specified file,
+    * and obtains an XLock on the block before any other 
+    * transaction can see it.
+    * A client calls this method when it will overwrite 
+    * the entire block.
+    * @param filename the name of the file
+    * @param fmtr the formatter used to initialize the new page
+    * @return a reference to the newly-created disk block
+    * @see #append(String, PageFormatter)
+    */
+   public Block appendExclusive(String filename, PageFormatter fmtr) {
+      lockForAppend(filename);
+      Block blk;
+      synchronized (extensionLatch(filename)) {
+         if (!concurMgr.isSnapshot())
+            concurMgr.xLock(new Block(filename, size(filename)));
+         blk = myBuffers.pinNew(filename, fmtr);
+      }
       unpin(blk);
       return blk;
    }
    
+   /**
+    * Appends new blocks to the specified file until it has
+    * at least the specified number of blocks.
+    * The check and the appends happen under the file's latch,
+    * so that concurrent transactions do not both extend the file.
+    * The new blocks hold no records, so the method takes no lock,
+    * and a snapshot transaction can also call it.
+    * @param filename the name of the file
+    * @param size the desired number of blocks
+    * @param fmtr the formatter used to initialize the new pages
+    */
+   public void extend(String filename, int size, PageFormatter fmtr) {
+      if (size(filename) >= size)
+         return;
+      synchronized (extensionLatch(filename)) {
+         while (size(filename) < size)
+            unpin(myBuffers.pinNew(filename, fmtr));
+      }
+   }
+   
+   private void lockForAppend(String filename) {
+      checkWritable(filename);
+      if (!concurMgr.isSnapshot())
+         concurMgr.ixLockFileEnd(filename);
+   }
+   
+   private static Object extensionLatch(String filename) {
+      int h = filename.hashCode() & Integer.MAX_VALUE;
+      return extensionLatches[h % extensionLatches.length];
+   }
+   
+   /**
+    * Obtains an XLock on the specified block in preparation
+    * for modifying it.
+    * A snapshot transaction can modify only its temporary blocks,
+    * which need no lock.
+    */
+   private Buffer lockForWrite(Block blk) {
+      checkWritable(blk.fileName());
+      if (!concurMgr.isSnapshot())
+         concurMgr.xLock(blk);
+      return myBuffers.getBuffer(blk);
+   }
+   
+   /**
+    * Obtains an XLock on the specified record in preparation
+    * for modifying it.
+    */
+   private Buffer lockRecordForWrite(Block blk, int slot) {
+      checkWritable(blk.fileName());
+      if (!concurMgr.isSnapshot())
+         concurMgr.xLockRecord(blk, slot);
+      return myBuffers.getBuffer(blk);
+   }
+   
+   /**
+    * Writes an integer to a locked part of a buffer,
+    * after saving the block's version for snapshot transactions
+    * and telling the recovery manager.
+    */
+   private void writeInt(Buffer buff, int offset, int val) {
+      if (savesVersions(buff.block().fileName()))
+         concurMgr.saveVersion(buff, offset, INT_SIZE);
+      long lsn = recoveryMgr.setInt(buff, offset, val);
+      buff.setInt(offset, val, txnum, lsn);
+   }
+   
+   private void writeString(Buffer buff, int offset, String val) {
+      if (savesVersions(buff.block().fileName()))
+         concurMgr.saveVersion(buff, offset, STR_SIZE(val.length()));
+      long lsn = recoveryMgr.setString(buff, offset, val);
+      buff.setString(offset, val, txnum, lsn);
+   }
+   
+   private boolean savesVersions(String filename) {
+      return !concurMgr.isSnapshot() && !isTempFile(filename);
+   }
+   
+   private void checkWritable(String filename) {
+      if (concurMgr.isSnapshot() && !isTempFile(filename))
+         throw new RuntimeException("snapshot transaction " + txnum + " cannot modify " + filename);
+   }
+   
+   private boolean readsSnapshot(String filename) {
+      return (concurMgr.isSnapshot() || concurMgr.isOptimistic()) && !isTempFile(filename);
+   }
+   
+   private boolean isTempFile(String filename) {
+      return filename.startsWith("temp");
+   }
+   
    private static synchronized int nextTxNumber() {
       nextTxNum++;
-      System.out.println("new transaction: " + nextTxNum);
+      trace("new transaction: " + nextTxNum);
       return nextTxNum;
    }
+   
+   /**
+    * Writes a message about the transaction's life cycle
+    * to the server's log, when it is logging at level FINE.
+    */
+   private static void trace(String msg) {
+      Logger logger = SimpleDB.getLogger();
+      if (logger != null && logger.isLoggable(Level.FINE))
+         logger.fine(msg);
+   }
 }
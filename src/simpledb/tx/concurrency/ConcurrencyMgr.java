@@ -1,7 +1,11 @@
 package simpledb.tx.concurrency;
 
-import simpledb.file.Block;
+import static simpledb.tx.concurrency.LockTable.*;
+import simpledb.file.*;
+import simpledb.buffer.Buffer;
+import simpledb.server.SimpleDB;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The concurrency manager for the transaction.
@@ -9,6 +13,49 @@ import java.util.*;
  * The concurrency manager keeps track of which locks the 
  * transaction currently has, and interacts with the
  * global lock table as needed. 
+ * <P>
+ * Locks are hierarchical: before locking a block, the transaction
+ * obtains an intention lock (IS or IX) on the block's file,
+ * and before locking a record, it obtains intention locks
+ * on the record's block and file.
+ * Transactions that access different records of a block
+ * can thus proceed concurrently.
+ * A transaction that reads an entire file can instead lock
+ * the file itself, with a single SLock.
+ * When a transaction holds more than
+ * {@link simpledb.server.SimpleDB#LOCK_ESCALATION_THRESHOLD}
+ * block and record locks in a file, its locks are escalated.
+ * If it has only read the file, it locks the whole file in mode S
+ * and releases its locks there.
+ * Otherwise, it locks each block in which it has locked records,
+ * in mode X if it has modified one of them and S otherwise,
+ * and releases its record locks there; a file lock would keep
+ * the other transactions modifying the file from all its blocks.
+ * <P>
+ * A transaction that reads a file under record locks also locks
+ * what is not there: the empty slots of each block that it scans,
+ * and the end of the file once it reaches it.
+ * A transaction that inserts a record into an empty slot, or that
+ * appends a block, holds an IX lock on the slots or the end instead.
+ * The IX locks are compatible with each other, so inserting
+ * transactions do not wait on each other; but they wait for
+ * the transactions that have scanned the same blocks,
+ * which thus see no phantoms.
+ * The manager remembers the block, and the record, that it
+ * most recently found to be locked, so that the repeated reads
+ * of a block's values need not look up its locks.
+ * <P>
+ * The manager also saves the versions of the blocks that
+ * the transaction modifies in the global version table.
+ * A read-only transaction can instead read a snapshot
+ * of the database, using those versions; it takes no locks,
+ * so it never waits for writers, and writers never wait for it.
+ * <P>
+ * An optimistic transaction also reads a snapshot without locking,
+ * but it may modify the database, locking what it modifies as usual.
+ * It records the bytes it reads, and the sizes of the files it
+ * scans, and validates them when it commits; if another transaction
+ * has since modified them, the optimistic transaction must abort.
  * @author Edward Sciore
  */
 public class ConcurrencyMgr {
@@ -18,48 +65,673 @@ public class ConcurrencyMgr {
     * share the same table.
     */
    private static LockTable locktbl = new LockTable();
-   private Map<Block,String> locks  = new HashMap<Block,String>();
+   
+   /**
+    * The global version table, shared by all transactions.
+    */
+   private static VersionTable versiontbl = new VersionTable();
+   
+   private static AtomicLong escalations = new AtomicLong();
+   
+   private static final int EMPTY_SLOTS = -1;  // the slot that stands for a block's empty slots
+   private static final int END_OF_FILE = -1;  // the block that stands for the end of a file
+   
+   private int txnum;
+   private Map<Object,Integer> locks = new HashMap<Object,Integer>();  // blocks and files
+   private Map<String,Integer> blocklocks = new HashMap<String,Integer>();  // block and record locks per file
+   private Map<String,Integer> escalatelimits = new HashMap<String,Integer>();  // when to escalate again
+   private Block lastblk = null;     // the block most recently found to be locked,
+   private int lastmode;             // and the strongest mode in which it is locked
+   private Block lastrecblk = null;  // the record most recently found to be locked,
+   private int lastslot, lastrecmode;
+   private Map<Block,VersionTable.Version> versioned = new HashMap<Block,VersionTable.Version>();
+   private long snapshot = -1;
+   private boolean optimistic = false;
+   private Map<Block,byte[]> reads = new HashMap<Block,byte[]>();  // the bytes read optimistically
+   private Map<String,Integer> scanned = new HashMap<String,Integer>();  // file sizes seen by scans
+   
+   /**
+    * Creates the concurrency manager for the specified transaction.
+    * @param txnum the ID of the transaction
+    */
+   public ConcurrencyMgr(int txnum) {
+      this.txnum = txnum;
+   }
+   
+   /**
+    * Returns the number of times that the lock table
+    * searched for a deadlock, which it does whenever
+    * a lock request must wait.
+    * @return the number of deadlock detections
+    */
+   public static long deadlockDetections() {
+      return locktbl.detections();
+   }
+   
+   /**
+    * Returns the number of times that a transaction's
+    * block locks were escalated to a file lock.
+    * @return the number of lock escalations
+    */
+   public static long lockEscalations() {
+      return escalations.get();
+   }
+   
+   /**
+    * Returns the number of deadlocks that the lock table found.
+    * Each deadlock aborted one transaction.
+    * @return the number of deadlocks found
+    */
+   public static long deadlocksFound() {
+      return locktbl.deadlocks();
+   }
+   
+   /**
+    * Returns the total time that the lock table
+    * spent searching for deadlocks.
+    * @return the detection time in nanoseconds
+    */
+   public static long deadlockDetectionNanos() {
+      return locktbl.detectionNanos();
+   }
+   
+   /**
+    * Returns the global lock table, for the lock monitor.
+    * @return the lock table
+    */
+   static LockTable lockTable() {
+      return locktbl;
+   }
+   
+   /**
+    * Resets the statistics of the lock table
+    * and the count of lock escalations.
+    */
+   static void resetStatistics() {
+      locktbl.resetStatistics();
+      escalations.set(0);
+   }
+   
+   /**
+    * Makes the transaction read a snapshot of the database
+    * as of this moment, instead of locking the blocks it reads.
+    * The transaction must not modify the database.
+    */
+   public void beginSnapshot() {
+      snapshot = versiontbl.beginSnapshot();
+   }
+   
+   /**
+    * Returns true if the transaction is a read-only
+    * transaction that reads a snapshot.
+    * @return true if the transaction reads a snapshot
+    */
+   public boolean isSnapshot() {
+      return snapshot >= 0 && !optimistic;
+   }
+   
+   /**
+    * Makes the transaction optimistic.
+    * The transaction reads a snapshot of the database as of
+    * this moment, without locking, and must pass
+    * {@link #validate()} before it commits.
+    */
+   public void beginOptimistic() {
+      snapshot = versiontbl.beginSnapshot();
+      optimistic = true;
+   }
+   
+   /**
+    * Returns true if the transaction is optimistic.
+    * @return true if the transaction is optimistic
+    */
+   public boolean isOptimistic() {
+      return optimistic;
+   }
+   
+   /**
+    * Records that the optimistic transaction is scanning the
+    * specified file, which has the specified number of blocks.
+    * The transaction will fail validation if the file grows,
+    * since the new blocks may hold records that the scan missed.
+    * @param filename the name of the file
+    * @param size the number of blocks in the file
+    */
+   public void noteScan(String filename, int size) {
+      if (!scanned.containsKey(filename))
+         scanned.put(filename, size);
+   }
+   
+   /**
+    * Validates an optimistic transaction, which is about to commit.
+    * The method does nothing for other transactions.
+    * @throws ValidationAbortException if another transaction
+    * has modified what the transaction read
+    */
+   public void validate() {
+      if (!optimistic)
+         return;
+      for (Map.Entry<String,Integer> e : scanned.entrySet())
+         if (SimpleDB.fileMgr().size(e.getKey()) > e.getValue())
+            throw new ValidationAbortException("transaction " + txnum + ": file " + e.getKey() + " grew");
+      if (!versiontbl.validate(txnum, snapshot, reads))
+         throw new ValidationAbortException("transaction " + txnum + ": read data was modified");
+   }
+   
+   /**
+    * Returns the integer at the specified offset of the
+    * specified buffer's block, as of the transaction's snapshot.
+    * The buffer is latched while the version is built and read,
+    * so that a writer cannot modify the block in between.
+    * @param buff the buffer holding the block
+    * @param offset the byte offset within the block
+    * @return the integer at that offset in the snapshot
+    */
+   public int snapshotInt(Buffer buff, int offset) {
+      synchronized (buff) {
+         Page version = versiontbl.version(buff, snapshot, txnum);
+         noteRead(buff.block(), offset, Page.INT_SIZE);
+         return (version == null) ? buff.getInt(offset) : version.getInt(offset);
+      }
+   }
+   
+   /**
+    * Returns the string at the specified offset of the
+    * specified buffer's block, as of the transaction's snapshot.
+    * @param buff the buffer holding the block
+    * @param offset the byte offset within the block
+    * @return the string at that offset in the snapshot
+    * @see #snapshotInt(Buffer, int)
+    */
+   public String snapshotString(Buffer buff, int offset) {
+      synchronized (buff) {
+         Page version = versiontbl.version(buff, snapshot, txnum);
+         String val = (version == null) ? buff.getString(offset) : version.getString(offset);
+         noteRead(buff.block(), offset, Page.STR_SIZE(val.length()));
+         return val;
+      }
+   }
+   
+   /**
+    * Returns a copy of the specified bytes of the
+    * specified buffer's block, as of the transaction's snapshot.
+    * @param buff the buffer holding the block
+    * @param offset the byte offset within the block
+    * @param length the number of bytes
+    * @return the bytes in that range in the snapshot
+    * @see #snapshotInt(Buffer, int)
+    */
+   public byte[] snapshotBytes(Buffer buff, int offset, int length) {
+      synchronized (buff) {
+         Page version = versiontbl.version(buff, snapshot, txnum);
+         noteRead(buff.block(), offset, length);
+         return (version == null) ? buff.getBytes(offset, length) : version.getBytes(offset, length);
+      }
+   }
+   
+   /**
+    * Returns the integer at the specified offset of the specified
+    * buffer's block, with a bit also set for each bit of it
+    * that another unfinished transaction has modified.
+    * The buffer is latched, so that no transaction modifies
+    * a bit, or rolls back its modification, in between.
+    * @param buff the buffer holding the block
+    * @param offset the byte offset within the block
+    * @return the integer, and the bits that may change
+    */
+   public int peekFlags(Buffer buff, int offset) {
+      synchronized (buff) {
+         return buff.getInt(offset) | versiontbl.unfinishedBits(buff.block(), offset, txnum);
+      }
+   }
+   
+   /**
+    * Marks every byte of the specified block as read,
+    * if the transaction is optimistic.
+    * The transaction calls this method when it skips
+    * the block, on the strength of data kept elsewhere.
+    * @param blk a reference to the disk block
+    */
+   public void noteBlockRead(Block blk) {
+      noteRead(blk, 0, Page.BLOCK_SIZE);
+   }
+   
+   /**
+    * Marks the specified bytes of the block as read,
+    * if the transaction is optimistic.
+    */
+   private void noteRead(Block blk, int offset, int length) {
+      if (!optimistic)
+         return;
+      byte[] mask = reads.get(blk);
+      if (mask == null) {
+         mask = new byte[Page.BLOCK_SIZE];
+         reads.put(blk, mask);
+      }
+      Arrays.fill(mask, offset, offset + length, (byte) -1);
+   }
+   
+   /**
+    * Adds a version of the specified buffer's block,
+    * if this is the transaction's first modification of the block,
+    * and marks the specified range of bytes as modified by the
+    * transaction, saving the values that they have before
+    * the transaction first modifies them.
+    * The caller must hold a lock that covers the bytes,
+    * and must call this method before modifying them.
+    * @param buff the buffer about to be modified
+    * @param offset the offset of the modified bytes
+    * @param length the number of modified bytes
+    */
+   public void saveVersion(Buffer buff, int offset, int length) {
+      VersionTable.Version v = version(buff);
+      synchronized (buff) {
+         v.markBytes(buff, offset, length);
+      }
+   }
+   
+   /**
+    * Adds a version of the specified buffer's block,
+    * if this is the transaction's first modification of the block,
+    * and marks the specified bits of an integer as modified by the
+    * transaction, saving their values as for bytes.
+    * @param buff the buffer about to be modified
+    * @param offset the offset of the integer
+    * @param mask the modified bits
+    * @see #saveVersion(Buffer, int, int)
+    */
+   public void saveVersionBits(Buffer buff, int offset, int mask) {
+      VersionTable.Version v = version(buff);
+      synchronized (buff) {
+         v.markBits(buff, offset, mask);
+      }
+   }
+   
+   private VersionTable.Version version(Buffer buff) {
+      VersionTable.Version v = versioned.get(buff.block());
+      if (v == null) {
+         v = versiontbl.save(txnum, buff.block());
+         versioned.put(buff.block(), v);
+      }
+      return v;
+   }
+   
+   /**
+    * Obtains an SLock on the entire specified file, if necessary.
+    * The transaction's block locks in the file that
+    * the file lock covers are released.
+    * @param filename the name of the file
+    */
+   public void sLockFile(String filename) {
+      Integer filemode = locks.get(filename);
+      if (filemode != null && cover(filemode, S) == filemode)
+         return;
+      lock(filename, S);
+      releaseCovered(filename);
+   }
+   
+   /**
+    * Obtains an IX lock on the entire specified file, if necessary.
+    * A transaction holds this lock when it modifies the file,
+    * so that it waits for the transactions that are scanning
+    * the file as a whole.
+    * @param filename the name of the file
+    */
+   public void ixLockFile(String filename) {
+      Integer filemode = locks.get(filename);
+      if (filemode != null && cover(filemode, IX) == filemode)
+         return;
+      lock(filename, IX);
+   }
+   
+   /**
+    * Returns true if the transaction intends to modify the
+    * specified file, but holds no lock that covers reading it.
+    * That is, it holds an IX lock on the file and nothing stronger.
+    * Such a transaction reads the file under record locks,
+    * because an SLock on the file or on one of its blocks would
+    * be converted to SIX by its writes, and two transactions
+    * modifying the file would then wait on each other.
+    * @param filename the name of the file
+    * @return true if reads of the file should lock records
+    */
+   public boolean locksRecords(String filename) {
+      Integer filemode = locks.get(filename);
+      return filemode != null && filemode == IX;
+   }
    
    /**
     * Obtains an SLock on the block, if necessary.
-    * The method will ask the lock table for an SLock
-    * if the transaction currently has no locks on that block.
+    * The method will ask the lock table for an IS lock on
+    * the block's file and an SLock on the block,
+    * unless the transaction already holds a lock that covers it.
     * @param blk a reference to the disk block
     */
    public void sLock(Block blk) {
-      if (locks.get(blk) == null) {
-         locktbl.sLock(blk);
-         locks.put(blk, "S");
-      }
+      if (covered(blk, S))
+         return;
+      lock(blk.fileName(), IS);
+      escalate(blk.fileName());
+      if (!covered(blk, S))
+         lockBelowFile(blk, blk, S);
    }
    
    /**
     * Obtains an XLock on the block, if necessary.
-    * If the transaction does not have an XLock on that block,
-    * then the method first gets an SLock on that block
-    * (if necessary), and then upgrades it to an XLock.
+    * The method will ask the lock table for an IX lock on
+    * the block's file and an XLock on the block 
+    * (converting its SLock, if it has one),
+    * unless the transaction already holds a lock that covers it.
     * @param blk a refrence to the disk block
     */
    public void xLock(Block blk) {
-      if (!hasXLock(blk)) {
-         sLock(blk);
-         locktbl.xLock(blk);
-         locks.put(blk, "X");
+      if (covered(blk, X))
+         return;
+      lock(blk.fileName(), IX);
+      escalate(blk.fileName());
+      if (!covered(blk, X))
+         lockBelowFile(blk, blk, X);
+   }
+   
+   /**
+    * Obtains an SLock on the record in the specified slot
+    * of the block, if necessary.
+    * The method will ask the lock table for IS locks on the
+    * block's file and on the block, and an SLock on the record,
+    * unless the transaction already holds a lock that covers it.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    */
+   public void sLockRecord(Block blk, int slot) {
+      if (recordCovered(blk, slot, S))
+         return;
+      lock(blk.fileName(), IS);
+      escalate(blk.fileName());
+      if (!recordCovered(blk, slot, S)) {
+         lockBelowFile(blk, blk, IS);
+         lockBelowFile(new RecordKey(blk, slot), blk, S);
+      }
+   }
+   
+   /**
+    * Obtains an XLock on the record in the specified slot
+    * of the block, if necessary.
+    * The method will ask the lock table for IX locks on the
+    * block's file and on the block, and an XLock on the record,
+    * unless the transaction already holds a lock that covers it.
+    * @param blk a reference to the disk block
+    * @param slot the slot of the record in the block
+    */
+   public void xLockRecord(Block blk, int slot) {
+      if (recordCovered(blk, slot, X))
+         return;
+      lock(blk.fileName(), IX);
+      escalate(blk.fileName());
+      if (!recordCovered(blk, slot, X)) {
+         lockBelowFile(blk, blk, IX);
+         lockBelowFile(new RecordKey(blk, slot), blk, X);
+      }
+   }
+   
+   /**
+    * Obtains an SLock on the empty slots of the specified block,
+    * if necessary, so that no other transaction can insert
+    * a record into the block until this transaction completes.
+    * An SLock on the block or its file covers the empty slots.
+    * @param blk a reference to the disk block
+    */
+   public void sLockEmptySlots(Block blk) {
+      sLockRecord(blk, EMPTY_SLOTS);
+   }
+   
+   /**
+    * Obtains an IX lock on the empty slots of the specified block,
+    * if necessary, before the transaction inserts a record into one
+    * of them.
+    * The lock waits for the transactions that hold an SLock on
+    * the empty slots, but not for other inserting transactions.
+    * @param blk a reference to the disk block
+    */
+   public void ixLockEmptySlots(Block blk) {
+      RecordKey empty = new RecordKey(blk, EMPTY_SLOTS);
+      Integer held = locks.get(empty);
+      if (covered(blk, X) || (held != null && cover(held, IX) == held))
+         return;
+      lock(blk.fileName(), IX);
+      escalate(blk.fileName());
+      if (!covered(blk, X)) {
+         lockBelowFile(blk, blk, IX);
+         lockBelowFile(empty, blk, IX);
       }
    }
    
+   /**
+    * Obtains an SLock on the end of the specified file, if necessary,
+    * so that no other transaction can append a block to the file
+    * until this transaction completes.
+    * An SLock on the file covers its end.
+    * @param filename the name of the file
+    */
+   public void sLockFileEnd(String filename) {
+      Block end = new Block(filename, END_OF_FILE);
+      if (covered(end, S))
+         return;
+      lock(filename, IS);
+      lockBelowFile(end, end, S);
+   }
+   
+   /**
+    * Obtains IX locks on the specified file and on its end,
+    * if necessary, before the transaction appends a block to it.
+    * The transaction thus waits for the transactions that
+    * have locked the file, or its end, in order to scan it.
+    * @param filename the name of the file
+    */
+   public void ixLockFileEnd(String filename) {
+      Block end = new Block(filename, END_OF_FILE);
+      if (covered(end, IX))
+         return;
+      lock(filename, IX);
+      lockBelowFile(end, end, IX);
+   }
+   
    /**
     * Releases all locks by asking the lock table to
     * unlock each one.
+    * The transaction's versions are released first,
+    * and so are discarded once no snapshot can read them.
     */
    public void release() {
-      for (Block blk : locks.keySet())
-         locktbl.unlock(blk);
+      if (optimistic || !versioned.isEmpty())
+         versiontbl.finish(txnum);
+      if (snapshot >= 0) {
+         versiontbl.endSnapshot(snapshot);
+         snapshot = -1;
+      }
+      optimistic = false;
+      reads.clear();
+      scanned.clear();
+      versioned.clear();
+      for (Object res : locks.keySet())
+         locktbl.unlock(txnum, res);
       locks.clear();
+      blocklocks.clear();
+      escalatelimits.clear();
+      lastblk = lastrecblk = null;
    }
    
-   private boolean hasXLock(Block blk) {
-      String locktype = locks.get(blk);
-      return locktype != null && locktype.equals("X");
+   /**
+    * Determines whether the transaction's lock on the block,
+    * or on its file, covers a lock of the specified mode on the block.
+    * The mode in which the block is effectively locked is
+    * remembered, so that the next call for the same block
+    * is answered without looking up the locks.
+    */
+   private boolean covered(Block blk, int mode) {
+      if (blk.equals(lastblk))
+         return cover(lastmode, mode) == lastmode;
+      Integer filemode = locks.get(blk.fileName());
+      if (filemode == null)
+         return false;
+      Integer blkmode = locks.get(blk);
+      if (filemode == X)
+         blkmode = X;
+      else if (cover(filemode, S) == filemode)
+         blkmode = (blkmode == null) ? S : cover(blkmode, S);
+      else if (blkmode == null)
+         return false;
+      lastblk = blk;
+      lastmode = blkmode;
+      return cover(blkmode, mode) == blkmode;
+   }
+   
+   /**
+    * Determines whether the transaction's locks cover a lock
+    * of the specified mode on the record in the specified slot.
+    * As with blocks, the record most recently found to be
+    * locked is remembered.
+    */
+   private boolean recordCovered(Block blk, int slot, int mode) {
+      if (slot == lastslot && blk.equals(lastrecblk) && cover(lastrecmode, mode) == lastrecmode)
+         return true;
+      if (covered(blk, mode))
+         return true;
+      Integer recmode = locks.get(new RecordKey(blk, slot));
+      if (recmode == null || cover(recmode, mode) != recmode)
+         return false;
+      lastrecblk = blk;
+      lastslot = slot;
+      lastrecmode = recmode;
+      return true;
+   }
+   
+   private void lock(Object res, int mode) {
+      lastblk = null;
+      locktbl.lock(txnum, res, mode);
+      Integer held = locks.get(res);
+      locks.put(res, (held == null) ? mode : cover(held, mode));
+   }
+   
+   /**
+    * Locks the specified block or record of the specified block,
+    * counting the locks that the transaction holds in its file.
+    */
+   private void lockBelowFile(Object res, Block blk, int mode) {
+      if (!locks.containsKey(res)) {
+         Integer count = blocklocks.get(blk.fileName());
+         blocklocks.put(blk.fileName(), (count == null) ? 1 : count+1);
+      }
+      lock(res, mode);
+   }
+   
+   /**
+    * Escalates the transaction's locks on the specified file,
+    * if it holds too many block and record locks there.
+    * If the transaction holds only an IS lock on the file,
+    * the file is locked in mode S.
+    * Otherwise, the blocks in which the transaction holds
+    * record locks are locked instead, and the transaction
+    * can hold another LOCK_ESCALATION_THRESHOLD locks
+    * in the file before they are escalated again.
+    * The locks that the new locks cover are released.
+    */
+   private void escalate(String filename) {
+      Integer count = blocklocks.get(filename);
+      Integer limit = escalatelimits.get(filename);
+      if (count == null || count < ((limit == null) ? SimpleDB.LOCK_ESCALATION_THRESHOLD : limit))
+         return;
+      if (locks.get(filename) == IS)
+         lock(filename, S);
+      else
+         lockRecordBlocks(filename);
+      releaseCovered(filename);
+      escalatelimits.put(filename, blocklocks.get(filename) + SimpleDB.LOCK_ESCALATION_THRESHOLD);
+      escalations.incrementAndGet();
+   }
+   
+   /**
+    * Locks each block of the specified file in which the
+    * transaction holds record locks, in mode X if one of
+    * those locks is an XLock, and in mode S otherwise.
+    * An IX lock on a block's empty slots is left as it is,
+    * since an SLock on the block would keep other
+    * transactions from inserting into it.
+    */
+   private void lockRecordBlocks(String filename) {
+      Map<Block,Integer> blkmodes = new HashMap<Block,Integer>();
+      for (Map.Entry<Object,Integer> e : locks.entrySet()) {
+         if (!(e.getKey() instanceof RecordKey))
+            continue;
+         Block blk = ((RecordKey) e.getKey()).blk;
+         if (blk.fileName().equals(filename) && e.getValue() != IX) {
+            Integer held = blkmodes.get(blk);
+            int mode = (e.getValue() == X) ? X : S;
+            blkmodes.put(blk, (held == null) ? mode : cover(held, mode));
+         }
+      }
+      for (Map.Entry<Block,Integer> e : blkmodes.entrySet())
+         lock(e.getKey(), e.getValue());
+   }
+   
+   /**
+    * Releases the transaction's block and record locks in the specified
+    * file that are covered by its lock on the file, and its record
+    * locks that are covered by its SLock or XLock on their block.
+    * The covering locks are held until the transaction completes,
+    * so the blocks and records remain protected.
+    */
+   private void releaseCovered(String filename) {
+      lastblk = lastrecblk = null;
+      int filemode = locks.get(filename);
+      boolean coversreads = (cover(filemode, S) == filemode);
+      Iterator<Map.Entry<Object,Integer>> iter = locks.entrySet().iterator();
+      int count = 0;
+      while (iter.hasNext()) {
+         Map.Entry<Object,Integer> e = iter.next();
+         Block blk = (e.getKey() instanceof RecordKey) ? ((RecordKey) e.getKey()).blk
+                   : (e.getKey() instanceof Block) ? (Block) e.getKey() : null;
+         if (blk == null || !blk.fileName().equals(filename))
+            continue;
+         int mode = e.getValue();
+         Integer blkmode = (e.getKey() instanceof RecordKey) ? locks.get(blk) : null;
+         if (filemode == X || (coversreads && (mode == S || mode == IS))
+               || (blkmode != null && cover(blkmode, S) == blkmode && cover(blkmode, mode) == blkmode)) {
+            locktbl.unlock(txnum, e.getKey());
+            iter.remove();
+         }
+         else
+            count++;
+      }
+      blocklocks.put(filename, count);
+   }
+   
+   /**
+    * The lockable resource for a record: a slot of a block.
+    */
+   private static class RecordKey {
+      private Block blk;
+      private int slot;
+      
+      RecordKey(Block blk, int slot) {
+         this.blk = blk;
+         this.slot = slot;
+      }
+      
+      public boolean equals(Object obj) {
+         if (!(obj instanceof RecordKey))
+            return false;
+         RecordKey rec = (RecordKey) obj;
+         return blk.equals(rec.blk) && slot == rec.slot;
+      }
+      
+      public int hashCode() {
+         return blk.hashCode() * 31 + slot;
+      }
+      
+      public String toString() {
+         if (slot == EMPTY_SLOTS)
+            return "[empty slots of " + blk + "]";
+         return "[record " + slot + " of " + blk + "]";
+      }
    }
 }
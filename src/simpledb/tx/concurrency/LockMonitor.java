@@ -0,0 +1,228 @@
+package simpledb.tx.concurrency;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.*;
+
+/**
+ * A view of the global lock table, for diagnosing lock contention.
+ * The monitor reports the locks currently held and requested,
+ * the wait-for graph, the most contended resources, and
+ * statistics about lock requests and their waits.
+ * It is registered as the JMX bean <code>simpledb:type=LockMonitor</code>,
+ * and its locks and contended resources can also be queried as the
+ * virtual tables <code>syslocks</code> and <code>syslockwaits</code>.
+ * @author Edward Sciore
+ */
+public class LockMonitor implements LockMonitorMBean {
+
+   /**
+    * The name under which the monitor is registered.
+    */
+   public static final String OBJECT_NAME = "simpledb:type=LockMonitor";
+
+   private static final int TOP_CONTENDED = 10;
+
+   private static LockMonitor monitor = new LockMonitor();
+
+   private LockTable locktbl = ConcurrencyMgr.lockTable();
+   private long lastrequests = 0;
+   private long lastnanos = System.nanoTime();
+
+   private LockMonitor() {}
+
+   /**
+    * Returns the lock monitor.
+    * @return the lock monitor
+    */
+   public static LockMonitor monitor() {
+      return monitor;
+   }
+
+   /**
+    * Registers the lock monitor with the platform MBean server.
+    * The call has no effect if the monitor is already registered.
+    */
+   public static void register() {
+      try {
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         ObjectName name = new ObjectName(OBJECT_NAME);
+         if (!server.isRegistered(name))
+            server.registerMBean(monitor, name);
+      }
+      catch (InstanceAlreadyExistsException e) {
+      }
+      catch (JMException e) {
+         throw new RuntimeException("cannot register the lock monitor", e);
+      }
+   }
+
+   /**
+    * Returns the locks currently held, and the requests waiting.
+    * @return the lock information
+    */
+   public List<LockInfo> locks() {
+      List<LockInfo> result = new ArrayList<LockInfo>();
+      for (Object[] row : locktbl.locks())
+         result.add(new LockInfo(row[0], (Integer) row[1], (String) row[2],
+                                 (Boolean) row[3], (Long) row[4] / 1000000));
+      return result;
+   }
+
+   /**
+    * Returns the resources for which lock requests waited,
+    * with the number of waits and the total time waited
+    * in milliseconds, longest first.
+    * @param max the largest number of resources to return
+    * @return the contended resources and their waits
+    */
+   public List<Map.Entry<Object,long[]>> contended(int max) {
+      List<Map.Entry<Object,long[]>> result =
+            new ArrayList<Map.Entry<Object,long[]>>();
+      for (Map.Entry<Object,long[]> e : locktbl.contention().entrySet()) {
+         long[] waits = e.getValue();
+         waits[1] /= 1000000;
+         result.add(e);
+      }
+      Collections.sort(result, new Comparator<Map.Entry<Object,long[]>>() {
+         public int compare(Map.Entry<Object,long[]> e1, Map.Entry<Object,long[]> e2) {
+            long t1 = e1.getValue()[1], t2 = e2.getValue()[1];
+            if (t1 != t2)
+               return t1 > t2 ? -1 : 1;
+            long w1 = e1.getValue()[0], w2 = e2.getValue()[0];
+            return w1 > w2 ? -1 : (w1 == w2 ? 0 : 1);
+         }
+      });
+      return result.size() > max ? result.subList(0, max) : result;
+   }
+
+   public long getAcquisitions() {
+      return locktbl.requests();
+   }
+
+   public synchronized double getAcquisitionsPerSecond() {
+      long requests = locktbl.requests();
+      long now = System.nanoTime();
+      double rate = (requests - lastrequests) * 1e9 / Math.max(now - lastnanos, 1);
+      lastrequests = requests;
+      lastnanos = now;
+      return rate;
+   }
+
+   public long getWaits() {
+      return locktbl.waitCount();
+   }
+
+   public long getTimeouts() {
+      return locktbl.timeouts();
+   }
+
+   public long getDeadlocks() {
+      return ConcurrencyMgr.deadlocksFound();
+   }
+
+   public long getDeadlockDetections() {
+      return ConcurrencyMgr.deadlockDetections();
+   }
+
+   public long getLockEscalations() {
+      return ConcurrencyMgr.lockEscalations();
+   }
+
+   public long[] getWaitHistogram() {
+      return locktbl.waitHistogram();
+   }
+
+   public String[] getLocks() {
+      List<String> result = new ArrayList<String>();
+      for (LockInfo info : locks())
+         result.add(info.toString());
+      return result.toArray(new String[result.size()]);
+   }
+
+   public String[] getWaitForGraph() {
+      List<String> result = new ArrayList<String>();
+      for (Map.Entry<Integer,List<Integer>> e : locktbl.waitForGraph().entrySet())
+         result.add("tx " + e.getKey() + " waits for " + e.getValue());
+      return result.toArray(new String[result.size()]);
+   }
+
+   public String[] getTopContended() {
+      List<String> result = new ArrayList<String>();
+      for (Map.Entry<Object,long[]> e : contended(TOP_CONTENDED)) {
+         long[] waits = e.getValue();
+         result.add(e.getKey() + ": " + waits[0] + " waits, " + waits[1] + " ms");
+      }
+      return result.toArray(new String[result.size()]);
+   }
+
+   public void resetStatistics() {
+      ConcurrencyMgr.resetStatistics();
+   }
+
+   /**
+    * A lock held, or requested, by a transaction.
+    */
+   public static class LockInfo {
+      private Object res;
+      private int txnum;
+      private String mode;
+      private boolean granted;
+      private long waitmillis;
+
+      LockInfo(Object res, int txnum, String mode, boolean granted, long waitmillis) {
+         this.res = res;
+         this.txnum = txnum;
+         this.mode = mode;
+         this.granted = granted;
+         this.waitmillis = waitmillis;
+      }
+
+      /**
+       * Returns the locked resource: a block, a record, or a file name.
+       * @return the resource
+       */
+      public Object resource() {
+         return res;
+      }
+
+      /**
+       * Returns the ID of the transaction.
+       * @return the transaction ID
+       */
+      public int txnum() {
+         return txnum;
+      }
+
+      /**
+       * Returns the name of the lock mode.
+       * @return the lock mode
+       */
+      public String mode() {
+         return mode;
+      }
+
+      /**
+       * Returns true if the lock is held,
+       * and false if the transaction waits for it.
+       * @return whether the lock is granted
+       */
+      public boolean isGranted() {
+         return granted;
+      }
+
+      /**
+       * Returns the time that the transaction has waited
+       * for the lock, or 0 if the lock is granted.
+       * @return the waiting time in milliseconds
+       */
+      public long waitMillis() {
+         return waitmillis;
+      }
+
+      public String toString() {
+         return "tx " + txnum + (granted ? " holds " : " waits for ") + mode
+               + " on " + res + (granted ? "" : " (" + waitmillis + " ms)");
+      }
+   }
+}
@@ -0,0 +1,84 @@
+package simpledb.tx.concurrency;
+
+/**
+ * The management interface of the lock monitor,
+ * through which a JMX client can observe the lock table.
+ * @author Edward Sciore
+ */
+public interface LockMonitorMBean {
+
+   /**
+    * Returns the number of lock requests, including conversions.
+    * @return the number of requests
+    */
+   public long getAcquisitions();
+
+   /**
+    * Returns the rate of lock requests since the previous call
+    * of this method.
+    * @return the number of requests per second
+    */
+   public double getAcquisitionsPerSecond();
+
+   /**
+    * Returns the number of lock requests that had to wait.
+    * @return the number of waits
+    */
+   public long getWaits();
+
+   /**
+    * Returns the number of lock requests that timed out.
+    * @return the number of timeouts
+    */
+   public long getTimeouts();
+
+   /**
+    * Returns the number of deadlocks found.
+    * @return the number of deadlocks
+    */
+   public long getDeadlocks();
+
+   /**
+    * Returns the number of searches for a deadlock.
+    * @return the number of deadlock detections
+    */
+   public long getDeadlockDetections();
+
+   /**
+    * Returns the number of lock escalations.
+    * @return the number of escalations
+    */
+   public long getLockEscalations();
+
+   /**
+    * Returns the histogram of the time that lock requests waited.
+    * Bucket i counts the waits of less than 2<sup>i</sup>
+    * microseconds and at least half as long.
+    * @return the count of each bucket
+    */
+   public long[] getWaitHistogram();
+
+   /**
+    * Returns a description of each lock held and each request waiting.
+    * @return the lock descriptions
+    */
+   public String[] getLocks();
+
+   /**
+    * Returns the waiting transactions and the transactions
+    * that each of them waits for.
+    * @return the edges of the wait-for graph
+    */
+   public String[] getWaitForGraph();
+
+   /**
+    * Returns the resources that lock requests waited for the longest.
+    * @return the most contended resources, with their waits
+    */
+   public String[] getTopContended();
+
+   /**
+    * Resets the statistics of the lock table.
+    */
+   public void resetStatistics();
+}
@@ -1,103 +1,659 @@
 package simpledb.tx.concurrency;
 
-import simpledb.file.Block;
+import simpledb.server.SimpleDB;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
 
 /**
- * The lock table, which provides methods to lock and unlock blocks.
- * If a transaction requests a lock that causes a conflict with an
- * existing lock, then that transaction is placed on a wait list.
- * There is only one wait list for all blocks.
- * When the last lock on a block is unlocked, then all transactions
- * are removed from the wait list and rescheduled.
- * If one of those transactions discovers that the lock it is waiting for
- * is still locked, it will place itself back on the wait list.
+ * The lock table, which provides methods to lock and unlock resources.
+ * A resource is either a block or a file, and it can be locked
+ * in one of five modes: the shared and exclusive modes S and X,
+ * the intention modes IS and IX, which a transaction holds on
+ * a file in which it locks blocks in mode S or X,
+ * and SIX, which combines S and IX.
+ * The table is divided into STRIPES independent stripes,
+ * chosen by the hash code of the resource, so that requests
+ * for unrelated resources rarely contend with each other.
+ * <P>
+ * Each locked resource has its own queue of waiting requests,
+ * which are granted in the order they arrived.
+ * A request by a transaction that already holds the resource
+ * converts its lock to the weakest mode that covers both;
+ * a conversion goes to the front of the queue.
+ * When a lock is released, the method grants the requests
+ * at the front of that resource's queue that have become compatible,
+ * and wakes only their transactions.
+ * <P>
+ * Whenever a request must wait, the table looks for a cycle
+ * in the wait-for graph that passes through the requesting transaction.
+ * A waiting transaction waits for the transactions that hold
+ * incompatible locks on its resource, and for those whose requests
+ * are ahead of it in the queue.
+ * The search latches the stripe of one waiting request at a time,
+ * to read the transactions that the request waits for, so it
+ * never stops the whole table; a cycle that it finds is checked
+ * again with the stripes of the cycle's requests latched together,
+ * since the graph may have changed in the meantime.
+ * No deadlock is missed, because the request that closes a cycle
+ * is queued before its own search begins.
+ * If there is a cycle, its youngest transaction (the one with the
+ * largest number) is chosen as the victim: its request is abandoned
+ * and it gets a {@link LockAbortException} immediately.
+ * A request that waits longer than
+ * {@link simpledb.server.SimpleDB#LOCK_TIMEOUT} milliseconds
+ * is also abandoned.
+ * <P>
+ * The table keeps statistics about its requests: their number,
+ * a histogram of the time spent waiting, and the number of waits
+ * and time waited for each contended resource.
+ * A request that is granted immediately costs only an increment of
+ * a counter; the other statistics are kept only for waiting requests,
+ * which are slow anyway.
  * @author Edward Sciore
  */
 class LockTable {
-   private static final long MAX_TIME = 10000; // 10 seconds
+   /**
+    * The number of stripes of the lock table.
+    */
+   static final int STRIPES = 64;
+   
+   /**
+    * The lock modes.
+    */
+   static final int IS = 0, IX = 1, S = 2, SIX = 3, X = 4;
+   
+   /**
+    * The names of the lock modes.
+    */
+   static final String[] MODE_NAMES = { "IS", "IX", "S", "SIX", "X" };
+   
+   /**
+    * The number of buckets of the wait histogram.
+    * Bucket i counts the waits that lasted
+    * less than 2<sup>i</sup> microseconds, and at least
+    * half as long; the last bucket counts the longer waits.
+    */
+   static final int HISTOGRAM_BUCKETS = 32;
+   
+   /**
+    * The largest number of resources whose contention is recorded.
+    */
+   static final int MAX_CONTENDED = 10000;
+   
+   /**
+    * Whether a lock of each mode (the row) can be granted
+    * while another transaction holds a lock of each mode (the column).
+    */
+   private static final boolean[][] COMPATIBLE = {
+      //  IS     IX     S      SIX    X
+      { true,  true,  true,  true,  false },  // IS
+      { true,  true,  false, false, false },  // IX
+      { true,  false, true,  false, false },  // S
+      { true,  false, false, false, false },  // SIX
+      { false, false, false, false, false }   // X
+   };
+   
+   /**
+    * The weakest mode that covers both of two modes.
+    */
+   private static final int[][] COVER = {
+      { IS,  IX,  S,   SIX, X },
+      { IX,  IX,  SIX, SIX, X },
+      { S,   SIX, S,   SIX, X },
+      { SIX, SIX, SIX, SIX, X },
+      { X,   X,   X,   X,   X }
+   };
+   
+   private Stripe[] stripes = new Stripe[STRIPES];
+   
+   // the request that each waiting transaction waits for
+   private Map<Integer,Request> waits = new ConcurrentHashMap<Integer,Request>();
+   
+   // deadlock detection statistics
+   private AtomicLong detections = new AtomicLong();
+   private AtomicLong deadlocks = new AtomicLong();
+   private AtomicLong detectionnanos = new AtomicLong();
+   
+   // request statistics
+   private LongAdder requests = new LongAdder();
+   private LongAdder waitcount = new LongAdder();
+   private LongAdder timeouts = new LongAdder();
+   private AtomicLongArray waithistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+   private Map<Object,Contention> contention = new ConcurrentHashMap<Object,Contention>();
+   
+   LockTable() {
+      for (int i=0; i<STRIPES; i++)
+         stripes[i] = new Stripe();
+   }
+   
+   /**
+    * Returns the weakest mode that covers both specified modes.
+    * @param mode1 a lock mode
+    * @param mode2 a lock mode
+    * @return the weakest mode covering both
+    */
+   static int cover(int mode1, int mode2) {
+      return COVER[mode1][mode2];
+   }
+   
+   /**
+    * Grants a lock of the specified mode on the specified resource.
+    * If the transaction already holds a lock on the resource,
+    * the lock is converted to the weakest mode that covers both.
+    * If the lock conflicts with the locks of other transactions,
+    * or (unless it is a conversion) another request is already 
+    * waiting for the resource, then the calling thread will
+    * be placed on the resource's queue until the lock can be granted.
+    * An exception is thrown if the request would cause a deadlock
+    * and the transaction is chosen as its victim,
+    * or if the request times out.
+    * @param txnum the requesting transaction
+    * @param res the block or file name
+    * @param mode the lock mode
+    */
+   void lock(int txnum, Object res, int mode) {
+      requests.increment();
+      Stripe stripe = stripe(res);
+      Request req;
+      stripe.latch.lock();
+      try {
+         LockState state = stripe.states.get(res);
+         if (state == null) {
+            state = new LockState();
+            stripe.states.put(res, state);
+         }
+         Integer held = state.holders.get(txnum);
+         if (held != null && cover(held, mode) == held)
+            return;
+         boolean conversion = (held != null);
+         req = new Request(txnum, conversion ? cover(held, mode) : mode, res, state);
+         boolean mustwait = conversion
+               ? !state.compatible(req)
+               : !state.waiting.isEmpty() || !state.compatible(req);
+         if (!mustwait) {
+            state.grant(req);
+            return;
+         }
+         req.granted = stripe.latch.newCondition();
+         req.waitstart = System.nanoTime();
+         if (conversion)
+            state.waiting.addFirst(req);
+         else
+            state.waiting.addLast(req);
+         waits.put(txnum, req);
+      }
+      finally {
+         stripe.latch.unlock();
+      }
+      try {
+         detectDeadlock(req);
+         stripe.latch.lock();
+         try {
+            stripe.await(res, req);
+         }
+         finally {
+            stripe.latch.unlock();
+         }
+      }
+      finally {
+         waits.remove(txnum);
+         recordWait(res, req);
+      }
+   }
+   
+   /**
+    * Releases the specified transaction's lock on the specified resource.
+    * The waiting requests on that resource that
+    * have become compatible are granted.
+    * @param txnum the transaction holding the lock
+    * @param res the block or file name
+    */
+   void unlock(int txnum, Object res) {
+      Stripe stripe = stripe(res);
+      stripe.latch.lock();
+      try {
+         LockState state = stripe.states.get(res);
+         int held = state.holders.remove(txnum);
+         state.counts[held]--;
+         stripe.grantWaiting(res, state);
+      }
+      finally {
+         stripe.latch.unlock();
+      }
+   }
+   
+   /**
+    * Returns the number of times that the wait-for graph was searched.
+    * @return the number of deadlock detections
+    */
+   long detections() {
+      return detections.get();
+   }
+   
+   /**
+    * Returns the number of deadlocks found, each of which
+    * aborted one transaction.
+    * @return the number of deadlocks
+    */
+   long deadlocks() {
+      return deadlocks.get();
+   }
+   
+   /**
+    * Returns the total time spent searching the wait-for graph.
+    * @return the detection time in nanoseconds
+    */
+   long detectionNanos() {
+      return detectionnanos.get();
+   }
+   
+   /**
+    * Returns the number of lock requests, including conversions.
+    * @return the number of requests
+    */
+   long requests() {
+      return requests.sum();
+   }
    
-   private Map<Block,Integer> locks = new HashMap<Block,Integer>();
+   /**
+    * Returns the number of requests that had to wait.
+    * @return the number of waits
+    */
+   long waitCount() {
+      return waitcount.sum();
+   }
+   
+   /**
+    * Returns the number of requests that timed out.
+    * @return the number of timeouts
+    */
+   long timeouts() {
+      return timeouts.sum();
+   }
+   
+   /**
+    * Returns the histogram of the waiting times of requests.
+    * @return the count of each bucket
+    * @see #HISTOGRAM_BUCKETS
+    */
+   long[] waitHistogram() {
+      long[] result = new long[HISTOGRAM_BUCKETS];
+      for (int i=0; i<HISTOGRAM_BUCKETS; i++)
+         result[i] = waithistogram.get(i);
+      return result;
+   }
+   
+   /**
+    * Returns the number of waits and the total time waited,
+    * in nanoseconds, for each resource for which a request waited.
+    * @return a map from each contended resource to its waits and time
+    */
+   Map<Object,long[]> contention() {
+      Map<Object,long[]> result = new HashMap<Object,long[]>();
+      for (Map.Entry<Object,Contention> e : contention.entrySet()) {
+         Contention c = e.getValue();
+         synchronized (c) {
+            result.put(e.getKey(), new long[] {c.waits, c.waitnanos});
+         }
+      }
+      return result;
+   }
    
    /**
-    * Grants an SLock on the specified block.
-    * If an XLock exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the lock is released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Resets the request and deadlock statistics.
     */
-   public synchronized void sLock(Block blk) {
+   void resetStatistics() {
+      requests.reset();
+      waitcount.reset();
+      timeouts.reset();
+      for (int i=0; i<HISTOGRAM_BUCKETS; i++)
+         waithistogram.set(i, 0);
+      contention.clear();
+      detections.set(0);
+      deadlocks.set(0);
+      detectionnanos.set(0);
+   }
+   
+   /**
+    * Returns a description of each lock held and each
+    * request waiting, as an array of
+    * resource, transaction, mode name, whether granted, and
+    * the time waited so far in nanoseconds.
+    * The stripes are latched one at a time, so the locks
+    * of different resources may be seen at slightly different times.
+    * @return the descriptions of the locks and waiting requests
+    */
+   List<Object[]> locks() {
+      List<Object[]> result = new ArrayList<Object[]>();
+      for (Stripe stripe : stripes) {
+         stripe.latch.lock();
+         try {
+            long now = System.nanoTime();
+            for (Map.Entry<Object,LockState> e : stripe.states.entrySet()) {
+               Object res = e.getKey();
+               LockState state = e.getValue();
+               for (Map.Entry<Integer,Integer> h : state.holders.entrySet())
+                  result.add(new Object[] {res, h.getKey(), MODE_NAMES[h.getValue()], true, 0L});
+               for (Request r : state.waiting)
+                  result.add(new Object[] {res, r.txnum, MODE_NAMES[r.mode], false, now - r.waitstart});
+            }
+         }
+         finally {
+            stripe.latch.unlock();
+         }
+      }
+      return result;
+   }
+   
+   /**
+    * Returns the wait-for graph: for each waiting transaction,
+    * the transactions that it waits for.
+    * Every stripe is latched, in order, so that the graph
+    * is seen at a single moment.
+    * @return the waiting transactions and their blockers
+    */
+   Map<Integer,List<Integer>> waitForGraph() {
+      Map<Integer,List<Integer>> result = new TreeMap<Integer,List<Integer>>();
+      for (Stripe stripe : stripes)
+         stripe.latch.lock();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasXlock(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasXlock(blk))
-            throw new LockAbortException();
-         int val = getLockVal(blk);  // will not be negative
-         locks.put(blk, val+1);
+         for (int txnum : waits.keySet())
+            result.put(txnum, blockers(txnum));
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         for (int i=STRIPES-1; i>=0; i--)
+            stripes[i].latch.unlock();
       }
+      return result;
    }
    
    /**
-    * Grants an XLock on the specified block.
-    * If a lock of any type exists when the method is called,
-    * then the calling thread will be placed on a wait list
-    * until the locks are released.
-    * If the thread remains on the wait list for a certain 
-    * amount of time (currently 10 seconds),
-    * then an exception is thrown.
-    * @param blk a reference to the disk block
+    * Adds a request that waited to the statistics.
     */
-   synchronized void xLock(Block blk) {
+   private void recordWait(Object res, Request req) {
+      long nanos = System.nanoTime() - req.waitstart;
+      waitcount.increment();
+      if (!req.isgranted && !req.isvictim)
+         timeouts.increment();
+      int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+      waithistogram.incrementAndGet(Math.min(bucket, HISTOGRAM_BUCKETS-1));
+      Contention c = contention.get(res);
+      if (c == null) {
+         if (contention.size() >= MAX_CONTENDED)
+            return;
+         c = new Contention();
+         Contention prev = contention.putIfAbsent(res, c);
+         if (prev != null)
+            c = prev;
+      }
+      synchronized (c) {
+         c.waits++;
+         c.waitnanos += nanos;
+      }
+   }
+   
+   private Stripe stripe(Object res) {
+      return stripes[stripeIndex(res)];
+   }
+   
+   private int stripeIndex(Object res) {
+      return (res.hashCode() & Integer.MAX_VALUE) % STRIPES;
+   }
+   
+   /**
+    * Searches the wait-for graph for a cycle through the
+    * transaction of the specified request, and aborts the
+    * youngest transaction of the cycle.
+    * Since any other cycle would have been found when it formed,
+    * only cycles through the new request need to be considered.
+    * Aborting a victim breaks only the cycle that was found,
+    * so the search is repeated until there is no cycle left,
+    * or the requesting transaction is itself the victim.
+    * No latch is held during the search, except that of the
+    * stripe whose request is being read.
+    */
+   private void detectDeadlock(Request req) {
+      long start = System.nanoTime();
       try {
-         long timestamp = System.currentTimeMillis();
-         while (hasOtherSLocks(blk) && !waitingTooLong(timestamp))
-            wait(MAX_TIME);
-         if (hasOtherSLocks(blk))
-            throw new LockAbortException();
-         locks.put(blk, -1);
+         List<Integer> cycle = findCycle(req.txnum);
+         while (cycle != null && abortVictim(cycle) != req.txnum)
+            cycle = findCycle(req.txnum);
       }
-      catch(InterruptedException e) {
-         throw new LockAbortException();
+      finally {
+         detections.incrementAndGet();
+         detectionnanos.addAndGet(System.nanoTime() - start);
       }
    }
    
    /**
-    * Releases a lock on the specified block.
-    * If this lock is the last lock on that block,
-    * then the waiting transactions are notified.
-    * @param blk a reference to the disk block
+    * Aborts the youngest transaction of the specified cycle,
+    * if its transactions still wait for each other.
+    * The stripes of their requests are latched, in order,
+    * while the cycle is checked and the victim is chosen.
+    * @param cycle the transactions of the cycle, each waiting
+    * for the one before it, and the first for the last
+    * @return the victim, or -1 if the cycle no longer exists
     */
-   synchronized void unlock(Block blk) {
-      int val = getLockVal(blk);
-      if (val > 1)
-         locks.put(blk, val-1);
-      else {
-         locks.remove(blk);
-         notifyAll();
+   private int abortVictim(List<Integer> cycle) {
+      List<Request> reqs = new ArrayList<Request>();
+      SortedSet<Integer> latched = new TreeSet<Integer>();
+      for (int txnum : cycle) {
+         Request r = waits.get(txnum);
+         if (r == null)
+            return -1;
+         reqs.add(r);
+         latched.add(stripeIndex(r.res));
+      }
+      for (int i : latched)
+         stripes[i].latch.lock();
+      try {
+         int n = cycle.size();
+         for (int i=0; i<n; i++) {
+            int txnum = cycle.get(i);
+            if (waits.get(txnum) != reqs.get(i) || !blockers(txnum).contains(cycle.get((i+n-1) % n)))
+               return -1;
+         }
+         int victim = Collections.max(cycle);
+         Request vreq = reqs.get(cycle.indexOf(victim));
+         vreq.isvictim = true;
+         vreq.granted.signal();
+         deadlocks.incrementAndGet();
+         return victim;
+      }
+      finally {
+         for (int i : latched)
+            stripes[i].latch.unlock();
       }
    }
    
-   private boolean hasXlock(Block blk) {
-      return getLockVal(blk) < 0;
+   /**
+    * Does a depth-first search of the wait-for graph
+    * from the specified transaction, and returns the
+    * transactions on a path that leads back to it,
+    * with the specified transaction last.
+    * @return the transactions of a cycle, or null if there is none
+    */
+   private List<Integer> findCycle(int txnum) {
+      Deque<Integer> path = new ArrayDeque<Integer>();
+      Deque<Iterator<Integer>> edges = new ArrayDeque<Iterator<Integer>>();
+      Set<Integer> visited = new HashSet<Integer>();
+      path.push(txnum);
+      edges.push(blockers(txnum).iterator());
+      visited.add(txnum);
+      while (!path.isEmpty()) {
+         Iterator<Integer> iter = edges.peek();
+         if (!iter.hasNext()) {
+            path.pop();
+            edges.pop();
+            continue;
+         }
+         int next = iter.next();
+         if (next == txnum)
+            return new ArrayList<Integer>(path);
+         if (visited.add(next)) {
+            path.push(next);
+            edges.push(blockers(next).iterator());
+         }
+      }
+      return null;
    }
    
-   private boolean hasOtherSLocks(Block blk) {
-      return getLockVal(blk) > 1;
+   /**
+    * Returns the transactions that the specified transaction waits for:
+    * those holding an incompatible lock on the resource it
+    * waits for, and those whose requests are ahead of it.
+    * The stripe of the request is latched while it is read.
+    * A request that is no longer queued waits for no one.
+    */
+   private List<Integer> blockers(int txnum) {
+      List<Integer> result = new ArrayList<Integer>();
+      Request req = waits.get(txnum);
+      if (req == null)
+         return result;
+      Stripe stripe = stripe(req.res);
+      stripe.latch.lock();
+      try {
+         if (req.isgranted || req.isvictim)
+            return result;
+         LockState state = req.state;
+         boolean queued = false;
+         for (Request r : state.waiting) {
+            if (r == req) {
+               queued = true;
+               break;
+            }
+            result.add(r.txnum);
+         }
+         if (!queued) {
+            result.clear();
+            return result;
+         }
+         for (Map.Entry<Integer,Integer> e : state.holders.entrySet())
+            if (e.getKey() != txnum && !COMPATIBLE[req.mode][e.getValue()])
+               result.add(e.getKey());
+         return result;
+      }
+      finally {
+         stripe.latch.unlock();
+      }
    }
    
-   private boolean waitingTooLong(long starttime) {
-      return System.currentTimeMillis() - starttime > MAX_TIME;
+   /**
+    * A request waiting in the queue of a resource,
+    * for a lock of the specified mode.
+    * Each request has its own condition, so that it can be
+    * woken without waking the other waiters.
+    */
+   private static class Request {
+      int txnum;
+      int mode;
+      Object res;
+      LockState state;
+      Condition granted;
+      long waitstart;
+      boolean isgranted = false;
+      boolean isvictim = false;
+      
+      Request(int txnum, int mode, Object res, LockState state) {
+         this.txnum = txnum;
+         this.mode = mode;
+         this.res = res;
+         this.state = state;
+      }
+   }
+   
+   /**
+    * The waits for a contended resource.
+    */
+   private static class Contention {
+      long waits;
+      long waitnanos;
    }
    
-   private int getLockVal(Block blk) {
-      Integer ival = locks.get(blk);
-      return (ival == null) ? 0 : ival.intValue();
+   /**
+    * The locks of a resource: the mode held by each transaction,
+    * the number of locks of each mode, and the queue of waiting requests.
+    */
+   private static class LockState {
+      Map<Integer,Integer> holders = new HashMap<Integer,Integer>();
+      int[] counts = new int[X+1];
+      LinkedList<Request> waiting = new LinkedList<Request>();
+      
+      /**
+       * Determines whether the specified request could be granted now,
+       * ignoring the requests ahead of it.
+       * The requester's own lock, if any, does not conflict.
+       */
+      boolean compatible(Request req) {
+         Integer own = holders.get(req.txnum);
+         for (int m=IS; m<=X; m++) {
+            int others = counts[m] - ((own != null && own == m) ? 1 : 0);
+            if (others > 0 && !COMPATIBLE[req.mode][m])
+               return false;
+         }
+         return true;
+      }
+      
+      void grant(Request req) {
+         Integer own = holders.put(req.txnum, req.mode);
+         if (own != null)
+            counts[own]--;
+         counts[req.mode]++;
+      }
+   }
+   
+   /**
+    * One stripe of the lock table.
+    * The stripe's latch protects the states of its resources.
+    */
+   private static class Stripe {
+      ReentrantLock latch = new ReentrantLock();
+      Map<Object,LockState> states = new HashMap<Object,LockState>();
+      
+      /**
+       * Waits until the request is granted.
+       * If the request's transaction is chosen as a deadlock victim,
+       * the request times out, or the thread is interrupted,
+       * the request is removed from the queue,
+       * which may let the requests behind it be granted.
+       * The caller holds the stripe's latch.
+       */
+      void await(Object res, Request req) {
+         long remaining = TimeUnit.MILLISECONDS.toNanos(SimpleDB.LOCK_TIMEOUT);
+         try {
+            while (!req.isgranted && !req.isvictim && remaining > 0)
+               remaining = req.granted.awaitNanos(remaining);
+         }
+         catch (InterruptedException e) {
+            // abandon the request below
+         }
+         if (req.isgranted)
+            return;
+         req.state.waiting.remove(req);
+         grantWaiting(res, req.state);
+         if (req.isvictim)
+            throw new LockAbortException("deadlock victim: transaction " + req.txnum);
+         throw new LockAbortException("lock wait timed out: transaction " + req.txnum);
+      }
+      
+      /**
+       * Grants the requests at the front of the resource's queue,
+       * in order, until one of them is incompatible.
+       * The resource's state is discarded when it has
+       * no locks and no waiters.
+       */
+      void grantWaiting(Object res, LockState state) {
+         while (!state.waiting.isEmpty() && state.compatible(state.waiting.getFirst())) {
+            Request req = state.waiting.removeFirst();
+            state.grant(req);
+            req.isgranted = true;
+            req.granted.signal();
+         }
+         if (state.holders.isEmpty() && state.waiting.isEmpty())
+            states.remove(res);
+      }
    }
 }
@@ -0,0 +1,18 @@
+package simpledb.tx.concurrency;
+
+/**
+ * A runtime exception indicating that an optimistic
+ * transaction needs to abort, because another transaction
+ * modified what it read.
+ * The transaction can be retried.
+ * @author Edward Sciore
+ */
+@SuppressWarnings("serial")
+public class ValidationAbortException extends RuntimeException {
+   public ValidationAbortException() {
+   }
+   
+   public ValidationAbortException(String msg) {
+      super(msg);
+   }
+}
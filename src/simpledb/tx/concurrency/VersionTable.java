@@ -0,0 +1,357 @@
+package simpledb.tx.concurrency;
+
+import static simpledb.file.Page.*;
+import simpledb.file.*;
+import simpledb.buffer.Buffer;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The version table, which keeps the earlier versions of
+ * blocks that snapshot transactions may need to read.
+ * <P>
+ * When a transaction first modifies a block, it adds a version
+ * of the block to the table, in which it then marks each byte
+ * (or, for the bits of the occupancy bitmap, each bit) that it
+ * modifies; the first time it modifies a byte or bit, it saves
+ * its previous value, as part of an image of the modified range.
+ * The versions of each block form a chain, newest first.
+ * Several transactions may be modifying a block at once, but
+ * each of them modifies only the records it has locked, so
+ * no two of them modify the same bits at the same time.
+ * Data that is modified without locks and never undone, such
+ * as the bounds of a zone map, has no versions; snapshots
+ * read its current value.
+ * <P>
+ * The table keeps a logical clock, which advances whenever
+ * a transaction that saved versions commits or rolls back.
+ * A snapshot is identified by the time at which it began.
+ * A transaction is visible to a snapshot if it finished at
+ * or before that time.
+ * To read a block, a snapshot starts from its current contents
+ * and restores each bit that an invisible transaction modified
+ * to the value saved by the earliest such transaction.
+ * The transactions that modified a bit did so one after another,
+ * each locking the bit until it finished; the earliest invisible
+ * one thus saved the value that the bit had when the snapshot began.
+ * The bits that the reading transaction modified itself
+ * keep their current values.
+ * <P>
+ * The versions of a finished transaction are discarded
+ * as soon as every active snapshot can see it.
+ * <P>
+ * The versions also serve to validate optimistic transactions,
+ * which read a snapshot and record the bytes that they read.
+ * An optimistic transaction can commit only if no transaction
+ * that finished after its snapshot began, nor any optimistic
+ * transaction that has validated but not yet finished,
+ * modified those bytes.
+ * @author Edward Sciore
+ */
+class VersionTable {
+   private long clock = 0;
+   private TreeMap<Long,Integer> snapshots = new TreeMap<Long,Integer>();
+   private Map<Block,Version> chains = new ConcurrentHashMap<Block,Version>();
+   private Map<Integer,List<Version>> unfinished = new HashMap<Integer,List<Version>>();
+   private Deque<List<Version>> finished = new ArrayDeque<List<Version>>();
+   private Set<Integer> validated = new HashSet<Integer>();
+   private static AtomicLong imageclock = new AtomicLong();  // orders the saved images
+   
+   /**
+    * Adds a version of the specified block, which the
+    * specified transaction is about to modify.
+    * @param txnum the modifying transaction
+    * @param blk a reference to the disk block
+    * @return the version, in which the modified bits are to be marked
+    */
+   synchronized Version save(int txnum, Block blk) {
+      Version v = new Version(txnum, blk);
+      v.older = chains.get(blk);
+      chains.put(blk, v);
+      List<Version> versions = unfinished.get(txnum);
+      if (versions == null) {
+         versions = new ArrayList<Version>();
+         unfinished.put(txnum, versions);
+      }
+      versions.add(v);
+      return v;
+   }
+   
+   /**
+    * Records that the specified transaction has committed
+    * or rolled back.
+    * Its versions are discarded unless an active
+    * snapshot began before now.
+    * @param txnum the finished transaction
+    */
+   synchronized void finish(int txnum) {
+      validated.remove(txnum);
+      List<Version> versions = unfinished.remove(txnum);
+      if (versions == null)
+         return;
+      clock++;
+      for (Version v : versions)
+         v.endtime = clock;
+      if (snapshots.isEmpty())
+         discard(versions);
+      else
+         finished.addLast(versions);
+   }
+   
+   /**
+    * Begins a snapshot of the current state of the database.
+    * @return the time of the snapshot
+    */
+   synchronized long beginSnapshot() {
+      Integer count = snapshots.get(clock);
+      snapshots.put(clock, (count == null) ? 1 : count+1);
+      return clock;
+   }
+   
+   /**
+    * Ends the snapshot having the specified time,
+    * and discards the versions that no remaining
+    * snapshot can read.
+    * @param time the time of the snapshot
+    */
+   synchronized void endSnapshot(long time) {
+      int count = snapshots.get(time);
+      if (count > 1)
+         snapshots.put(time, count-1);
+      else
+         snapshots.remove(time);
+      while (!finished.isEmpty() && (snapshots.isEmpty()
+             || finished.getFirst().get(0).endtime <= snapshots.firstKey()))
+         discard(finished.removeFirst());
+   }
+   
+   /**
+    * Determines whether the optimistic transaction having the
+    * specified snapshot time can commit, and if so, marks it as validated.
+    * The transaction cannot commit if one of the bytes it read
+    * was modified by another transaction that finished after its
+    * snapshot began, or that has validated and is committing.
+    * A transaction that rolled back is treated the same way,
+    * so validation can fail needlessly but is never wrong.
+    * @param txnum the optimistic transaction
+    * @param time the time of its snapshot
+    * @param reads a mask of the bytes read by the transaction, for each block
+    * @return true if the transaction can commit
+    */
+   synchronized boolean validate(int txnum, long time, Map<Block,byte[]> reads) {
+      for (Map.Entry<Block,byte[]> e : reads.entrySet()) {
+         for (Version v = chains.get(e.getKey()); v != null; v = v.older) {
+            boolean conflicting = (v.endtime == Long.MAX_VALUE) 
+                  ? validated.contains(v.txnum) : v.endtime > time;
+            if (conflicting && v.txnum != txnum && v.overlaps(e.getValue()))
+               return false;
+         }
+      }
+      validated.add(txnum);
+      return true;
+   }
+   
+   /**
+    * Returns the contents of the specified buffer's block as seen by
+    * the specified transaction, whose snapshot has the specified time.
+    * The transaction sees its own modifications.
+    * The method returns null if the transaction sees
+    * the current contents of the block.
+    * The caller holds the latch of the buffer, so
+    * that the block is not modified in the meantime.
+    * @param buff the buffer holding the block
+    * @param time the time of the snapshot
+    * @param txnum the reading transaction
+    * @return the page as of the snapshot, or null
+    */
+   Page version(Buffer buff, long time, int txnum) {
+      Block blk = buff.block();
+      if (!chains.containsKey(blk))
+         return null;
+      synchronized (this) {
+         List<Image> restored = new ArrayList<Image>();
+         Version own = null;
+         for (Version v = chains.get(blk); v != null; v = v.older) {
+            if (v.txnum == txnum)
+               own = v;
+            else if (v.endtime > time)
+               restored.addAll(v.images);
+         }
+         if (restored.isEmpty())
+            return null;
+         Collections.sort(restored);
+         byte[] current = buff.getBytes(0, BLOCK_SIZE);
+         byte[] result = current.clone();
+         for (Image img : restored)
+            img.restore(result);
+         if (own != null)
+            own.keep(result, current);
+         return new Page(ByteBuffer.wrap(result));
+      }
+   }
+   
+   /**
+    * Returns the bits of the integer at the specified offset of
+    * the specified block that unfinished transactions, other than
+    * the specified one, have modified.
+    * The caller holds the latch of the block's buffer.
+    * @param blk a reference to the disk block
+    * @param offset the offset of the integer
+    * @param txnum the asking transaction
+    * @return the bits modified by unfinished transactions
+    */
+   int unfinishedBits(Block blk, int offset, int txnum) {
+      if (!chains.containsKey(blk))
+         return 0;
+      synchronized (this) {
+         int bits = 0;
+         for (Version v = chains.get(blk); v != null; v = v.older)
+            if (v.endtime == Long.MAX_VALUE && v.txnum != txnum)
+               bits |= v.modifiedBits(offset);
+         return bits;
+      }
+   }
+   
+   /**
+    * Removes the versions of a finished transaction from their chains.
+    */
+   private void discard(List<Version> versions) {
+      for (Version v : versions) {
+         Version newest = chains.get(v.blk);
+         if (newest == v) {
+            if (v.older == null)
+               chains.remove(v.blk);
+            else
+               chains.put(v.blk, v.older);
+         }
+         else {
+            Version w = newest;
+            while (w.older != v)
+               w = w.older;
+            w.older = v.older;
+         }
+      }
+   }
+   
+   /**
+    * The version of a block saved by a transaction: a mask of the
+    * bits that the transaction modified, and the images holding
+    * the values of those bits before it modified them.
+    */
+   static class Version {
+      private int txnum;
+      private Block blk;
+      private byte[] modified = new byte[BLOCK_SIZE];
+      private List<Image> images = new ArrayList<Image>();
+      private long endtime = Long.MAX_VALUE;  // the transaction has not finished
+      private Version older;
+      
+      Version(int txnum, Block blk) {
+         this.txnum = txnum;
+         this.blk = blk;
+      }
+      
+      /**
+       * Marks the bytes in the specified range as modified,
+       * saving the values of those not marked before.
+       * The caller holds the latch of the block's buffer,
+       * and has not yet modified the bytes.
+       * @param buff the buffer holding the block
+       * @param offset the offset of the range
+       * @param length the length of the range
+       */
+      void markBytes(Buffer buff, int offset, int length) {
+         byte[] bits = new byte[length];
+         Arrays.fill(bits, (byte) -1);
+         mark(buff, offset, bits);
+      }
+      
+      /**
+       * Marks the specified bits of the integer at 
+       * the specified offset as modified,
+       * saving the values of those not marked before.
+       * The caller holds the latch of the block's buffer,
+       * and has not yet modified the bits.
+       * @param buff the buffer holding the block
+       * @param offset the offset of the integer
+       * @param mask the bits of the integer
+       */
+      void markBits(Buffer buff, int offset, int mask) {
+         byte[] bits = new byte[INT_SIZE];
+         for (int i=0; i<INT_SIZE; i++)
+            bits[i] = (byte) (mask >>> (8 * (INT_SIZE - 1 - i)));
+         mark(buff, offset, bits);
+      }
+      
+      private void mark(Buffer buff, int offset, byte[] bits) {
+         boolean saves = false;
+         for (int i=0; i<bits.length; i++) {
+            bits[i] &= ~modified[offset + i];
+            modified[offset + i] |= bits[i];
+            saves |= (bits[i] != 0);
+         }
+         if (saves)
+            images.add(new Image(offset, buff.getBytes(offset, bits.length), bits));
+      }
+      
+      /**
+       * Returns the bits of the integer at the specified
+       * offset that the transaction modified.
+       */
+      private int modifiedBits(int offset) {
+         int bits = 0;
+         for (int i=0; i<INT_SIZE; i++)
+            bits = (bits << 8) | (modified[offset + i] & 0xFF);
+         return bits;
+      }
+      
+      /**
+       * Copies the bits that the transaction modified
+       * from the current contents of the block to the page.
+       */
+      private void keep(byte[] page, byte[] current) {
+         for (int i=0; i<BLOCK_SIZE; i++)
+            if (modified[i] != 0)
+               page[i] = (byte) ((page[i] & ~modified[i]) | (current[i] & modified[i]));
+      }
+      
+      private boolean overlaps(byte[] mask) {
+         for (int i=0; i<BLOCK_SIZE; i++)
+            if ((modified[i] & mask[i]) != 0)
+               return true;
+         return false;
+      }
+      
+   }
+   
+   /**
+    * The values of the specified bits of a range of bytes,
+    * before a transaction first modified them.
+    * Images are ordered by the time they were saved, latest first,
+    * so that restoring them in order leaves the earliest value
+    * of each bit.
+    */
+   private static class Image implements Comparable<Image> {
+      private long seq = imageclock.incrementAndGet();
+      private int offset;
+      private byte[] before;
+      private byte[] bits;
+      
+      Image(int offset, byte[] before, byte[] bits) {
+         this.offset = offset;
+         this.before = before;
+         this.bits = bits;
+      }
+      
+      public int compareTo(Image img) {
+         return Long.compare(img.seq, seq);
+      }
+      
+      private void restore(byte[] page) {
+         for (int i=0; i<bits.length; i++)
+            page[offset + i] = (byte) ((page[offset + i] & ~bits[i]) | (before[i] & bits[i]));
+      }
+   }
+}
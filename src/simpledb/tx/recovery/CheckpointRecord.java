@@ -1,33 +1,70 @@
 package simpledb.tx.recovery;
 
+import static simpledb.file.Page.*;
+import java.util.*;
+import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogMgr;
+import simpledb.log.LogRecordWriter;
 
 /**
  * The CHECKPOINT log record.
+ * The record lists the transactions that were active
+ * when it was written; a checkpoint with no active
+ * transactions is quiescent.
+ * It also holds the redo LSN: every modification logged
+ * before that LSN was on disk when the checkpoint was written.
  * @author Edward Sciore
  */
 class CheckpointRecord implements LogRecord {
+   /**
+    * The largest number of active transactions that
+    * a checkpoint record can list, given that the record
+    * must fit in a log block.
+    */
+   static final int MAX_TXS = (LogMgr.MAX_RECORD_SIZE
+                               - 4 * INT_SIZE)  // op, redo LSN (a long), count
+                              / INT_SIZE;
+   
+   private long redolsn;
+   private Collection<Integer> txs;
    
    /**
-    * Creates a quiescent checkpoint record.
+    * Creates a checkpoint record listing the specified
+    * active transactions.
+    * @param redolsn the LSN at which recovery starts redoing modifications
+    * @param txs the IDs of the active transactions
     */
-   public CheckpointRecord() {}
+   public CheckpointRecord(long redolsn, Collection<Integer> txs) {
+      this.redolsn = redolsn;
+      this.txs = txs;
+   }
    
    /**
-    * Creates a log record by reading no other values 
-    * from the basic log record.
+    * Creates a log record by reading the redo LSN, the number of active
+    * transactions and their IDs from the basic log record.
     * @param rec the basic log record
     */
-   public CheckpointRecord(BasicLogRecord rec) {}
+   public CheckpointRecord(BasicLogRecord rec) {
+      redolsn = rec.nextLong();
+      int n = rec.nextInt();
+      txs = new ArrayList<Integer>(n);
+      for (int i=0; i<n; i++)
+         txs.add(rec.nextInt());
+   }
    
    /** 
     * Writes a checkpoint record to the log.
     * This log record contains the CHECKPOINT operator,
-    * and nothing else.
-    * @return the LSN of the last log value
+    * followed by the redo LSN, the number of active
+    * transactions and their IDs.
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {CHECKPOINT};
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(CHECKPOINT).putLong(redolsn)
+         .putInt(txs.size());
+      for (int tx : txs)
+         rec.putInt(tx);
       return logMgr.append(rec);
    }
    
@@ -43,13 +80,53 @@ class CheckpointRecord implements LogRecord {
       return -1; // dummy value
    }
    
+   /**
+    * Checkpoint records have no associated transaction,
+    * and so the method returns a "dummy", negative LSN.
+    */
+   public long prevLSN() {
+      return -1; // dummy value
+   }
+   
+   /**
+    * Returns the transactions that were active when
+    * the checkpoint was written.
+    * @return the IDs of the active transactions
+    */
+   public Collection<Integer> activeTxs() {
+      return txs;
+   }
+   
+   /**
+    * Returns the LSN at which recovery starts redoing
+    * modifications.
+    * @return the redo LSN
+    */
+   public long redoLSN() {
+      return redolsn;
+   }
+   
    /**
     * Does nothing, because a checkpoint record
     * contains no undo information.
     */
    public void undo(int txnum) {}
    
+   /**
+    * Returns null, because a checkpoint record
+    * does not modify a block.
+    */
+   public Block block() {
+      return null;
+   }
+   
+   /**
+    * Does nothing, because a checkpoint record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
-      return "<CHECKPOINT>";
+      return "<CHECKPOINT " + redolsn + " " + txs + ">";
    }
 }
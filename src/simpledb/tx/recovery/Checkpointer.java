@@ -0,0 +1,24 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+
+/**
+ * The background thread that writes periodic checkpoints.
+ * Every {@link simpledb.server.SimpleDB#CHECKPOINT_INTERVAL} milliseconds,
+ * the thread calls {@link RecoveryMgr#checkpoint()}.
+ * A checkpoint does not stop other transactions, and so
+ * the thread runs concurrently with them.
+ */
+class Checkpointer implements Runnable {
+   public void run() {
+      while (true) {
+         try {
+            Thread.sleep(SimpleDB.CHECKPOINT_INTERVAL);
+         }
+         catch (InterruptedException e) {
+            return;
+         }
+         RecoveryMgr.checkpoint();
+      }
+   }
+}
@@ -0,0 +1,104 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.*;
+import simpledb.log.BasicLogRecord;
+import simpledb.log.LogRecordWriter;
+
+class LoadRecord implements LogRecord {
+   private long prevlsn;
+   private int txnum;
+   private Block blk;
+
+   /**
+    * Creates a new load log record.
+    * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
+    * @param blk the block that was loaded
+    */
+   public LoadRecord(int txnum, long prevlsn, Block blk) {
+      this.txnum = txnum;
+      this.prevlsn = prevlsn;
+      this.blk = blk;
+   }
+
+   /**
+    * Creates a log record by reading four other values from the log.
+    * @param rec the basic log record
+    */
+   public LoadRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+   }
+
+   /**
+    * Writes a load record to the log.
+    * This log record contains the LOAD operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, and the filename and number
+    * of the loaded block.
+    * The contents of the block are not logged.
+    * @return the LSN of the log record
+    */
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(LOAD).putInt(txnum).putLong(prevlsn)
+         .putString(blk.fileName()).putInt(blk.number());
+      return logMgr.append(rec);
+   }
+
+   public int op() {
+      return LOAD;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
+
+   public Block block() {
+      return blk;
+   }
+
+   public String toString() {
+      return "<LOAD " + txnum + " " + blk + ">";
+   }
+
+   /**
+    * Empties the loaded block.
+    * Since the block was appended by the loading transaction,
+    * its contents before the load were those of an empty page.
+    * The method pins a buffer to the specified block,
+    * zeroes its page (using a dummy LSN), and unpins the buffer.
+    * A zeroed page has a clear occupancy bitmap, and 
+    * so contains no records.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.format(ZERO_FORMATTER, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+
+   /**
+    * Does nothing, because the contents of the loaded
+    * block are not logged.
+    * Instead, a transaction that loads blocks writes them
+    * to disk before it commits.
+    */
+   public void redo(int txnum) {}
+
+   private static final PageFormatter ZERO_FORMATTER = new PageFormatter() {
+      public void format(Page page) {
+         for (int pos=0; pos+Page.INT_SIZE<=Page.BLOCK_SIZE; pos+=Page.INT_SIZE)
+            page.setInt(pos, 0);
+      }
+   };
+}
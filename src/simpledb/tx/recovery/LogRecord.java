@@ -1,5 +1,6 @@
 package simpledb.tx.recovery;
 
+import simpledb.file.Block;
 import simpledb.log.LogMgr;
 import simpledb.server.SimpleDB;
 
@@ -9,11 +10,13 @@ import simpledb.server.SimpleDB;
  */
 public interface LogRecord {
    /**
-    * The six different types of log record
+    * The eight different types of log record.
+    * Codes 4 and 5 were used by the former SETINT and
+    * SETSTRING records, which PAGEDIFF replaces.
     */
    static final int CHECKPOINT = 0, START = 1,
       COMMIT = 2, ROLLBACK  = 3,
-      SETINT = 4, SETSTRING = 5;
+      LOAD = 6, PAGEDIFF = 7, SETBITS = 8, SETBYTES = 9;
    
    static final LogMgr logMgr = SimpleDB.logMgr();
    
@@ -21,7 +24,7 @@ public interface LogRecord {
     * Writes the record to the log and returns its LSN.
     * @return the LSN of the record in the log
     */
-   int writeToLog();
+   long writeToLog();
    
    /**
     * Returns the log record's type. 
@@ -36,11 +39,36 @@ public interface LogRecord {
     */
    int txNumber();
    
+   /**
+    * Returns the LSN of the previous log record
+    * written by the same transaction.
+    * The records of a transaction thus form a chain,
+    * which rollback follows backwards.
+    * @return the LSN of the transaction's previous log record,
+    * or a negative value if there is none
+    */
+   long prevLSN();
+   
+   /**
+    * Returns the block modified by the operation
+    * encoded by this log record.
+    * @return the modified block, or null if the record does not modify a block
+    */
+   Block block();
+   
    /**
     * Undoes the operation encoded by this log record.
     * The only log record types for which this method
-    * does anything interesting are SETINT and SETSTRING.
+    * does anything interesting are PAGEDIFF, SETBITS and LOAD.
     * @param txnum the id of the transaction that is performing the undo.
     */
    void undo(int txnum);
+   
+   /**
+    * Redoes the operation encoded by this log record.
+    * The only log record types for which this method
+    * does anything interesting are PAGEDIFF, SETBITS and SETBYTES.
+    * @param txnum the id of the transaction that is performing the redo.
+    */
+   void redo(int txnum);
 }
\ No newline at end of file
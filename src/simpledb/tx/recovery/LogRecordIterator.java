@@ -8,13 +8,14 @@ import simpledb.server.SimpleDB;
 /**
  * A class that provides the ability to read records
  * from the log in reverse order.
- * Unlike the similar class 
- * {@link simpledb.log.LogIterator LogIterator},  
+ * Unlike the underlying
+ * {@link simpledb.log.LogReader LogReader},  
  * this class understands the meaning of the log records.
  * @author Edward Sciore
  */
 class LogRecordIterator implements Iterator<LogRecord> {
    private Iterator<BasicLogRecord> iter = SimpleDB.logMgr().iterator();
+   private long lsn = -1;
    
    public boolean hasNext() {
       return iter.hasNext();
@@ -23,14 +24,35 @@ class LogRecordIterator implements Iterator<LogRecord> {
    /**
     * Constructs a log record from the values in the 
     * current basic log record.
+    * @return the next log record, or null if no more records
+    * @see #createLogRecord(BasicLogRecord)
+    */
+   public LogRecord next() {
+      BasicLogRecord rec = iter.next();
+      lsn = rec.lsn();
+      return createLogRecord(rec);
+   }
+   
+   /**
+    * Returns the LSN of the log record most recently
+    * returned by {@link #next()}.
+    * @return the LSN of the current log record
+    */
+   public long lsn() {
+      return lsn;
+   }
+   
+   /**
+    * Constructs a log record from the values in the 
+    * specified basic log record.
     * The method first reads an integer, which denotes
     * the type of the log record.  Based on that type,
     * the method calls the appropriate LogRecord constructor
     * to read the remaining values.
-    * @return the next log record, or null if no more records
+    * @param rec the basic log record
+    * @return the log record, or null if its type is unknown
     */
-   public LogRecord next() {
-      BasicLogRecord rec = iter.next();
+   static LogRecord createLogRecord(BasicLogRecord rec) {
       int op = rec.nextInt();
       switch (op) {
          case CHECKPOINT:
@@ -41,10 +63,14 @@ class LogRecordIterator implements Iterator<LogRecord> {
             return new CommitRecord(rec);
          case ROLLBACK:
             return new RollbackRecord(rec);
-         case SETINT:
-            return new SetIntRecord(rec);
-         case SETSTRING:
-            return new SetStringRecord(rec);
+         case LOAD:
+            return new LoadRecord(rec);
+         case PAGEDIFF:
+            return new PageDiffRecord(rec);
+         case SETBITS:
+            return new SetBitsRecord(rec);
+         case SETBYTES:
+            return new SetBytesRecord(rec);
          default:
             return null;
       }
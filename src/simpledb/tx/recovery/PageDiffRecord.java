@@ -0,0 +1,136 @@
+package simpledb.tx.recovery;
+
+import static simpledb.file.Page.*;
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.log.BasicLogRecord;
+import simpledb.log.LogMgr;
+import simpledb.log.LogRecordWriter;
+
+/**
+ * The PAGEDIFF log record.
+ * The record describes the modification of a range of
+ * bytes of a block, by holding their old and new values.
+ * The recovery manager writes one such record for
+ * all of the changes that a transaction makes to a block
+ * in a single operation, instead of one record per value.
+ */
+class PageDiffRecord implements LogRecord {
+   private long prevlsn;
+   private int txnum, offset;
+   private byte[] oldval, newval;
+   private Block blk;
+
+   /**
+    * Creates a new pagediff log record.
+    * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
+    * @param blk the modified block
+    * @param offset the offset of the first modified byte in the block
+    * @param oldval the previous values of the bytes
+    * @param newval the new values of the bytes
+    */
+   public PageDiffRecord(int txnum, long prevlsn, Block blk, int offset,
+                         byte[] oldval, byte[] newval) {
+      this.txnum = txnum;
+      this.prevlsn = prevlsn;
+      this.blk = blk;
+      this.offset = offset;
+      this.oldval = oldval;
+      this.newval = newval;
+   }
+
+   /**
+    * Creates a log record by reading seven other values from the log.
+    * @param rec the basic log record
+    */
+   public PageDiffRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      offset = rec.nextInt();
+      oldval = rec.nextBytes();
+      newval = rec.nextBytes();
+   }
+   
+   /**
+    * Returns the largest number of bytes whose old and
+    * new values fit in a single pagediff record for the
+    * specified block.
+    * @param blk the modified block
+    * @return the largest range of bytes that the record can describe
+    */
+   static int maxRange(Block blk) {
+      int fixed = 6 * INT_SIZE                       // op, txnum, prevlsn, blknum, offset
+                + STR_SIZE(blk.fileName().length())  // filename
+                + 2 * INT_SIZE;                      // the lengths of the byte arrays
+      return (LogMgr.MAX_RECORD_SIZE - fixed) / 2;
+   }
+
+   /**
+    * Writes a pagediff record to the log.
+    * This log record contains the PAGEDIFF operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and number
+    * of the modified block, the offset of the first modified byte,
+    * and the previous and new values of the bytes.
+    * @return the LSN of the log record
+    */
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(PAGEDIFF).putInt(txnum).putLong(prevlsn)
+         .putString(blk.fileName()).putInt(blk.number())
+         .putInt(offset).putBytes(oldval).putBytes(newval);
+      return logMgr.append(rec);
+   }
+
+   public int op() {
+      return PAGEDIFF;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
+
+   public Block block() {
+      return blk;
+   }
+
+   public String toString() {
+      return "<PAGEDIFF " + txnum + " " + blk + " " + offset + " " + oldval.length + ">";
+   }
+
+   /**
+    * Restores the previous values of the bytes saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setBytes to restore the saved values
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setBytes(offset, oldval, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+
+   /**
+    * Writes the new values of the bytes saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setBytes to store the new values
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setBytes(offset, newval, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+}
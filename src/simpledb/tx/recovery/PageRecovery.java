@@ -0,0 +1,165 @@
+package simpledb.tx.recovery;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.server.SimpleDB;
+
+/**
+ * The redo and undo work of a recovery, partitioned by block.
+ * The records of a block are applied in the same order as
+ * a serial recovery would apply them: its redo records in log order,
+ * followed by its undo records in reverse log order.
+ * Since each record modifies a single block, 
+ * different blocks can be recovered independently;
+ * a pool of worker threads takes the blocks in sorted order,
+ * so that the blocks of a file are read roughly sequentially.
+ * Progress and timings are reported to the server's logger.
+ */
+class PageRecovery {
+   private int txnum;
+   private Map<Block,List<LogRecord>> redoRecs = new HashMap<Block,List<LogRecord>>();
+   private Map<Block,List<LogRecord>> undoRecs = new HashMap<Block,List<LogRecord>>();
+   private int redoCount = 0, undoCount = 0;
+   
+   private Block[] blocks;
+   private AtomicInteger nextBlock = new AtomicInteger(0);
+   private AtomicInteger doneBlocks = new AtomicInteger(0);
+   private volatile RuntimeException error;
+   
+   /**
+    * Creates the recovery work for the specified
+    * recovering transaction.
+    * @param txnum the id of the transaction performing the recovery
+    */
+   PageRecovery(int txnum) {
+      this.txnum = txnum;
+   }
+   
+   /**
+    * Adds a record to be redone.
+    * The records must be added in reverse log order,
+    * as they are read from the log.
+    * @param rec the log record
+    */
+   void addRedo(LogRecord rec) {
+      add(redoRecs, rec);
+      redoCount++;
+   }
+   
+   /**
+    * Adds a record to be undone.
+    * The records must be added in reverse log order,
+    * as they are read from the log.
+    * @param rec the log record
+    */
+   void addUndo(LogRecord rec) {
+      add(undoRecs, rec);
+      undoCount++;
+   }
+   
+   /**
+    * Redoes and undoes the records of each block, 
+    * using the specified number of worker threads.
+    * The method returns when every block has been recovered.
+    * @param nthreads the number of worker threads
+    */
+   void run(int nthreads) {
+      Set<Block> blkset = new HashSet<Block>(redoRecs.keySet());
+      blkset.addAll(undoRecs.keySet());
+      blocks = blkset.toArray(new Block[blkset.size()]);
+      Arrays.sort(blocks, new Comparator<Block>() {
+         public int compare(Block b1, Block b2) {
+            int result = b1.fileName().compareTo(b2.fileName());
+            return (result != 0) ? result : b1.number() - b2.number();
+         }
+      });
+      nthreads = Math.max(1, Math.min(nthreads, blocks.length));
+      long start = System.currentTimeMillis();
+      Thread[] workers = new Thread[nthreads];
+      for (int i=0; i<nthreads; i++) {
+         workers[i] = new Thread(new Worker(), "recovery worker " + i);
+         workers[i].start();
+      }
+      for (Thread worker : workers) {
+         try {
+            worker.join();
+         }
+         catch (InterruptedException e) {
+            throw new RuntimeException("interrupted while waiting for recovery");
+         }
+      }
+      if (error != null)
+         throw error;
+      report("recovery: redid " + redoCount + " and undid " + undoCount
+            + " records on " + blocks.length + " blocks with " + nthreads
+            + " threads in " + (System.currentTimeMillis() - start) + " ms");
+   }
+   
+   private void add(Map<Block,List<LogRecord>> recs, LogRecord rec) {
+      List<LogRecord> list = recs.get(rec.block());
+      if (list == null) {
+         list = new ArrayList<LogRecord>();
+         recs.put(rec.block(), list);
+      }
+      list.add(rec);
+   }
+   
+   /**
+    * Recovers the specified block.
+    * The block is kept pinned while its records are applied,
+    * so that each record finds it in the buffer pool.
+    */
+   private void recover(Block blk) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      try {
+         List<LogRecord> redos = redoRecs.get(blk);
+         if (redos != null)
+            for (int i=redos.size()-1; i>=0; i--)
+               redos.get(i).redo(txnum);
+         List<LogRecord> undos = undoRecs.get(blk);
+         if (undos != null)
+            for (LogRecord rec : undos)
+               rec.undo(txnum);
+      }
+      finally {
+         buffMgr.unpin(buff);
+      }
+   }
+   
+   /**
+    * Reports progress each time another tenth of the blocks is done.
+    */
+   private void blockDone() {
+      int done = doneBlocks.incrementAndGet();
+      int step = Math.max(1, blocks.length / 10);
+      if (done % step == 0 || done == blocks.length)
+         report("recovery: " + done + " of " + blocks.length + " blocks recovered");
+   }
+   
+   static void report(String msg) {
+      if (SimpleDB.getLogger() != null)
+         SimpleDB.getLogger().log(Level.INFO, msg);
+   }
+   
+   private class Worker implements Runnable {
+      public void run() {
+         try {
+            int i;
+            while (error == null && (i = nextBlock.getAndIncrement()) < blocks.length) {
+               recover(blocks[i]);
+               blockDone();
+            }
+         }
+         catch (RuntimeException e) {
+            synchronized (PageRecovery.this) {
+               if (error == null)
+                  error = e;
+            }
+         }
+      }
+   }
+}
@@ -1,130 +1,463 @@
 package simpledb.tx.recovery;
 
 import static simpledb.tx.recovery.LogRecord.*;
+import static simpledb.file.Page.*;
 import simpledb.file.Block;
 import simpledb.buffer.Buffer;
+import simpledb.log.LogReader;
 import simpledb.server.SimpleDB;
 import java.util.*;
 
 /**
  * The recovery manager.  Each transaction has its own recovery manager.
+ * <P>
+ * The class also keeps the set of active transactions,
+ * together with the LSNs of their START records.
+ * A checkpoint lists the active transactions, without
+ * waiting for them to complete; recovery then needs
+ * the log only as far back as the START record of the earliest
+ * of them, and the older part of the log is truncated.
+ * <P>
+ * Commit does not force the transaction's modified pages;
+ * it forces only the log, and the buffer manager writes the
+ * pages back lazily.
+ * Update records therefore hold both the old and the new values,
+ * and recovery redoes the modifications of committed transactions
+ * before undoing those of uncompleted ones.
+ * A checkpoint flushes every dirty buffer, so that modifications
+ * logged before it began need not be redone.
+ * <P>
+ * A transaction's START record is written just before its
+ * first update record.
+ * A transaction that modifies nothing, such as one that only
+ * runs queries, thus writes no log records at all, and
+ * its commit does not wait for the log.
  * @author Edward Sciore
  */
 public class RecoveryMgr {
+   private static Map<Integer,Long> activeTxs = new HashMap<Integer,Long>();
+   private static Thread checkpointer;
+
+   /**
+    * The largest number of unchanged bytes between two
+    * modified ranges of a page that are logged as a single range.
+    */
+   private static final int MERGE_GAP = 16;
+
    private int txnum;
+   private Buffer deferred = null;  // the buffer whose modifications are not yet logged
+   private BitSet written = new BitSet(BLOCK_SIZE);  // the bytes of it written by the transaction
+   private long lastlsn = -1;  // the LSN of the transaction's most recent log record
+   private boolean loaded = false;
+   private boolean async = false;
 
    /**
     * Creates a recovery manager for the specified transaction.
+    * Nothing is logged until the transaction modifies the database.
     * @param txnum the ID of the specified transaction
     */
    public RecoveryMgr(int txnum) {
       this.txnum = txnum;
-      new StartRecord(txnum).writeToLog();
+   }
+
+   /**
+    * Writes a non-quiescent checkpoint record, which lists the
+    * active transactions, and flushes it to disk.
+    * New transactions can start while the checkpoint is taken.
+    * The method first notes the end of the log as the redo LSN,
+    * and flushes every dirty buffer.
+    * The log segments preceding the redo LSN and the
+    * START record of each active transaction are then truncated.
+    * If there are too many active transactions to fit in a checkpoint
+    * record, the method does nothing.
+    */
+   public static void checkpoint() {
+      long redolsn = SimpleDB.logMgr().endOfLog();
+      SimpleDB.bufferMgr().flushAll();
+      long lsn, oldest;
+      synchronized (activeTxs) {
+         if (activeTxs.size() > CheckpointRecord.MAX_TXS)
+            return;
+         lsn = new CheckpointRecord(redolsn, new ArrayList<Integer>(activeTxs.keySet())).writeToLog();
+         oldest = redolsn;
+         for (long startlsn : activeTxs.values())
+            oldest = Math.min(oldest, startlsn);
+      }
+      SimpleDB.logMgr().flush(lsn);
+      SimpleDB.logMgr().truncate(oldest);
+   }
+
+   /**
+    * Starts the thread that writes periodic checkpoints,
+    * unless it is already running or periodic checkpoints
+    * are disabled.
+    */
+   public static synchronized void startCheckpointer() {
+      if (checkpointer != null || SimpleDB.CHECKPOINT_INTERVAL <= 0)
+         return;
+      checkpointer = new Thread(new Checkpointer(), "checkpointer");
+      checkpointer.setDaemon(true);
+      checkpointer.start();
+   }
+
+   /**
+    * Sets whether the transaction commits asynchronously.
+    * @param async true if the commit should not wait for the log flush
+    * @see #commit()
+    */
+   public void setAsyncCommit(boolean async) {
+      this.async = async;
    }
 
    /**
     * Writes a commit record to the log, and flushes it to disk.
+    * The transaction's modified buffers are not flushed,
+    * except for the blocks it loaded, whose contents are not logged.
+    * <P>
+    * If the transaction commits asynchronously, the method
+    * does not wait for the flush, and the log manager flushes the record 
+    * within {@link simpledb.server.SimpleDB#ASYNC_COMMIT_DELAY} milliseconds.
+    * The log is written in order, and a page is never written before
+    * its log records, so a crash before the flush loses the
+    * transaction as a whole: recovery sees no commit record, and undoes it.
+    * A transaction that logged nothing writes no commit record.
     */
    public void commit() {
-      SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CommitRecord(txnum).writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      logDeferredChanges();
+      if (!started())
+         return;
+      if (loaded)
+         SimpleDB.bufferMgr().flushAll(txnum);
+      long lsn = new CommitRecord(txnum, lastlsn).writeToLog();
+      if (async)
+         SimpleDB.logMgr().flushLater(lsn);
+      else
+         SimpleDB.logMgr().flush(lsn);
+      finish();
    }
 
    /**
     * Writes a rollback record to the log, and flushes it to disk.
+    * As with commit, a transaction that logged nothing
+    * has nothing to undo, and writes nothing.
     */
    public void rollback() {
+      logDeferredChanges();
+      if (!started())
+         return;
       doRollback();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new RollbackRecord(txnum).writeToLog();
+      long lsn = new RollbackRecord(txnum, lastlsn).writeToLog();
       SimpleDB.logMgr().flush(lsn);
+      finish();
    }
 
    /**
     * Recovers uncompleted transactions from the log,
-    * then writes a quiescent checkpoint record to the log and flushes it.
+    * then writes a checkpoint record to the log and flushes it.
+    * The only active transaction at that point is the one
+    * doing the recovery.
     */
    public void recover() {
       doRecover();
       SimpleDB.bufferMgr().flushAll(txnum);
-      int lsn = new CheckpointRecord().writeToLog();
-      SimpleDB.logMgr().flush(lsn);
+      checkpoint();
+   }
 
+   /**
+    * Prepares for an integer to be written to the page.
+    * The modification is not logged right away; instead,
+    * the modifications that the transaction makes to a page
+    * are logged together, as pagediff records,
+    * when it modifies another page, loads a block, or completes
+    * (see {@link #logDeferredChanges()}).
+    * A "dummy" negative lsn is therefore returned.
+    * Updates to temporary files are never logged.
+    * @param buff the buffer containing the page
+    * @param offset the offset of the value in the page
+    * @param newval the value to be written
+    */
+   public long setInt(Buffer buff, int offset, int newval) {
+      if (!isTempBlock(buff.block())) {
+         deferLogging(buff);
+         written.set(offset, offset + INT_SIZE);
+      }
+      return -1;
    }
 
    /**
-    * Writes a setint record to the log, and returns its lsn.
-    * Updates to temporary files are not logged; instead, a
-    * "dummy" negative lsn is returned.
+    * Prepares for a string to be written to the page.
+    * As with {@link #setInt(Buffer, int, int)}, the modification
+    * is logged later, and a "dummy" negative lsn is returned.
     * @param buff the buffer containing the page
     * @param offset the offset of the value in the page
     * @param newval the value to be written
     */
-   public int setInt(Buffer buff, int offset, int newval) {
-      int oldval = buff.getInt(offset);
+   public long setString(Buffer buff, int offset, String newval) {
+      if (!isTempBlock(buff.block())) {
+         deferLogging(buff);
+         written.set(offset, offset + STR_SIZE(newval.length()));
+      }
+      return -1;
+   }
+
+   /**
+    * Writes a setbits record to the log, and returns its lsn.
+    * Unlike the other modifications, setting bits is logged
+    * right away, so that transactions modifying different bits 
+    * of the same integer do not log each other's bits.
+    * Updates to temporary files are not logged; instead, a
+    * "dummy" negative lsn is returned.
+    * @param buff the buffer containing the page
+    * @param offset the offset of the integer in the page
+    * @param mask the bits to be modified
+    * @param on true if the bits are to be set, false if cleared
+    * @return the LSN of the log record, or -1 if updates to temporary files
+    */
+   public long setBits(Buffer buff, int offset, int mask, boolean on) {
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetIntRecord(txnum, blk, offset, oldval).writeToLog();
+      start();
+      lastlsn = new SetBitsRecord(txnum, lastlsn, blk, offset, mask, on).writeToLog();
+      return lastlsn;
    }
 
    /**
-    * Writes a setstring record to the log, and returns its lsn.
+    * Writes a setbytes record to the log, and returns its lsn.
+    * The modification is logged right away and is never undone,
+    * so that other transactions can modify the same bytes
+    * before this one completes.
+    * A range too long for a single record is split.
     * Updates to temporary files are not logged; instead, a
     * "dummy" negative lsn is returned.
     * @param buff the buffer containing the page
-    * @param offset the offset of the value in the page
-    * @param newval the value to be written
+    * @param offset the offset of the first byte in the page
+    * @param val the new values of the bytes
+    * @return the LSN of the last log record, or -1 if updates to temporary files
     */
-   public int setString(Buffer buff, int offset, String newval) {
-      String oldval = buff.getString(offset);
+   public long setBytes(Buffer buff, int offset, byte[] val) {
       Block blk = buff.block();
       if (isTempBlock(blk))
          return -1;
-      else
-         return new SetStringRecord(txnum, blk, offset, oldval).writeToLog();
+      start();
+      int maxrange = SetBytesRecord.maxRange(blk);
+      for (int from=0; from<val.length; from+=maxrange) {
+         int to = Math.min(from + maxrange, val.length);
+         lastlsn = new SetBytesRecord(txnum, lastlsn, blk, offset + from,
+                                      Arrays.copyOfRange(val, from, to)).writeToLog();
+      }
+      return lastlsn;
+   }
+
+   /**
+    * Logs the modifications that the transaction has made to its
+    * deferred page, if any.
+    * Within each range of bytes that the transaction wrote, the method
+    * compares the page with its contents before the modifications,
+    * and writes a pagediff record for each modified range;
+    * ranges separated by fewer than MERGE_GAP unchanged bytes are logged
+    * as one, and a range is split if its record would not fit in a log block.
+    * Bytes that the transaction did not write are never logged,
+    * since other transactions may be modifying them.
+    * A single-row insertion or a B-tree insertion is thus typically logged
+    * by a single record.
+    */
+   public void logDeferredChanges() {
+      if (deferred == null)
+         return;
+      Buffer buff = deferred;
+      deferred = null;
+      synchronized (buff) {
+         Block blk = buff.block();
+         byte[] before = buff.unloggedImage();
+         byte[] after = buff.getBytes(0, BLOCK_SIZE);
+         int maxrange = PageDiffRecord.maxRange(blk);
+         long lsn = -1;
+         for (int runstart = written.nextSetBit(0); runstart >= 0;
+              runstart = written.nextSetBit(runstart)) {
+            int runend = written.nextClearBit(runstart);
+            int pos = runstart;
+            while (pos < runend) {
+               if (before[pos] == after[pos]) {
+                  pos++;
+                  continue;
+               }
+               int start = pos, end = pos + 1;
+               for (int i=end; i<runend && i-start<maxrange && i-end<MERGE_GAP; i++)
+                  if (before[i] != after[i])
+                     end = i + 1;
+               start();
+               lsn = new PageDiffRecord(txnum, lastlsn, blk, start,
+                                        Arrays.copyOfRange(before, start, end),
+                                        Arrays.copyOfRange(after, start, end)).writeToLog();
+               lastlsn = lsn;
+               pos = end;
+            }
+            buff.logged(runstart, runend - runstart);
+            runstart = runend;
+         }
+         buff.endUnloggedChanges(lsn);
+      }
+      written.clear();
+      SimpleDB.bufferMgr().unpin(buff);
+   }
+
+   /**
+    * Makes the specified buffer the transaction's deferred page,
+    * after logging the changes to the previous one.
+    * The buffer is pinned until its changes are logged,
+    * so that it is not replaced in the meantime.
+    */
+   private void deferLogging(Buffer buff) {
+      if (buff == deferred)
+         return;
+      logDeferredChanges();
+      SimpleDB.bufferMgr().pin(buff.block());
+      buff.beginUnloggedChanges();
+      deferred = buff;
+   }
+
+   /**
+    * Writes a load record to the log, and returns its lsn.
+    * The record does not contain the block's contents;
+    * the loaded block is assumed to be newly appended, so
+    * undoing the load simply empties it.
+    * The transaction writes its loaded blocks to disk at commit.
+    * Loads into temporary files are not logged; instead, a
+    * "dummy" negative lsn is returned.
+    * @param buff the buffer containing the loaded block
+    */
+   public long load(Buffer buff) {
+      Block blk = buff.block();
+      if (isTempBlock(blk))
+         return -1;
+      logDeferredChanges();
+      loaded = true;
+      start();
+      lastlsn = new LoadRecord(txnum, lastlsn, blk).writeToLog();
+      return lastlsn;
    }
 
    /**
     * Rolls back the transaction.
-    * The method iterates through the log records,
-    * calling undo() for each log record it finds
-    * for the transaction,
-    * until it finds the transaction's START record.
+    * The method follows the chain of the transaction's
+    * log records backwards, starting with its most recent one,
+    * calling undo() for each of them
+    * until it reaches the transaction's START record.
+    * Each record is located by its LSN with a single log reader,
+    * so the records of other transactions are never decoded,
+    * and nearby records are read from the reader's chunk in memory.
     */
    private void doRollback() {
-      Iterator<LogRecord> iter = new LogRecordIterator();
-      while (iter.hasNext()) {
-         LogRecord rec = iter.next();
-         if (rec.txNumber() == txnum) {
-            if (rec.op() == START)
-               return;
-            rec.undo(txnum);
-         }
+      LogReader reader = SimpleDB.logMgr().reader();
+      long lsn = lastlsn;
+      while (lsn >= 0) {
+         LogRecord rec = LogRecordIterator.createLogRecord(reader.seek(lsn));
+         if (rec.op() == START)
+            return;
+         rec.undo(txnum);
+         lsn = rec.prevLSN();
       }
    }
 
    /**
     * Does a complete database recovery.
-    * The method iterates through the log records.
-    * Whenever it finds a log record for an unfinished
-    * transaction, it calls undo() on that record.
-    * The method stops when it encounters a CHECKPOINT record
-    * or the end of the log.
+    * The method iterates backwards through the log records,
+    * collecting the records of committed transactions
+    * that must be redone, and those of uncompleted
+    * transactions that must be undone.
+    * When it encounters the most recent CHECKPOINT record,
+    * the only transactions left to undo are those listed
+    * in the checkpoint that have not finished, and only the
+    * records following the checkpoint's redo LSN need to be redone;
+    * the method stops reading the log once it is past the redo LSN
+    * and has reached the START record of each of those transactions.
+    * It then calls redo() on the collected records in log order,
+    * followed by undo() on the others in reverse log order.
+    * Since each record modifies a single block, this work is partitioned
+    * by block and done by a pool of worker threads
+    * (see {@link PageRecovery}); the number of threads is
+    * {@link simpledb.server.SimpleDB#RECOVERY_THREADS},
+    * limited by the number of buffers.
+    * <P>
+    * The records of rolled-back transactions are neither redone nor undone,
+    * because a rollback writes the restored pages to disk.
     */
    private void doRecover() {
-      Collection<Integer> finishedTxs = new ArrayList<Integer>();
-      Iterator<LogRecord> iter = new LogRecordIterator();
+      Collection<Integer> committedTxs = new HashSet<Integer>();
+      Collection<Integer> rolledBackTxs = new HashSet<Integer>();
+      Collection<Integer> pendingTxs = null;
+      long redolsn = -1;
+      PageRecovery work = new PageRecovery(txnum);
+      long start = System.currentTimeMillis();
+      int count = 0;
+      LogRecordIterator iter = new LogRecordIterator();
       while (iter.hasNext()) {
          LogRecord rec = iter.next();
-         if (rec.op() == CHECKPOINT)
-            return;
-         if (rec.op() == COMMIT || rec.op() == ROLLBACK)
-            finishedTxs.add(rec.txNumber());
-         else if (!finishedTxs.contains(rec.txNumber()))
-            rec.undo(txnum);
+         count++;
+         long lsn = iter.lsn();
+         if (pendingTxs != null && pendingTxs.isEmpty() && lsn < redolsn)
+            break;
+         if (rec.op() == CHECKPOINT) {
+            if (pendingTxs == null) {
+               CheckpointRecord ckpt = (CheckpointRecord) rec;
+               pendingTxs = new HashSet<Integer>(ckpt.activeTxs());
+               pendingTxs.removeAll(committedTxs);
+               pendingTxs.removeAll(rolledBackTxs);
+               redolsn = ckpt.redoLSN();
+            }
+         }
+         else if (rec.op() == COMMIT)
+            committedTxs.add(rec.txNumber());
+         else if (rec.op() == ROLLBACK)
+            rolledBackTxs.add(rec.txNumber());
+         else if (rec.op() == START) {
+            if (pendingTxs != null)
+               pendingTxs.remove(rec.txNumber());
+         }
+         else if (committedTxs.contains(rec.txNumber())) {
+            if (lsn >= redolsn)
+               work.addRedo(rec);
+         }
+         else if (!rolledBackTxs.contains(rec.txNumber()))
+            work.addUndo(rec);
+      }
+      PageRecovery.report("recovery: read " + count + " log records in "
+            + (System.currentTimeMillis() - start) + " ms");
+      int nthreads = SimpleDB.RECOVERY_THREADS;
+      if (nthreads <= 0)
+         nthreads = Runtime.getRuntime().availableProcessors();
+      work.run(Math.min(nthreads, SimpleDB.BUFFER_SIZE));
+   }
+
+   /**
+    * Writes the transaction's START record, if it has not been
+    * written yet, and adds the transaction to the set of active
+    * transactions.
+    * Both happen together, so that a checkpoint lists every 
+    * transaction whose START record precedes it.
+    */
+   private void start() {
+      if (started())
+         return;
+      synchronized (activeTxs) {
+         lastlsn = new StartRecord(txnum).writeToLog();
+         activeTxs.put(txnum, lastlsn);
+      }
+   }
+
+   private boolean started() {
+      return lastlsn >= 0;
+   }
+
+   /**
+    * Removes the transaction from the set of active transactions,
+    * once its COMMIT or ROLLBACK record is on disk.
+    */
+   private void finish() {
+      synchronized (activeTxs) {
+         activeTxs.remove(txnum);
       }
    }
 
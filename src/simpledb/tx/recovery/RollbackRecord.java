@@ -1,38 +1,45 @@
 package simpledb.tx.recovery;
 
+import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogRecordWriter;
 
 /**
  * The ROLLBACK log record.
  * @author Edward Sciore
  */
 class RollbackRecord implements LogRecord {
+   private long prevlsn;
    private int txnum;
    
    /**
     * Creates a new rollback log record for the specified transaction.
     * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
     */
-   public RollbackRecord(int txnum) {
+   public RollbackRecord(int txnum, long prevlsn) {
       this.txnum = txnum;
+      this.prevlsn = prevlsn;
    }
    
    /**
-    * Creates a log record by reading one other value from the log.
+    * Creates a log record by reading two other values from the log.
     * @param rec the basic log record
     */
    public RollbackRecord(BasicLogRecord rec) {
       txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
    }
    
    /** 
     * Writes a rollback record to the log.
     * This log record contains the ROLLBACK operator,
-    * followed by the transaction id.
-    * @return the LSN of the last log value
+    * followed by the transaction id and the LSN of the
+    * transaction's previous log record.
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {ROLLBACK, txnum};
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(ROLLBACK).putInt(txnum).putLong(prevlsn);
       return logMgr.append(rec);
    }
    
@@ -43,6 +50,10 @@ class RollbackRecord implements LogRecord {
    public int txNumber() {
       return txnum;
    }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
    
    /**
     * Does nothing, because a rollback record
@@ -50,6 +61,20 @@ class RollbackRecord implements LogRecord {
     */
    public void undo(int txnum) {}
    
+   /**
+    * Returns null, because a rollback record
+    * does not modify a block.
+    */
+   public Block block() {
+      return null;
+   }
+   
+   /**
+    * Does nothing, because a rollback record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
       return "<ROLLBACK " + txnum + ">";
    }
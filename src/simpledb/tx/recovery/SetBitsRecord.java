@@ -0,0 +1,118 @@
+package simpledb.tx.recovery;
+
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.log.BasicLogRecord;
+import simpledb.log.LogRecordWriter;
+
+/**
+ * The SETBITS log record.
+ * The record describes setting or clearing some bits
+ * of an integer in a block, leaving its other bits unchanged.
+ * Unlike a PAGEDIFF record, it does not hold the old value
+ * of the integer, since the other bits may belong to records
+ * that other transactions are modifying at the same time;
+ * undoing it flips only its own bits back.
+ */
+class SetBitsRecord implements LogRecord {
+   private long prevlsn;
+   private int txnum, offset, mask;
+   private boolean on;
+   private Block blk;
+
+   /**
+    * Creates a new setbits log record.
+    * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
+    * @param blk the modified block
+    * @param offset the offset of the integer in the block
+    * @param mask the modified bits of the integer
+    * @param on true if the bits were set, false if they were cleared
+    */
+   public SetBitsRecord(int txnum, long prevlsn, Block blk, int offset,
+                        int mask, boolean on) {
+      this.txnum = txnum;
+      this.prevlsn = prevlsn;
+      this.blk = blk;
+      this.offset = offset;
+      this.mask = mask;
+      this.on = on;
+   }
+
+   /**
+    * Creates a log record by reading seven other values from the log.
+    * @param rec the basic log record
+    */
+   public SetBitsRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      offset = rec.nextInt();
+      mask = rec.nextInt();
+      on = (rec.nextInt() != 0);
+   }
+
+   /**
+    * Writes a setbits record to the log.
+    * This log record contains the SETBITS operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and number
+    * of the modified block, the offset of the integer,
+    * the mask of the modified bits, and whether they were set.
+    * @return the LSN of the log record
+    */
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(SETBITS).putInt(txnum).putLong(prevlsn)
+         .putString(blk.fileName()).putInt(blk.number())
+         .putInt(offset).putInt(mask).putInt(on ? 1 : 0);
+      return logMgr.append(rec);
+   }
+
+   public int op() {
+      return SETBITS;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
+
+   public Block block() {
+      return blk;
+   }
+
+   public String toString() {
+      return "<SETBITS " + txnum + " " + blk + " " + offset + " " + mask + " " + on + ">";
+   }
+
+   /**
+    * Flips the bits of the log record back.
+    * The method pins a buffer to the specified block,
+    * calls setBits with the opposite operation
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setBits(offset, mask, !on, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+
+   /**
+    * Sets or clears the bits of the log record again.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setBits(offset, mask, on, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+}
@@ -0,0 +1,124 @@
+package simpledb.tx.recovery;
+
+import static simpledb.file.Page.*;
+import simpledb.server.SimpleDB;
+import simpledb.buffer.*;
+import simpledb.file.Block;
+import simpledb.log.BasicLogRecord;
+import simpledb.log.LogMgr;
+import simpledb.log.LogRecordWriter;
+
+/**
+ * The SETBYTES log record.
+ * The record describes storing a range of bytes in a block,
+ * and holds only their new values.
+ * It is redone but never undone: a transaction writes it for
+ * data that stays correct whether or not the transaction
+ * commits, and that other transactions may have modified
+ * since, so that restoring the old values would be wrong.
+ */
+class SetBytesRecord implements LogRecord {
+   private long prevlsn;
+   private int txnum, offset;
+   private byte[] val;
+   private Block blk;
+
+   /**
+    * Creates a new setbytes log record.
+    * @param txnum the ID of the specified transaction
+    * @param prevlsn the LSN of the transaction's previous log record
+    * @param blk the modified block
+    * @param offset the offset of the first modified byte in the block
+    * @param val the new values of the bytes
+    */
+   public SetBytesRecord(int txnum, long prevlsn, Block blk, int offset, byte[] val) {
+      this.txnum = txnum;
+      this.prevlsn = prevlsn;
+      this.blk = blk;
+      this.offset = offset;
+      this.val = val;
+   }
+
+   /**
+    * Creates a log record by reading six other values from the log.
+    * @param rec the basic log record
+    */
+   public SetBytesRecord(BasicLogRecord rec) {
+      txnum = rec.nextInt();
+      prevlsn = rec.nextLong();
+      String filename = rec.nextString();
+      int blknum = rec.nextInt();
+      blk = new Block(filename, blknum);
+      offset = rec.nextInt();
+      val = rec.nextBytes();
+   }
+
+   /**
+    * Returns the largest number of bytes whose values
+    * fit in a single setbytes record for the specified block.
+    * @param blk the modified block
+    * @return the largest range of bytes that the record can describe
+    */
+   static int maxRange(Block blk) {
+      int fixed = 6 * INT_SIZE                       // op, txnum, prevlsn, blknum, offset
+                + STR_SIZE(blk.fileName().length())  // filename
+                + INT_SIZE;                          // the length of the byte array
+      return LogMgr.MAX_RECORD_SIZE - fixed;
+   }
+
+   /**
+    * Writes a setbytes record to the log.
+    * This log record contains the SETBYTES operator,
+    * followed by the transaction id, the LSN of the
+    * transaction's previous log record, the filename and number
+    * of the modified block, the offset of the first modified byte,
+    * and the new values of the bytes.
+    * @return the LSN of the log record
+    */
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(SETBYTES).putInt(txnum).putLong(prevlsn)
+         .putString(blk.fileName()).putInt(blk.number())
+         .putInt(offset).putBytes(val);
+      return logMgr.append(rec);
+   }
+
+   public int op() {
+      return SETBYTES;
+   }
+
+   public int txNumber() {
+      return txnum;
+   }
+
+   public long prevLSN() {
+      return prevlsn;
+   }
+
+   public Block block() {
+      return blk;
+   }
+
+   public String toString() {
+      return "<SETBYTES " + txnum + " " + blk + " " + offset + " " + val.length + ">";
+   }
+
+   /**
+    * Does nothing, because the new values are left in place.
+    * @see simpledb.tx.recovery.LogRecord#undo(int)
+    */
+   public void undo(int txnum) {}
+
+   /**
+    * Writes the new values of the bytes saved in the log record.
+    * The method pins a buffer to the specified block,
+    * calls setBytes to store the new values
+    * (using a dummy LSN), and unpins the buffer.
+    * @see simpledb.tx.recovery.LogRecord#redo(int)
+    */
+   public void redo(int txnum) {
+      BufferMgr buffMgr = SimpleDB.bufferMgr();
+      Buffer buff = buffMgr.pin(blk);
+      buff.setBytes(offset, val, txnum, -1);
+      buffMgr.unpin(buff);
+   }
+}
@@ -1,6 +1,8 @@
 package simpledb.tx.recovery;
 
+import simpledb.file.Block;
 import simpledb.log.BasicLogRecord;
+import simpledb.log.LogRecordWriter;
 
 class StartRecord implements LogRecord {
    private int txnum;
@@ -25,10 +27,10 @@ class StartRecord implements LogRecord {
     * Writes a start record to the log.
     * This log record contains the START operator,
     * followed by the transaction id.
-    * @return the LSN of the last log value
+    * @return the LSN of the log record
     */
-   public int writeToLog() {
-      Object[] rec = new Object[] {START, txnum};
+   public long writeToLog() {
+      LogRecordWriter rec = LogRecordWriter.get().putInt(START).putInt(txnum);
       return logMgr.append(rec);
    }
    
@@ -39,6 +41,14 @@ class StartRecord implements LogRecord {
    public int txNumber() {
       return txnum;
    }
+
+   /**
+    * A start record is the first record of its transaction,
+    * and so the method returns a "dummy", negative LSN.
+    */
+   public long prevLSN() {
+      return -1; // dummy value
+   }
    
    /**
     * Does nothing, because a start record
@@ -46,6 +56,20 @@ class StartRecord implements LogRecord {
     */
    public void undo(int txnum) {}
    
+   /**
+    * Returns null, because a start record
+    * does not modify a block.
+    */
+   public Block block() {
+      return null;
+   }
+   
+   /**
+    * Does nothing, because a start record
+    * contains no redo information.
+    */
+   public void redo(int txnum) {}
+   
    public String toString() {
       return "<START " + txnum + ">";
    }